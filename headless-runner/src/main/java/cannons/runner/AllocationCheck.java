@@ -0,0 +1,141 @@
+package cannons.runner;
+
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import cannons.physics.Body;
+import cannons.physics.Cannon;
+import cannons.physics.DustField;
+import cannons.physics.RandomOpponent;
+import cannons.physics.System;
+import cannons.physics.Terrain;
+import cannons.physics.Vec;
+
+/**
+ * Headless check of the memory allocated by each subsystem. A scripted
+ * match (two random opponents shooting into a pile of bodies, the dust
+ * blown by the wind, and a camera scrolling over the terrain) is simulated,
+ * and the bytes allocated by the main thread are measured around each
+ * subsystem. After a warm-up, the average allocation per tick of every
+ * subsystem must stay under its budget: a stray copy in a hot path (e.g. a
+ * Vec.get() per body) makes the check fail.
+ * The dust count is kept under DustField.CHUNK, so that the dust is stepped
+ * on the main thread and its allocations are measured too.
+ * Usage: "AllocationCheck [ticks] [bodies]"
+ */
+public class AllocationCheck
+{
+	/** Subsystems measured. */
+	enum Subsystem { PHYSICS, DUST, TERRAIN, AI }
+
+	/** Allocation budgets, in bytes per tick (same order as the subsystems). */
+	static final long[] BUDGETS = { 256, 64, 256, 256 };
+	/** Ticks simulated before measuring (pile settling, JIT compilation). */
+	static final int WARMUP = 600;
+
+	/** Allocation counter of the threads (HotSpot extension). */
+	private static final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	/** Bytes allocated by each subsystem since the end of the warm-up. */
+	private final long[] allocated = new long[Subsystem.values().length];
+	/** Whether the warm-up is over. */
+	private boolean measuring;
+	/** Thread being measured and its allocation counter at the start of the current subsystem. */
+	private final long threadId = Thread.currentThread().getId();
+	private long start;
+
+	private void begin()
+	{
+		start = threads.getThreadAllocatedBytes(threadId);
+	}
+
+	private void end(Subsystem subsystem)
+	{
+		if (measuring)
+			allocated[subsystem.ordinal()] += threads.getThreadAllocatedBytes(threadId) - start;
+	}
+
+	/**
+	 * Simulate the scripted match and measure the allocations.
+	 * @param ticks Number of measured ticks
+	 * @param nbBodies Number of bodies piled up at the start
+	 * @return Bytes allocated per tick by each subsystem
+	 */
+	long[] run(int ticks, int nbBodies)
+	{
+		SplittableRandom root = new SplittableRandom(42);
+		SplittableRandom terrainRandom = root.split(), cannonRandom = root.split();
+		SplittableRandom opponentRandom = root.split(), fillRandom = root.split();
+		System system = new System(root.split());
+		Terrain terrain = new Terrain(3*1104, 600, (int) (0.85f*600), (int) (0.20f*600), terrainRandom.nextLong());
+		Cannon cannon1 = new Cannon(terrain.getFirstCannonPosition(), true, system.getConfig(), cannonRandom);
+		Cannon cannon2 = new Cannon(terrain.getSecondCannonPosition(), false, system.getConfig(), cannonRandom);
+		system.setCannonCollisions(cannon1.getCollisionCircleCenter(), 0.75f*cannon1.length/2,
+				cannon2.getCollisionCircleCenter(), 0.75f*cannon2.length/2);
+		RandomOpponent opponent1 = new RandomOpponent(cannon1, system, opponentRandom);
+		RandomOpponent opponent2 = new RandomOpponent(cannon2, system, opponentRandom);
+		opponent1.enable();
+		opponent2.enable();
+		while (system.getNumberOfBodies() < nbBodies) {
+			Vec pos = new Vec(0.3f*terrain.worldWidth + 0.4f*terrain.worldWidth*fillRandom.nextFloat(),
+					terrain.horizon*fillRandom.nextFloat());
+			system.safeAddBody(new Body(pos, 0.5f + 0.5f*fillRandom.nextFloat(),
+					system.getNumberOfBodies() % 2 == 0, system.getConfig()));
+		}
+		DustField dust = new DustField(1104, 600, root.split(), ForkJoinPool.commonPool());
+		dust.setCount(DustField.CHUNK);
+		float[] columns = new float[1104/4], heights = new float[columns.length];
+		for (int t = 0; t < WARMUP + ticks; t++) {
+			measuring = t >= WARMUP;
+			// The camera goes back and forth over the world, a screen per 10 seconds.
+			float phase = (t % 1200) / 600.0f;
+			float cameraX = (terrain.worldWidth - 1104) * ((phase < 1) ? phase : 2 - phase);
+
+			begin();
+			system.setViewOrigin(cameraX, 1104);
+			system.step(terrain);
+			system.getEvents().clear();
+			end(Subsystem.PHYSICS);
+
+			begin();
+			dust.step(system.getWindField(), cameraX, system.getConfig());
+			end(Subsystem.DUST);
+
+			begin();
+			for (int k = 0; k < columns.length; k++) {
+				columns[k] = cameraX + 4*k;
+			}
+			terrain.getHeightsUnder(columns, heights, columns.length);
+			terrain.trim();
+			end(Subsystem.TERRAIN);
+
+			begin();
+			opponent1.step();
+			opponent2.step();
+			end(Subsystem.AI);
+		}
+		long[] perTick = new long[allocated.length];
+		for (int s = 0; s < perTick.length; s++) {
+			perTick[s] = allocated[s] / ticks;
+		}
+		return perTick;
+	}
+
+	public static void main(String args[])
+	{
+		int ticks = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+		int nbBodies = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+		long[] perTick = new AllocationCheck().run(ticks, nbBodies);
+		boolean failed = false;
+		for (Subsystem s : Subsystem.values()) {
+			long used = perTick[s.ordinal()], budget = BUDGETS[s.ordinal()];
+			java.lang.System.out.printf("%-8s %8d bytes/tick (budget %d)%s%n", s, used, budget,
+					(used > budget) ? "  OVER BUDGET" : "");
+			failed |= used > budget;
+		}
+		if (failed)
+			java.lang.System.exit(1);
+		java.lang.System.out.println("All subsystems within their allocation budgets");
+	}
+}
@@ -0,0 +1,79 @@
+package cannons.runner;
+
+import java.util.SplittableRandom;
+
+import cannons.physics.Body;
+import cannons.physics.Cannon;
+import cannons.physics.RandomOpponent;
+import cannons.physics.System;
+import cannons.physics.Terrain;
+import cannons.physics.Vec;
+
+/**
+ * Headless check of the determinism mode. A seeded match (two random
+ * opponents shooting into a pile of bodies) is simulated twice, and the
+ * checksums of every tick are compared. Running it with different JVM
+ * options (e.g. -Xint) or on other machines and comparing the final
+ * checksum checks the determinism across runs.
+ * Usage: "DeterminismCheck [seed] [bodies] [ticks]"
+ */
+public class DeterminismCheck
+{
+	/**
+	 * Simulate a seeded match.
+	 * @param seed Seed of all the random streams
+	 * @param nbBodies Number of bodies piled up at the start
+	 * @param ticks Number of ticks
+	 * @return Checksum of each tick
+	 */
+	static long[] run(long seed, int nbBodies, int ticks)
+	{
+		SplittableRandom root = new SplittableRandom(seed);
+		SplittableRandom terrainRandom = root.split(), cannonRandom = root.split();
+		SplittableRandom opponentRandom = root.split(), fillRandom = root.split();
+		System system = new System(root.split());
+		system.setDeterministic(true);
+		Terrain terrain = new Terrain(1104, 600, (int) (0.85f*600), (int) (0.20f*600), terrainRandom.nextLong());
+		Cannon cannon1 = new Cannon(terrain.getFirstCannonPosition(), true, system.getConfig(), cannonRandom);
+		Cannon cannon2 = new Cannon(terrain.getSecondCannonPosition(), false, system.getConfig(), cannonRandom);
+		system.setCannonCollisions(cannon1.getCollisionCircleCenter(), 0.75f*cannon1.length/2,
+				cannon2.getCollisionCircleCenter(), 0.75f*cannon2.length/2);
+		RandomOpponent opponent1 = new RandomOpponent(cannon1, system, opponentRandom);
+		RandomOpponent opponent2 = new RandomOpponent(cannon2, system, opponentRandom);
+		opponent1.enable();
+		opponent2.enable();
+		while (system.getNumberOfBodies() < nbBodies) {
+			Vec pos = new Vec(0.3f*terrain.worldWidth + 0.4f*terrain.worldWidth*fillRandom.nextFloat(),
+					terrain.horizon*fillRandom.nextFloat());
+			system.safeAddBody(new Body(pos, 0.5f + 0.5f*fillRandom.nextFloat(),
+					system.getNumberOfBodies() % 2 == 0, system.getConfig()));
+		}
+		long[] checksums = new long[ticks];
+		for (int t = 0; t < ticks; t++) {
+			system.step(terrain);
+			system.getEvents().clear();
+			terrain.trim();
+			opponent1.step();
+			opponent2.step();
+			checksums[t] = system.getChecksum();
+		}
+		return checksums;
+	}
+
+	public static void main(String args[])
+	{
+		long seed = (args.length > 0) ? Long.parseLong(args[0]) : 42;
+		int nbBodies = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+		int ticks = (args.length > 2) ? Integer.parseInt(args[2]) : 1200;
+		long[] first = run(seed, nbBodies, ticks);
+		long[] second = run(seed, nbBodies, ticks);
+		for (int t = 0; t < ticks; t++) {
+			if (first[t] != second[t]) {
+				java.lang.System.out.println("Diverged at tick " + (t+1) + ": "
+						+ Long.toHexString(first[t]) + " != " + Long.toHexString(second[t]));
+				java.lang.System.exit(1);
+			}
+		}
+		java.lang.System.out.println(ticks + " identical ticks, final checksum " + Long.toHexString(first[ticks-1]));
+	}
+}
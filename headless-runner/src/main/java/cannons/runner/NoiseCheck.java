@@ -0,0 +1,42 @@
+package cannons.runner;
+
+import cannons.physics.Terrain;
+
+/**
+ * Headless check of the parallel terrain noise. The same seeded terrain is
+ * generated twice: once prefetched over the whole world, whose noise is
+ * evaluated as large batches with the octaves in parallel, and once chunk by
+ * chunk, whose chunks are too small to be forked. The batches must have been
+ * forked, and every height must be the same to the bit.
+ * Usage: "NoiseCheck [seed] [screens]"
+ */
+public class NoiseCheck
+{
+	public static void main(String args[])
+	{
+		long seed = (args.length > 0) ? Long.parseLong(args[0]) : 42;
+		int screens = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+		Terrain batched = new Terrain(screens*1104, 600, (int) (0.85f*600), (int) (0.20f*600), seed);
+		Terrain serial = new Terrain(screens*1104, 600, (int) (0.85f*600), (int) (0.20f*600), seed);
+		batched.prefetch(0, batched.worldWidth);
+		for (int c = 0; c*serial.chunkSize < serial.nbSegments; c++) {
+			serial.getChunk(c);
+		}
+		if (batched.getForkedNoiseBatches() == 0) {
+			java.lang.System.out.println("The prefetched noise was not evaluated in parallel");
+			java.lang.System.exit(1);
+		}
+		if (serial.getForkedNoiseBatches() != 0) {
+			java.lang.System.out.println("The reference noise was evaluated in parallel");
+			java.lang.System.exit(1);
+		}
+		for (int i = 0; i < batched.nbSegments; i++) {
+			if (Float.floatToIntBits(batched.getHeight(i)) != Float.floatToIntBits(serial.getHeight(i))) {
+				java.lang.System.out.println("Vertex " + i + " differs: " + batched.getHeight(i) + " != " + serial.getHeight(i));
+				java.lang.System.exit(1);
+			}
+		}
+		java.lang.System.out.println(batched.nbSegments + " identical heights, " + batched.getForkedNoiseBatches()
+				+ " batches evaluated in parallel, checksum " + Long.toHexString(batched.computeChecksum()));
+	}
+}
@@ -0,0 +1,366 @@
+package cannons.runner;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+import cannons.physics.Cannon;
+import cannons.physics.Constants;
+import cannons.physics.Demos;
+import cannons.physics.EventBuffer;
+import cannons.physics.PhysicsConfig;
+import cannons.physics.RandomOpponent;
+import cannons.physics.System;
+import cannons.physics.Terrain;
+
+/**
+ * Scripted scenario simulated without display, as a repeatable performance
+ * smoke test. A scenario is a list of commands, one per line, each applied
+ * after a number of ticks ("@tick command", at the start when omitted):
+ *   seed n, ticks n, screens n     seed of the random streams, default number
+ *                                  of ticks, width of the world in screens
+ *   config key value               physics parameter (see PhysicsConfig)
+ *   opponents                      two random opponents shoot at each other
+ *   fill [n], crates, momentum     the demos of the f, c and m keys
+ *   suicide                        the ball dropped on the cannon by the k key
+ *   shock                          the shock of the system
+ *   check kept                     at the end, all the bodies added by the
+ *                                  commands must still be there (without border
+ *                                  or cannonballs, bodies leave or shatter)
+ * The built-in scenarios replay the demos of the game; the others are read
+ * from a file ('#' starts a comment). The steps per second, the median and
+ * 99th percentile latency of a step and the checksums of the bodies and of
+ * the terrain at the end are printed.
+ * It does not go through Main, whose class cannot even be loaded without a
+ * display (PApplet's static initialization needs the AWT toolkit).
+ * Usage: "Scenario name|file [--ticks n] [--seed n] [--warmup n] [--expect checksum]"
+ */
+public class Scenario
+{
+	/** Names and commands of the built-in scenarios. */
+	static final String[][] BUILTIN = {
+		{ "fill", "fill 200\ncheck kept" },
+		{ "momentum", "momentum" },
+		{ "suicide", "suicide" },
+		{ "crates", "crates\n@120 crates\n@240 crates\ncheck kept" },
+		{ "match", "opponents\nfill 400\n@300 crates\n@600 momentum" },
+	};
+	/** Dimensions of the screen the demos are laid out on. */
+	static final int viewWidth = 1104, viewHeight = 600;
+
+	/** Name of the scenario. */
+	final String name;
+	/** Seed of the random streams, default number of ticks, width of the world in screens. */
+	long seed = 42;
+	int ticks = 1200;
+	int screens = Constants.worldScreens;
+	/** Physics parameters set at the start. */
+	final Properties config = new Properties();
+	/** Whether all the bodies added by the commands must be left at the end. */
+	boolean checkKept;
+	/** Commands applied during the simulation and the tick of each (in the order of the ticks). */
+	final ArrayList<String[]> commands = new ArrayList<String[]>();
+	final ArrayList<Integer> commandTicks = new ArrayList<Integer>();
+
+	/** Simulated world and its current physics parameters. */
+	Properties physicsProperties;
+	System system;
+	Terrain terrain;
+	Cannon cannon1, cannon2;
+	RandomOpponent opponent1, opponent2;
+	SplittableRandom demoRandom;
+	/** Left edge of the view (the demos fill the screen around the first cannon). */
+	float viewX;
+	/** Tick at which a cannon was first hit (0 if none) and the outcome. */
+	int hitTick;
+	String hitResult;
+	/** Number of bodies added by the commands. */
+	int addedBodies;
+
+	/**
+	 * Parse a scenario.
+	 * @param name Name of the scenario
+	 * @param lines Commands
+	 * @throws IllegalArgumentException If a command is unknown or malformed
+	 */
+	Scenario(String name, Iterable<String> lines)
+	{
+		this.name = name;
+		int number = 0;
+		for (String line : lines) {
+			++number;
+			int comment = line.indexOf('#');
+			if (comment >= 0)
+				line = line.substring(0, comment);
+			line = line.trim();
+			if (line.isEmpty())
+				continue;
+			String[] words = line.split("\\s+");
+			int tick = 0;
+			try {
+				if (words[0].startsWith("@")) {
+					tick = Integer.parseInt(words[0].substring(1));
+					words = Arrays.copyOfRange(words, 1, words.length);
+				}
+				parse(tick, words);
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException(name + ":" + number + ": " + line
+						+ ((e.getMessage() != null) ? " (" + e.getMessage() + ")" : ""), e);
+			}
+		}
+	}
+
+	private void parse(int tick, String[] words)
+	{
+		String command = words[0];
+		if (command.equals("seed") || command.equals("ticks") || command.equals("screens")) {
+			if (words.length != 2 || tick != 0)
+				throw new IllegalArgumentException("one value, at the start");
+			if (command.equals("seed"))
+				seed = Long.parseLong(words[1]);
+			else if (command.equals("ticks"))
+				ticks = Integer.parseInt(words[1]);
+			else
+				screens = Math.max(1, Integer.parseInt(words[1]));
+		} else if (command.equals("config")) {
+			if (words.length != 3)
+				throw new IllegalArgumentException("config key value");
+			Float.parseFloat(words[2]);
+			if (tick == 0) {
+				config.setProperty(words[1], words[2]);
+				return;
+			}
+		} else if (command.equals("check")) {
+			if (words.length != 2 || !words[1].equals("kept") || tick != 0)
+				throw new IllegalArgumentException("check kept, at the start");
+			checkKept = true;
+			return;
+		} else if (command.equals("fill")) {
+			if (words.length > 2)
+				throw new IllegalArgumentException("fill [n]");
+			if (words.length == 2)
+				Integer.parseInt(words[1]);
+		} else if (!Arrays.asList("opponents", "crates", "momentum", "suicide", "shock").contains(command)
+				|| words.length != 1) {
+			throw new IllegalArgumentException("unknown command");
+		}
+		if (tick < 0)
+			throw new IllegalArgumentException("negative tick");
+		int k = commandTicks.size();
+		while (k > 0 && commandTicks.get(k-1) > tick)
+			--k;
+		commands.add(k, words);
+		commandTicks.add(k, tick);
+	}
+
+	/**
+	 * Load a built-in scenario, or else a scenario file.
+	 * @param name Name of a built-in scenario or path of a file
+	 * @return Scenario
+	 * @throws IOException If the file cannot be read
+	 */
+	static Scenario load(String name) throws IOException
+	{
+		for (String[] builtin : BUILTIN) {
+			if (builtin[0].equals(name))
+				return new Scenario(name, Arrays.asList(builtin[1].split("\n")));
+		}
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new FileReader(name));
+		try {
+			for (String line = in.readLine(); line != null; line = in.readLine())
+				lines.add(line);
+		} finally {
+			in.close();
+		}
+		return new Scenario(name, lines);
+	}
+
+	/**
+	 * Create the world: a seeded terrain with its two cannons, as at the
+	 * start of a match, in determinism mode.
+	 */
+	void setUp()
+	{
+		SplittableRandom root = new SplittableRandom(seed);
+		SplittableRandom terrainRandom = root.split(), cannonRandom = root.split();
+		SplittableRandom opponentRandom = root.split();
+		demoRandom = root.split();
+		system = new System(root.split());
+		system.setDeterministic(true);
+		physicsProperties = new Properties();
+		physicsProperties.putAll(config);
+		PhysicsConfig physics = new PhysicsConfig(physicsProperties);
+		system.setConfig(physics);
+		terrain = new Terrain(screens*viewWidth, viewHeight, (int) (0.85f*viewHeight), (int) (0.20f*viewHeight),
+				terrainRandom.nextLong(), physics.terrainSegmentWidth);
+		cannon1 = new Cannon(terrain.getFirstCannonPosition(), true, physics, cannonRandom);
+		cannon2 = new Cannon(terrain.getSecondCannonPosition(), false, physics, cannonRandom);
+		system.setCannonCollisions(cannon1.getCollisionCircleCenter(), 0.75f*cannon1.length/2,
+				cannon2.getCollisionCircleCenter(), 0.75f*cannon2.length/2);
+		opponent1 = new RandomOpponent(cannon1, system, opponentRandom);
+		opponent2 = new RandomOpponent(cannon2, system, opponentRandom);
+		// Where the camera starts.
+		viewX = Math.max(0, Math.min(cannon1.getPosition().x - viewWidth/2, terrain.worldWidth - viewWidth));
+		system.setViewOrigin(viewX, viewWidth);
+		hitTick = 0;
+		hitResult = null;
+		addedBodies = 0;
+	}
+
+	/**
+	 * Apply a command to the world.
+	 * @param words Command and its arguments
+	 */
+	void apply(String[] words)
+	{
+		String command = words[0];
+		if (command.equals("config")) {
+			physicsProperties.setProperty(words[1], words[2]);
+			PhysicsConfig physics = new PhysicsConfig(physicsProperties);
+			system.setConfig(physics);
+			cannon1.setConfig(physics);
+			cannon2.setConfig(physics);
+		} else if (command.equals("opponents")) {
+			opponent1.enable();
+			opponent2.enable();
+		} else if (command.equals("fill")) {
+			Demos.fill(system, demoRandom, viewX, viewWidth, viewHeight, (words.length > 1) ? Integer.parseInt(words[1]) : 200);
+		} else if (command.equals("crates")) {
+			Demos.crates(system, demoRandom, viewX, viewWidth, viewHeight);
+		} else if (command.equals("momentum")) {
+			Demos.momentum(system, demoRandom, viewX, viewWidth, viewHeight);
+		} else if (command.equals("suicide")) {
+			Demos.suicide(system, cannon1);
+		} else if (command.equals("shock")) {
+			system.shock();
+		}
+	}
+
+	/**
+	 * Simulate the scenario.
+	 * @param ticks Number of ticks
+	 * @return Duration of each step (nanoseconds), with the events, the terrain
+	 * maintenance and the opponents
+	 */
+	long[] run(int ticks)
+	{
+		setUp();
+		long[] durations = new long[ticks];
+		int next = 0;
+		for (int t = 0; t < ticks; t++) {
+			while (next < commands.size() && commandTicks.get(next) <= t) {
+				int before = system.getNumberOfBodies();
+				apply(commands.get(next++));
+				addedBodies += system.getNumberOfBodies() - before;
+			}
+			long start = java.lang.System.nanoTime();
+			system.step(terrain);
+			EventBuffer events = system.getEvents();
+			while (events.next()) {
+				if (events.getType() == EventBuffer.EventType.CANNON_HIT && hitTick == 0) {
+					hitTick = t+1;
+					hitResult = (events.getBodyB() == 0) ? "first cannon" : "second cannon";
+				}
+			}
+			terrain.trim();
+			opponent1.step();
+			opponent2.step();
+			durations[t] = java.lang.System.nanoTime() - start;
+		}
+		return durations;
+	}
+
+	/**
+	 * Obtain the value of a command line option.
+	 * @param args Command line
+	 * @param name Option name
+	 * @return Value, or null if the option is absent
+	 */
+	static String argument(String[] args, String name) {
+		for (int i = 0; i+1 < args.length; i++) {
+			if (args[i].equals(name))
+				return args[i+1];
+		}
+		return null;
+	}
+
+	public static void main(String args[])
+	{
+		PrintStream out = java.lang.System.out;
+		String name = (args.length > 0 && !args[0].startsWith("--")) ? args[0] : null;
+		if (name == null) {
+			java.lang.System.err.println("Usage: Scenario name|file [--ticks n] [--seed n] [--warmup n] [--expect checksum]");
+			StringBuilder names = new StringBuilder();
+			for (String[] builtin : BUILTIN)
+				names.append(' ').append(builtin[0]);
+			java.lang.System.err.println("Built-in scenarios:" + names);
+			java.lang.System.exit(2);
+		}
+		Scenario scenario;
+		try {
+			scenario = load(name);
+		} catch (IOException e) {
+			java.lang.System.err.println("Cannot read the scenario " + name + ": " + e.getMessage());
+			java.lang.System.exit(2);
+			return;
+		} catch (IllegalArgumentException e) {
+			java.lang.System.err.println(e.getMessage());
+			java.lang.System.exit(2);
+			return;
+		}
+		String value = argument(args, "--seed");
+		if (value != null)
+			scenario.seed = Long.parseLong(value);
+		value = argument(args, "--ticks");
+		int ticks = Math.max(1, (value != null) ? Integer.parseInt(value) : scenario.ticks);
+		value = argument(args, "--warmup");
+		// The first steps are slower (class loading, JIT compilation).
+		int warmup = (value != null) ? Integer.parseInt(value) : Math.min(ticks/4, 600);
+		warmup = Math.max(0, Math.min(warmup, ticks-1));
+
+		long[] durations = scenario.run(ticks);
+		long[] measured = Arrays.copyOfRange(durations, warmup, ticks);
+		long total = 0;
+		for (long d : measured)
+			total += d;
+		Arrays.sort(measured);
+		long bodies = scenario.system.computeChecksum();
+		long heights = scenario.terrain.computeChecksum();
+		out.printf("Scenario %s: %d ticks (seed %d, %d warm-up), %d bodies at the end%n", scenario.name, ticks,
+				scenario.seed, warmup, scenario.system.getNumberOfBodies());
+		out.printf("  %.0f steps/s, step p50 %.3f ms, p99 %.3f ms, max %.3f ms%n", measured.length/(total*1e-9),
+				percentile(measured, 0.50)*1e-6, percentile(measured, 0.99)*1e-6, measured[measured.length-1]*1e-6);
+		if (scenario.hitTick > 0)
+			out.printf("  %s hit at tick %d%n", scenario.hitResult, scenario.hitTick);
+		out.printf("  checksums: bodies %s, terrain %s%n", Long.toHexString(bodies), Long.toHexString(heights));
+		boolean failed = false;
+		if (scenario.checkKept && scenario.system.getNumberOfBodies() != scenario.addedBodies) {
+			out.println("  " + scenario.system.getNumberOfBodies() + " bodies left of the " + scenario.addedBodies + " added");
+			failed = true;
+		}
+		String expected = argument(args, "--expect");
+		if (expected != null && Long.parseUnsignedLong(expected, 16) != bodies) {
+			out.println("  checksum differs from the expected " + expected);
+			failed = true;
+		}
+		if (failed)
+			java.lang.System.exit(1);
+	}
+
+	/**
+	 * Obtain a percentile of sorted values (nearest rank).
+	 * @param sorted Values in increasing order
+	 * @param fraction Percentile in [0, 1]
+	 * @return Value
+	 */
+	static long percentile(long[] sorted, double fraction) {
+		int rank = (int) Math.ceil(fraction*sorted.length);
+		return sorted[Math.max(0, Math.min(rank-1, sorted.length-1))];
+	}
+}
@@ -0,0 +1,99 @@
+package cannons.runner;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import cannons.physics.EventBuffer;
+import cannons.telemetry.TelemetrySink;
+
+/**
+ * Read a telemetry file written by TelemetrySink and print its rows as CSV
+ * (for a spreadsheet or an analysis script), or a summary of its contents.
+ * Usage: "TelemetryDump file [bodies|events|summary]"
+ */
+public class TelemetryDump
+{
+	public static void main(String args[]) throws IOException, DataFormatException
+	{
+		if (args.length < 1) {
+			java.lang.System.err.println("Usage: TelemetryDump file [bodies|events|summary]");
+			java.lang.System.exit(2);
+		}
+		String mode = (args.length > 1) ? args[1] : "summary";
+		PrintStream out = java.lang.System.out;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])));
+		Inflater inflater = new Inflater();
+		EventBuffer.EventType[] types = EventBuffer.EventType.values();
+		long bodyRows = 0, eventRows = 0, blocks = 0, compressedBytes = 0, rawBytes = 0;
+		int firstTick = Integer.MAX_VALUE, lastTick = Integer.MIN_VALUE;
+		if (mode.equals("bodies"))
+			out.println("tick,id,x,y,vx,vy,radius,human,collided,sleeping,polygon");
+		else if (mode.equals("events"))
+			out.println("tick,type,bodyA,bodyB,x,y,value");
+		try {
+			while (true) {
+				byte kind;
+				try {
+					kind = in.readByte();
+				} catch (EOFException e) {
+					break;
+				}
+				int n = in.readInt(), size = in.readInt(), length = in.readInt();
+				byte[] compressed = new byte[size], raw = new byte[length];
+				in.readFully(compressed);
+				inflater.reset();
+				inflater.setInput(compressed);
+				inflater.inflate(raw);
+				ByteBuffer columns = ByteBuffer.wrap(raw);
+				++blocks;
+				compressedBytes += size;
+				rawBytes += length;
+				if (n > 0) {
+					firstTick = Math.min(firstTick, columns.getInt(0));
+					lastTick = Math.max(lastTick, columns.getInt(4*(n-1)));
+				}
+				if (kind == TelemetrySink.BODIES) {
+					bodyRows += n;
+					if (!mode.equals("bodies"))
+						continue;
+					for (int k = 0; k < n; k++) {
+						int at = 4*k, flags = columns.get(28*n + k);
+						out.println(columns.getInt(at) + "," + columns.getInt(at + 4*n) + ","
+								+ columns.getFloat(at + 8*n) + "," + columns.getFloat(at + 12*n) + ","
+								+ columns.getFloat(at + 16*n) + "," + columns.getFloat(at + 20*n) + ","
+								+ columns.getFloat(at + 24*n) + ","
+								+ ((flags & TelemetrySink.FLAG_HUMAN) != 0) + "," + ((flags & TelemetrySink.FLAG_COLLIDED) != 0) + ","
+								+ ((flags & TelemetrySink.FLAG_SLEEPING) != 0) + "," + ((flags & TelemetrySink.FLAG_POLYGON) != 0));
+					}
+				} else if (kind == TelemetrySink.EVENTS) {
+					eventRows += n;
+					if (!mode.equals("events"))
+						continue;
+					for (int k = 0; k < n; k++) {
+						int at = 4*k;
+						out.println(columns.getInt(at) + "," + types[columns.getInt(at + 4*n)] + ","
+								+ columns.getInt(at + 8*n) + "," + columns.getInt(at + 12*n) + ","
+								+ columns.getFloat(at + 16*n) + "," + columns.getFloat(at + 20*n) + ","
+								+ columns.getFloat(at + 24*n));
+					}
+				}
+			}
+		} finally {
+			in.close();
+			inflater.end();
+		}
+		if (mode.equals("summary")) {
+			out.printf("%d blocks, ticks %d to %d, %d body rows, %d event rows%n", blocks,
+					(blocks > 0) ? firstTick : 0, (blocks > 0) ? lastTick : 0, bodyRows, eventRows);
+			out.printf("%d bytes compressed from %d (%.1f%%)%n", compressedBytes, rawBytes,
+					(rawBytes > 0) ? 100.0*compressedBytes/rawBytes : 0.0);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package cannons.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import cannons.physics.BodyStore;
+import cannons.physics.System;
+import cannons.physics.Terrain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the particle stores: the same sandbox (particles dropped on a
+ * seeded terrain) is stepped with the store on the heap, off the heap and
+ * mapped on a file. The heap used and the collections are reported by the
+ * gc profiler ("-prof gc").
+ * Usage: "java -jar benchmarks.jar BodyStoreBenchmark [-p particles=n] [-prof gc]"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BodyStoreBenchmark
+{
+	/** Backend of the store. */
+	@Param({"heap", "off-heap", "mapped"})
+	String backend;
+	/** Number of particles. */
+	@Param({"1000000"})
+	int particles;
+
+	private File file;
+	private BodyStore store;
+	private Terrain terrain;
+	private System system;
+
+	/**
+	 * Create the store and drop the particles on a seeded terrain.
+	 * @throws IOException If the mapped file cannot be created
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		if (backend.equals("heap")) {
+			store = BodyStore.onHeap(particles);
+		} else if (backend.equals("off-heap")) {
+			store = BodyStore.offHeap(particles);
+		} else {
+			file = File.createTempFile("bodies", ".bin");
+			file.deleteOnExit();
+			store = BodyStore.mapped(file.getPath(), particles);
+		}
+		SplittableRandom root = new SplittableRandom(42);
+		terrain = new Terrain(1104*8, 600, (int) (0.85f*600), (int) (0.20f*600), root.nextLong());
+		system = new System(root.split());
+		system.useCannonCollision(false);
+		SplittableRandom fill = root.split();
+		for (int i = 0; i < particles; i++) {
+			store.add(terrain.worldWidth * fill.nextFloat(), terrain.horizon * fill.nextFloat(), 1, 0.1f, 0);
+		}
+		system.setParticles(store);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		system.reset();
+		store.release();
+		if (file != null)
+			file.delete();
+	}
+
+	/**
+	 * Step the sandbox once.
+	 */
+	@Benchmark
+	public void step()
+	{
+		system.step(terrain);
+		system.getEvents().clear();
+	}
+}
@@ -0,0 +1,119 @@
+package cannons.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import cannons.physics.DustField;
+import cannons.physics.PhysicsConfig;
+import cannons.physics.Terrain;
+import cannons.physics.WindField;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the dust particles, without any rigid body: the same seeded
+ * field, blown by a wind field over a seeded terrain, is stepped on a single
+ * thread and on the common fork/join pool. Its main method checks that both
+ * give the same final state.
+ * Usage: "java -jar benchmarks.jar DustBenchmark [-p particles=n]"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DustBenchmark
+{
+	/** Pool stepping the chunks: a single thread, or the common pool. */
+	@Param({"serial", "parallel"})
+	String pool;
+	/** Number of particles. */
+	@Param({"50000"})
+	int particles;
+
+	private ForkJoinPool single;
+	private Terrain terrain;
+	private WindField wind;
+	private DustField dust;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		single = new ForkJoinPool(1);
+		SplittableRandom random = new SplittableRandom(42);
+		terrain = new Terrain(1104, 600, (int) (0.85f*600), (int) (0.20f*600), random.nextLong());
+		wind = new WindField(random.nextLong());
+		dust = new DustField(1104, 600, random.split(), (pool.equals("serial")) ? single : ForkJoinPool.commonPool());
+		dust.setCount(particles);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		single.shutdown();
+	}
+
+	/**
+	 * Blow the wind and step the dust once.
+	 */
+	@Benchmark
+	public void step()
+	{
+		wind.update(terrain, 0.05f, PhysicsConfig.DEFAULT);
+		dust.step(wind, 0, PhysicsConfig.DEFAULT);
+	}
+
+	/**
+	 * Step a seeded dust field.
+	 * @param pool Pool stepping the chunks
+	 * @param nbParticles Number of particles
+	 * @param ticks Number of ticks
+	 * @return Checksum of the final state
+	 */
+	static long run(ForkJoinPool pool, int nbParticles, int ticks)
+	{
+		SplittableRandom random = new SplittableRandom(42);
+		Terrain terrain = new Terrain(1104, 600, (int) (0.85f*600), (int) (0.20f*600), random.nextLong());
+		WindField wind = new WindField(random.nextLong());
+		DustField dust = new DustField(1104, 600, random.split(), pool);
+		dust.setCount(nbParticles);
+		for (int t = 0; t < ticks; t++) {
+			wind.update(terrain, 0.05f, PhysicsConfig.DEFAULT);
+			dust.step(wind, 0, PhysicsConfig.DEFAULT);
+		}
+		return dust.checksum();
+	}
+
+	/**
+	 * Compare the final states of the serial and parallel stepping.
+	 * Usage: "java -cp benchmarks.jar cannons.bench.DustBenchmark [particles] [ticks]"
+	 */
+	public static void main(String args[])
+	{
+		int nbParticles = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+		int ticks = (args.length > 1) ? Integer.parseInt(args[1]) : 600;
+		ForkJoinPool single = new ForkJoinPool(1);
+		long serial = run(single, nbParticles, ticks);
+		long parallel = run(ForkJoinPool.commonPool(), nbParticles, ticks);
+		single.shutdown();
+		if (serial != parallel) {
+			java.lang.System.out.println("Parallel state differs from the serial one");
+			java.lang.System.exit(1);
+		}
+		java.lang.System.out.println("Identical final states");
+	}
+}
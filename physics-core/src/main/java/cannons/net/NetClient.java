@@ -0,0 +1,400 @@
+package cannons.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.SplittableRandom;
+
+import cannons.physics.Cannon;
+import cannons.physics.PhysicsConfig;
+import cannons.physics.Terrain;
+
+/**
+ * Client of the authoritative server. It rebuilds the terrain from the
+ * server seed and craters, reconstructs the bodies from the snapshots, and
+ * renders them slightly in the past, interpolated between the two snapshots
+ * surrounding the render time. The angle of the player's own cannon is
+ * predicted locally and reconciled with the inputs acknowledged by the server.
+ */
+public class NetClient
+{
+	/** Rendering delay behind the latest snapshot (100 ms), covering jitter and lost packets. */
+	static final float INTERPOLATION_DELAY = 6;
+
+	private SocketChannel tcp;
+	private DatagramChannel udp;
+	private InetSocketAddress serverAddress;
+	private ByteBuffer in = ByteBuffer.allocate(NetProtocol.MAX_FRAME_BYTES);
+	private ByteBuffer frame = ByteBuffer.allocate(NetProtocol.MAX_FRAME_BYTES);
+	private ByteBuffer datagram = ByteBuffer.allocate(NetProtocol.MAX_DATAGRAM_BYTES);
+	/** Snapshot being reassembled from its parts: sequence, received parts (bit mask) and length. */
+	private ByteBuffer assembly = ByteBuffer.allocate(NetProtocol.MAX_SNAPSHOT_BYTES);
+	private int assemblySeq = -1;
+	private long assemblyParts;
+	private int assemblyLength;
+
+	/** Player slot (-1 until welcomed). */
+	private int slot = -1;
+	/** Winner of the last match (-1 if none since the last call to pollWinner). */
+	private int winner = -1;
+	/** World rebuilt from the server parameters. */
+	private Terrain terrain;
+	private Cannon[] cannons = new Cannon[2];
+	/** Received snapshots (baselines and interpolation), the latest one, and the empty baseline. */
+	private Snapshot[] history = new Snapshot[NetServer.HISTORY];
+	private Snapshot latest, empty = new Snapshot();
+	/** Reception time of the latest snapshot. */
+	private long latestNanos;
+	/** Inputs not yet acknowledged by the server: sequences and angles. */
+	private int[] pendingSeqs = new int[64];
+	private float[] pendingAngles = new float[64];
+	private int nbPending;
+	private int inputSeq;
+	/** Angle of the own cannon, as predicted from the local inputs. */
+	private float predictedAngle;
+	/** Interpolated bodies. */
+	private float[] viewX = new float[0], viewY = new float[0], viewRad = new float[0];
+	private byte[] viewFlags = new byte[0];
+	private int viewCount;
+
+	public NetClient()
+	{
+		for (int i = 0; i < history.length; i++) {
+			history[i] = new Snapshot();
+		}
+	}
+
+	/**
+	 * Connect to a server and say hello.
+	 * @param host Server host
+	 * @param port Server port (TCP and UDP)
+	 * @throws IOException
+	 */
+	public void connect(String host, int port) throws IOException
+	{
+		serverAddress = new InetSocketAddress(host, port);
+		tcp = SocketChannel.open(serverAddress);
+		tcp.socket().setTcpNoDelay(true);
+		tcp.configureBlocking(false);
+		udp = DatagramChannel.open();
+		udp.bind(new InetSocketAddress(0));
+		udp.configureBlocking(false);
+		frame.clear();
+		frame.put(NetProtocol.HELLO);
+		frame.putInt(((InetSocketAddress) udp.getLocalAddress()).getPort());
+		send();
+	}
+
+	void close()
+	{
+		try {
+			tcp.close();
+			udp.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Send the frame being built (blocking until written, frames are tiny).
+	 */
+	private void send() throws IOException
+	{
+		frame.flip();
+		ByteBuffer length = ByteBuffer.allocate(4);
+		length.putInt(frame.remaining());
+		length.flip();
+		while (length.hasRemaining())
+			tcp.write(length);
+		while (frame.hasRemaining())
+			tcp.write(frame);
+	}
+
+	/**
+	 * Process the received messages and snapshots. Should be called every frame.
+	 * @throws IOException
+	 */
+	public void poll() throws IOException
+	{
+		if (tcp.read(in) < 0)
+			throw new IOException("Disconnected from the server");
+		in.flip();
+		while (in.remaining() >= 4 && in.remaining() >= 4 + in.getInt(in.position())) {
+			int length = in.getInt();
+			int end = in.position() + length;
+			handleFrame(in);
+			in.position(end);
+		}
+		in.compact();
+		datagram.clear();
+		while (udp.receive(datagram) != null) {
+			datagram.flip();
+			if (datagram.get(0) == NetProtocol.SNAPSHOT_PART && slot >= 0)
+				receivePart(datagram);
+			datagram.clear();
+		}
+	}
+
+	private void handleFrame(ByteBuffer in)
+	{
+		byte type = in.get();
+		if (type == NetProtocol.WELCOME) {
+			slot = in.getInt();
+			long seed = in.getLong();
+			int worldWidth = in.getInt(), worldHeight = in.getInt();
+			int horizon = in.getInt(), noiseHeight = in.getInt(), segmentWidth = in.getInt();
+			terrain = new Terrain(worldWidth, worldHeight, horizon, noiseHeight, seed, segmentWidth);
+			SplittableRandom unused = new SplittableRandom(0);
+			cannons[0] = new Cannon(terrain.getFirstCannonPosition(), true, PhysicsConfig.DEFAULT, unused);
+			cannons[1] = new Cannon(terrain.getSecondCannonPosition(), false, PhysicsConfig.DEFAULT, unused);
+			for (Snapshot s : history) {
+				s.seq = -1;
+			}
+			latest = null;
+			assemblySeq = -1;
+			nbPending = 0;
+			predictedAngle = 0;
+			viewCount = 0;
+		} else if (type == NetProtocol.CRATER) {
+			float x = in.getFloat(), radius = in.getFloat(), depth = in.getFloat();
+			if (terrain != null)
+				terrain.deform(x, radius, depth);
+		} else if (type == NetProtocol.GAME_OVER) {
+			winner = in.getInt();
+		}
+	}
+
+	/**
+	 * Copy a part of a snapshot into the reassembly buffer, and receive the
+	 * snapshot once all its parts are there. The parts of an older snapshot
+	 * still incomplete are dropped.
+	 */
+	private void receivePart(ByteBuffer datagram) throws IOException
+	{
+		if (datagram.limit() <= NetProtocol.PART_HEADER_BYTES)
+			return;
+		int seq = datagram.getInt(1);
+		int part = datagram.get(5), parts = datagram.get(6);
+		int payload = NetProtocol.MAX_DATAGRAM_BYTES - NetProtocol.PART_HEADER_BYTES;
+		int length = datagram.limit() - NetProtocol.PART_HEADER_BYTES;
+		if (parts <= 0 || parts > NetProtocol.MAX_SNAPSHOT_PARTS || part < 0 || part >= parts
+				|| (part < parts - 1 && length != payload))
+			return; // Malformed.
+		if ((latest != null && seq <= latest.seq) || seq < assemblySeq)
+			return; // Late or duplicated.
+		if (seq != assemblySeq) {
+			assemblySeq = seq;
+			assemblyParts = 0;
+		}
+		datagram.position(NetProtocol.PART_HEADER_BYTES);
+		assembly.limit(assembly.capacity());
+		assembly.position(part*payload);
+		assembly.put(datagram);
+		assemblyParts |= 1L << part;
+		if (part == parts - 1)
+			assemblyLength = part*payload + length;
+		if (assemblyParts != (1L << parts) - 1)
+			return;
+		assembly.position(0);
+		assembly.limit(assemblyLength);
+		assemblySeq = -1;
+		if (assembly.get(0) == NetProtocol.SNAPSHOT && assembly.getInt(1) == seq)
+			receiveSnapshot(assembly);
+	}
+
+	private void receiveSnapshot(ByteBuffer datagram) throws IOException
+	{
+		int seq = datagram.getInt(1);
+		int baseSeq = Snapshot.peekBaseSeq(datagram);
+		if (latest != null && seq <= latest.seq)
+			return; // Late or duplicated.
+		Snapshot base = empty;
+		if (baseSeq >= 0) {
+			base = history[baseSeq % history.length];
+			if (base.seq != baseSeq)
+				return; // Baseline from before the last welcome.
+		}
+		Snapshot s = history[seq % history.length];
+		s.decode(datagram, base);
+		latest = s;
+		latestNanos = java.lang.System.nanoTime();
+		datagram.clear();
+		datagram.put(NetProtocol.ACK);
+		datagram.putInt(seq);
+		datagram.flip();
+		udp.send(datagram, serverAddress);
+		// Reconcile: forget the inputs applied by the server, replay the others.
+		int acked = s.inputSeqs[slot];
+		int kept = 0;
+		for (int i = 0; i < nbPending; i++) {
+			if (pendingSeqs[i] > acked) {
+				pendingSeqs[kept] = pendingSeqs[i];
+				pendingAngles[kept++] = pendingAngles[i];
+			}
+		}
+		nbPending = kept;
+		predictedAngle = (nbPending > 0) ? pendingAngles[nbPending - 1] : s.angles[slot];
+		for (int c = 0; c < 2; c++) {
+			cannons[c].setAngle((c == slot) ? predictedAngle : s.angles[c]);
+			if (c != slot)
+				cannons[c].setForce(s.forces[c]);
+		}
+	}
+
+	/**
+	 * Aim the own cannon. The angle is applied locally right away.
+	 * @param angle New angle
+	 * @throws IOException
+	 */
+	public void aim(float angle) throws IOException
+	{
+		if (slot < 0)
+			return;
+		cannons[slot].setAngle(angle);
+		predictedAngle = cannons[slot].getAngle();
+		++inputSeq;
+		if (nbPending < pendingSeqs.length) {
+			pendingSeqs[nbPending] = inputSeq;
+			pendingAngles[nbPending++] = predictedAngle;
+		}
+		frame.clear();
+		frame.put(NetProtocol.ANGLE);
+		frame.putInt(inputSeq);
+		frame.putFloat(predictedAngle);
+		send();
+	}
+
+	/**
+	 * Shoot with the own cannon. The cannon-ball only appears once simulated by the server.
+	 * @param force Force coefficient, from 0 to 1.0f
+	 * @throws IOException
+	 */
+	public void shoot(float force) throws IOException
+	{
+		if (slot < 0)
+			return;
+		frame.clear();
+		frame.put(NetProtocol.SHOOT);
+		frame.putInt(++inputSeq);
+		frame.putFloat(force);
+		send();
+	}
+
+	public int getSlot() {
+		return slot;
+	}
+
+	public float getPredictedAngle() {
+		return predictedAngle;
+	}
+
+	public Snapshot getLatest() {
+		return latest;
+	}
+
+	public Terrain getTerrain() {
+		return terrain;
+	}
+
+	public Cannon getCannon(int slot) {
+		return cannons[slot];
+	}
+
+	public float getWindForceX() {
+		return (latest != null) ? latest.wind : 0;
+	}
+
+	/**
+	 * Obtain the winner of the match which just ended, if any.
+	 * @return Winner slot, or -1
+	 */
+	public int pollWinner() {
+		int w = winner;
+		winner = -1;
+		return w;
+	}
+
+	/**
+	 * Interpolate the bodies at the render time, between the two
+	 * received snapshots surrounding it.
+	 * @return Number of interpolated bodies, read with getViewX, getViewY,
+	 * getViewRadius and isViewHuman
+	 */
+	public int interpolate()
+	{
+		viewCount = 0;
+		if (latest == null)
+			return 0;
+		float renderTick = latest.tick - INTERPOLATION_DELAY
+				+ (java.lang.System.nanoTime() - latestNanos) * NetServer.TICK_RATE / 1e9f;
+		Snapshot a = null, b = null;
+		for (Snapshot s : history) {
+			if (s.seq < 0)
+				continue;
+			if (s.tick <= renderTick && (a == null || s.tick > a.tick))
+				a = s;
+			if (s.tick > renderTick && (b == null || s.tick < b.tick))
+				b = s;
+		}
+		if (b == null)
+			b = latest;
+		float t = (a == null || a == b) ? 1 : Math.min(1, (renderTick - a.tick) / (b.tick - a.tick));
+		if (viewX.length < b.count) {
+			viewX = new float[b.count];
+			viewY = new float[b.count];
+			viewRad = new float[b.count];
+			viewFlags = new byte[b.count];
+		}
+		for (int i = 0; i < b.count; i++) {
+			int j = (a == null) ? -1 : a.find(b.ids[i]);
+			float x = NetProtocol.dequantize(b.qx[i]), y = NetProtocol.dequantize(b.qy[i]);
+			if (j >= 0) {
+				x = NetProtocol.dequantize(a.qx[j]) + t * (x - NetProtocol.dequantize(a.qx[j]));
+				y = NetProtocol.dequantize(a.qy[j]) + t * (y - NetProtocol.dequantize(a.qy[j]));
+			}
+			viewX[viewCount] = x;
+			viewY[viewCount] = y;
+			viewRad[viewCount] = NetProtocol.dequantize(b.qrad[i]);
+			viewFlags[viewCount++] = b.flags[i];
+		}
+		return viewCount;
+	}
+
+	/**
+	 * Obtain the horizontal position of an interpolated body.
+	 * @param i Body index (below the number returned by interpolate)
+	 * @return x-coord
+	 */
+	public float getViewX(int i) {
+		return viewX[i];
+	}
+
+	/**
+	 * Obtain the vertical position of an interpolated body.
+	 * @param i Body index
+	 * @return y-coord
+	 */
+	public float getViewY(int i) {
+		return viewY[i];
+	}
+
+	/**
+	 * Obtain the radius of an interpolated body.
+	 * @param i Body index
+	 * @return Radius
+	 */
+	public float getViewRadius(int i) {
+		return viewRad[i];
+	}
+
+	/**
+	 * Determine whether an interpolated body belongs to the human (left) player.
+	 * @param i Body index
+	 * @return True for the human, false for the opponent
+	 */
+	public boolean isViewHuman(int i) {
+		return (viewFlags[i] & Snapshot.FLAG_HUMAN) != 0;
+	}
+}
@@ -0,0 +1,101 @@
+package cannons.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Constants and encoding helpers shared by the network server and clients.
+ *
+ * Reliable messages (handshake, inputs, craters, game over) are sent over TCP
+ * as length-prefixed frames. World snapshots are sent over UDP, delta-compressed
+ * against the last snapshot acknowledged by the client, and split into parts
+ * which fit in a datagram.
+ */
+public final class NetProtocol
+{
+	/** Client to server (TCP): hello, followed by the UDP port of the client. */
+	static final byte HELLO = 1;
+	/** Client to server (TCP): new cannon angle (input sequence, angle). */
+	static final byte ANGLE = 2;
+	/** Client to server (TCP): shoot (input sequence, force coefficient). */
+	static final byte SHOOT = 3;
+	/** Client to server (UDP): acknowledge a snapshot (sequence). */
+	static final byte ACK = 4;
+	/** Server to client (TCP): player slot, terrain seed, world dimensions and terrain segment width. */
+	static final byte WELCOME = 10;
+	/** Server to client (TCP): crater dug in the terrain (x, radius, depth). */
+	static final byte CRATER = 11;
+	/** Server to client (TCP): end of the match (winner slot). */
+	static final byte GAME_OVER = 12;
+	/** Encoded world snapshot (the payload of the snapshot parts, once reassembled). */
+	static final byte SNAPSHOT = 20;
+	/** Server to client (UDP): part of a world snapshot (sequence, part, number of parts, payload). */
+	static final byte SNAPSHOT_PART = 21;
+
+	/** Default server port (TCP and UDP). */
+	public static final int DEFAULT_PORT = 52100;
+	/** Positions and radii are quantized to 1/QUANTIZATION pixel. */
+	static final float QUANTIZATION = 8.0f;
+	/** Maximal size of a snapshot datagram, and size of the header of a part. */
+	static final int MAX_DATAGRAM_BYTES = 1200, PART_HEADER_BYTES = 1 + 4 + 1 + 1;
+	/** Maximal number of parts of a snapshot. */
+	static final int MAX_SNAPSHOT_PARTS = 16;
+	/** Maximal size of an encoded snapshot (bandwidth budget per client and per tick). */
+	static final int MAX_SNAPSHOT_BYTES = MAX_SNAPSHOT_PARTS * (MAX_DATAGRAM_BYTES - PART_HEADER_BYTES);
+	/** Maximal size of a TCP frame. */
+	static final int MAX_FRAME_BYTES = 4096;
+
+	private NetProtocol() {}
+
+	static int quantize(float v)
+	{
+		return Math.round(v * QUANTIZATION);
+	}
+
+	static float dequantize(int q)
+	{
+		return q / QUANTIZATION;
+	}
+
+	/**
+	 * Write an unsigned variable-length integer (7 bits per byte).
+	 * @param out Buffer
+	 * @param v Non-negative value
+	 */
+	static void putVarInt(ByteBuffer out, int v)
+	{
+		while ((v & ~0x7F) != 0) {
+			out.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.put((byte) v);
+	}
+
+	static int getVarInt(ByteBuffer in)
+	{
+		int v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			v |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return v;
+	}
+
+	/**
+	 * Write a signed variable-length integer (zigzag encoded, small magnitudes take one byte).
+	 * @param out Buffer
+	 * @param v Value
+	 */
+	static void putSignedVarInt(ByteBuffer out, int v)
+	{
+		putVarInt(out, (v << 1) ^ (v >> 31));
+	}
+
+	static int getSignedVarInt(ByteBuffer in)
+	{
+		int v = getVarInt(in);
+		return (v >>> 1) ^ -(v & 1);
+	}
+}
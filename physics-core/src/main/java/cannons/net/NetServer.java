@@ -0,0 +1,633 @@
+package cannons.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+
+import cannons.physics.Body;
+import cannons.physics.Cannon;
+import cannons.physics.EventBuffer;
+import cannons.physics.PhysicsConfig;
+import cannons.physics.System;
+import cannons.physics.Terrain;
+import cannons.physics.Vec;
+
+/**
+ * Authoritative headless game server. It runs the simulation at a fixed tick
+ * and is the only one deciding of the shots, craters and winner. The two
+ * player slots send their inputs over TCP and receive the world as
+ * delta-compressed snapshots over UDP. Everything runs on a single thread
+ * with non-blocking NIO channels.
+ */
+public class NetServer
+{
+	/** Simulation ticks per second. */
+	static final int TICK_RATE = 60;
+	/** Number of sent snapshots kept per client (possible baselines). */
+	static final int HISTORY = 32;
+
+	/** Per-client connection state. */
+	static class Client
+	{
+		SocketChannel channel;
+		/** Address receiving the snapshots (null until the hello). */
+		SocketAddress udpAddress;
+		/** Player slot: 0 for the left (human) cannon, 1 for the right one. */
+		int slot;
+		/** Incoming and outgoing TCP data. */
+		ByteBuffer in = ByteBuffer.allocate(NetProtocol.MAX_FRAME_BYTES);
+		ByteBuffer out = ByteBuffer.allocate(64*1024);
+		/** Snapshots sent to the client, as reconstructed by the client. */
+		Snapshot[] history = new Snapshot[HISTORY];
+		/** Sequence of the next snapshot, and of the last acknowledged one (-1 if none). */
+		int seq, ackedSeq = -1;
+		/** Rotating position in the changes, for the snapshots exceeding the budget. */
+		int cursor;
+
+		Client()
+		{
+			for (int i = 0; i < HISTORY; i++) {
+				history[i] = new Snapshot();
+			}
+		}
+	}
+
+	/** World dimensions. */
+	final int worldWidth, worldHeight, horizon, noiseHeight;
+	/** Simulated world. */
+	System system;
+	Terrain terrain;
+	Cannon[] cannons = new Cannon[2];
+	/** Seed of the current terrain. */
+	long seed;
+	/** Current tick. */
+	int tick;
+	/** Craters dug since the last reset (x, radius, depth), resent to the joining clients. */
+	private ArrayList<float[]> craters = new ArrayList<float[]>();
+	/** Last input sequence applied for each slot. */
+	private int[] lastInputs = new int[2];
+	/** Connected clients, by slot. */
+	private Client[] slots = new Client[2];
+	private SplittableRandom rng;
+
+	private Selector selector;
+	private ServerSocketChannel tcp;
+	private DatagramChannel udp;
+	/** State captured at the current tick, and empty baseline. */
+	private Snapshot current = new Snapshot(), empty = new Snapshot();
+	private ByteBuffer datagram = ByteBuffer.allocate(NetProtocol.MAX_DATAGRAM_BYTES);
+	/** Encoded snapshot, before it is split into datagrams. */
+	private ByteBuffer encoded = ByteBuffer.allocate(NetProtocol.MAX_SNAPSHOT_BYTES);
+	private ByteBuffer frame = ByteBuffer.allocate(NetProtocol.MAX_FRAME_BYTES);
+
+	/** Statistics: bytes sent over UDP and TCP, tick durations. */
+	long udpBytes, tcpBytes;
+	long tickNanos, maxTickNanos;
+	int nbTicks;
+
+	NetServer(int worldWidth, int worldHeight, long seed)
+	{
+		this.worldWidth = worldWidth;
+		this.worldHeight = worldHeight;
+		this.horizon = (int) (0.85f * worldHeight);
+		this.noiseHeight = (int) (0.20f * worldHeight);
+		this.rng = new SplittableRandom(seed);
+		this.system = new System(rng);
+		reset(seed);
+	}
+
+	/**
+	 * Start a new match on a new terrain.
+	 * @param seed Seed of the terrain
+	 */
+	void reset(long seed)
+	{
+		this.seed = seed;
+		system.reset();
+		craters.clear();
+		terrain = new Terrain(worldWidth, worldHeight, horizon, noiseHeight, seed,
+				system.getConfig().terrainSegmentWidth);
+		cannons[0] = new Cannon(terrain.getFirstCannonPosition(), true, system.getConfig(), rng);
+		cannons[1] = new Cannon(terrain.getSecondCannonPosition(), false, system.getConfig(), rng);
+		system.setCannonCollisions(cannons[0].getCollisionCircleCenter(), 0.75f*cannons[0].length/2,
+				cannons[1].getCollisionCircleCenter(), 0.75f*cannons[1].length/2);
+		for (Client c : slots) {
+			if (c != null) {
+				c.ackedSeq = -1;
+				welcome(c);
+			}
+		}
+	}
+
+	/**
+	 * Open the TCP and UDP channels.
+	 * @param port Port of both channels (0 for an ephemeral one)
+	 * @return Bound port
+	 * @throws IOException
+	 */
+	int open(int port) throws IOException
+	{
+		selector = Selector.open();
+		tcp = ServerSocketChannel.open();
+		tcp.bind(new InetSocketAddress(port));
+		tcp.configureBlocking(false);
+		tcp.register(selector, SelectionKey.OP_ACCEPT);
+		port = ((InetSocketAddress) tcp.getLocalAddress()).getPort();
+		udp = DatagramChannel.open();
+		udp.bind(new InetSocketAddress(port));
+		udp.configureBlocking(false);
+		udp.register(selector, SelectionKey.OP_READ);
+		return port;
+	}
+
+	void close()
+	{
+		try {
+			for (Client c : slots) {
+				if (c != null)
+					c.channel.close();
+			}
+			udp.close();
+			tcp.close();
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Run the server at the fixed tick rate until the thread is interrupted.
+	 */
+	void run() throws IOException
+	{
+		final long period = 1000000000L / TICK_RATE;
+		long next = java.lang.System.nanoTime();
+		while (!Thread.currentThread().isInterrupted()) {
+			long wait = (next - java.lang.System.nanoTime()) / 1000000;
+			if (wait > 0)
+				selector.select(wait);
+			pump();
+			long now = java.lang.System.nanoTime();
+			if (now >= next) {
+				tick();
+				next += period;
+				if (now - next > 5*period)
+					next = now; // Too far behind: skip the missed ticks.
+			}
+			if (nbTicks == 5*TICK_RATE) {
+				java.lang.System.out.println(statistics());
+				resetStatistics();
+			}
+		}
+	}
+
+	/**
+	 * Process the pending network events without blocking.
+	 * @throws IOException
+	 */
+	void pump() throws IOException
+	{
+		selector.selectNow();
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			if (!key.isValid())
+				continue;
+			if (key.isAcceptable()) {
+				accept();
+			} else if (key.channel() == udp) {
+				receiveAcks();
+			} else {
+				Client c = (Client) key.attachment();
+				if (key.isReadable())
+					read(c, key);
+				if (key.isValid() && key.isWritable())
+					flush(c, key);
+			}
+		}
+	}
+
+	private void accept() throws IOException
+	{
+		SocketChannel channel = tcp.accept();
+		if (channel == null)
+			return;
+		int slot = (slots[0] == null) ? 0 : (slots[1] == null) ? 1 : -1;
+		if (slot < 0) {
+			channel.close(); // Match full.
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Client c = new Client();
+		c.channel = channel;
+		c.slot = slot;
+		slots[slot] = c;
+		channel.register(selector, SelectionKey.OP_READ, c);
+		welcome(c);
+	}
+
+	private void disconnect(Client c, SelectionKey key)
+	{
+		key.cancel();
+		try {
+			c.channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		slots[c.slot] = null;
+	}
+
+	/**
+	 * Read the frames received from a client. A client sending a frame length
+	 * out of bounds or a malformed frame is disconnected.
+	 */
+	private void read(Client c, SelectionKey key) throws IOException
+	{
+		int n;
+		try {
+			n = c.channel.read(c.in);
+		} catch (IOException e) {
+			n = -1;
+		}
+		if (n < 0) {
+			disconnect(c, key);
+			return;
+		}
+		c.in.flip();
+		while (c.in.remaining() >= 4) {
+			int length = c.in.getInt(c.in.position());
+			if (length <= 0 || length > NetProtocol.MAX_FRAME_BYTES - 4) {
+				disconnect(c, key);
+				return;
+			}
+			if (c.in.remaining() < 4 + length)
+				break;
+			c.in.getInt();
+			int end = c.in.position() + length, limit = c.in.limit();
+			// A frame shorter than its message underflows instead of reading the next one.
+			c.in.limit(end);
+			boolean valid = handleFrame(c, c.in);
+			c.in.limit(limit);
+			if (!valid) {
+				disconnect(c, key);
+				return;
+			}
+			c.in.position(end);
+		}
+		c.in.compact();
+	}
+
+	/**
+	 * Apply a reliable message from a client.
+	 * @param c Client
+	 * @param in Frame, limited to its length
+	 * @return False if the frame is shorter than its message
+	 */
+	private boolean handleFrame(Client c, ByteBuffer in) throws IOException
+	{
+		try {
+			byte type = in.get();
+			Cannon cannon = cannons[c.slot];
+			if (type == NetProtocol.HELLO) {
+				int udpPort = in.getInt();
+				c.udpAddress = new InetSocketAddress(((InetSocketAddress) c.channel.getRemoteAddress()).getAddress(), udpPort);
+			} else if (type == NetProtocol.ANGLE) {
+				int input = in.getInt();
+				float angle = in.getFloat();
+				lastInputs[c.slot] = input;
+				cannon.setAngle(angle);
+				system.setCannonCollisionPosition(cannon.getCollisionCircleCenter(), c.slot == 0);
+			} else if (type == NetProtocol.SHOOT) {
+				int input = in.getInt();
+				float force = in.getFloat();
+				lastInputs[c.slot] = input;
+				cannon.setForce(force);
+				cannon.shoot(system);
+			}
+		} catch (BufferUnderflowException e) {
+			return false;
+		}
+		return true;
+	}
+
+	private void receiveAcks() throws IOException
+	{
+		datagram.clear();
+		SocketAddress from;
+		while ((from = udp.receive(datagram)) != null) {
+			datagram.flip();
+			if (datagram.remaining() >= 5 && datagram.get() == NetProtocol.ACK) {
+				int seq = datagram.getInt();
+				for (Client c : slots) {
+					if (c != null && from.equals(c.udpAddress) && seq > c.ackedSeq && seq < c.seq)
+						c.ackedSeq = seq;
+				}
+			}
+			datagram.clear();
+		}
+	}
+
+	/**
+	 * Queue a reliable message to a client.
+	 * @param c Client
+	 * @param message Message, from position 0 to its limit
+	 */
+	private void send(Client c, ByteBuffer message)
+	{
+		if (c.out.remaining() < 4 + message.remaining()) {
+			return; // The client does not read: it will be dropped when the channel fails.
+		}
+		tcpBytes += 4 + message.remaining();
+		c.out.putInt(message.remaining());
+		c.out.put(message);
+		SelectionKey key = c.channel.keyFor(selector);
+		try {
+			flush(c, key);
+		} catch (IOException e) {
+			disconnect(c, key);
+		}
+	}
+
+	private void broadcast(ByteBuffer message)
+	{
+		for (Client c : slots) {
+			if (c != null) {
+				message.rewind();
+				send(c, message);
+			}
+		}
+	}
+
+	private void flush(Client c, SelectionKey key) throws IOException
+	{
+		c.out.flip();
+		c.channel.write(c.out);
+		c.out.compact();
+		if (key.isValid())
+			key.interestOps((c.out.position() > 0) ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Send the world parameters and the craters dug so far.
+	 */
+	private void welcome(Client c)
+	{
+		frame.clear();
+		frame.put(NetProtocol.WELCOME);
+		frame.putInt(c.slot);
+		frame.putLong(seed);
+		frame.putInt(worldWidth);
+		frame.putInt(worldHeight);
+		frame.putInt(horizon);
+		frame.putInt(noiseHeight);
+		frame.putInt(terrain.terrainSegmentWidth);
+		frame.flip();
+		send(c, frame);
+		for (float[] crater : craters) {
+			sendCrater(c, crater);
+		}
+	}
+
+	private void sendCrater(Client c, float[] crater)
+	{
+		frame.clear();
+		frame.put(NetProtocol.CRATER);
+		frame.putFloat(crater[0]);
+		frame.putFloat(crater[1]);
+		frame.putFloat(crater[2]);
+		frame.flip();
+		if (c == null)
+			broadcast(frame);
+		else
+			send(c, frame);
+	}
+
+	/**
+	 * Advance the simulation by one tick and send the snapshots.
+	 */
+	void tick()
+	{
+		long start = java.lang.System.nanoTime();
+		system.step(terrain);
+		terrain.trim();
+		int winner = -1;
+		EventBuffer events = system.getEvents();
+		PhysicsConfig config = system.getConfig();
+		while (events.next()) {
+			if (events.getType() == EventBuffer.EventType.TERRAIN_IMPACT) {
+				float[] crater = {events.getX(), config.craterRadiusFactor * events.getValue(),
+						config.craterDepthFactor * events.getValue()};
+				craters.add(crater);
+				sendCrater(null, crater);
+			} else if (events.getType() == EventBuffer.EventType.CANNON_HIT && winner < 0) {
+				// Hitting the cannon of slot 0 makes slot 1 win.
+				winner = 1 - events.getBodyB();
+			}
+		}
+		++tick;
+		current.capture(system, tick, cannons, lastInputs);
+		for (Client c : slots) {
+			if (c != null && c.udpAddress != null)
+				sendSnapshot(c);
+		}
+		if (winner >= 0) {
+			frame.clear();
+			frame.put(NetProtocol.GAME_OVER);
+			frame.putInt(winner);
+			frame.flip();
+			broadcast(frame);
+			reset(rng.nextLong());
+		}
+		long elapsed = java.lang.System.nanoTime() - start;
+		tickNanos += elapsed;
+		maxTickNanos = Math.max(maxTickNanos, elapsed);
+		++nbTicks;
+	}
+
+	/**
+	 * Send the current state to a client, as a delta against its last
+	 * acknowledged snapshot, split into as many datagrams as needed.
+	 */
+	private void sendSnapshot(Client c)
+	{
+		Snapshot base = empty;
+		if (c.ackedSeq >= 0 && c.seq - c.ackedSeq < HISTORY && c.history[c.ackedSeq % HISTORY].seq == c.ackedSeq)
+			base = c.history[c.ackedSeq % HISTORY];
+		current.seq = c.seq;
+		encoded.clear();
+		c.cursor = current.encode(base, encoded, NetProtocol.MAX_SNAPSHOT_BYTES, c.cursor);
+		encoded.flip();
+		// Keep exactly what the client will reconstruct, for the next baselines.
+		c.history[c.seq % HISTORY].decode(encoded, base);
+		int length = encoded.limit(), payload = NetProtocol.MAX_DATAGRAM_BYTES - NetProtocol.PART_HEADER_BYTES;
+		int parts = (length + payload - 1) / payload;
+		try {
+			for (int part = 0; part < parts; part++) {
+				encoded.limit(Math.min((part+1)*payload, length));
+				encoded.position(part*payload);
+				datagram.clear();
+				datagram.put(NetProtocol.SNAPSHOT_PART);
+				datagram.putInt(c.seq);
+				datagram.put((byte) part);
+				datagram.put((byte) parts);
+				datagram.put(encoded);
+				datagram.flip();
+				udpBytes += udp.send(datagram, c.udpAddress);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		++c.seq;
+	}
+
+	/**
+	 * Obtain a snapshot as sent to a client (for the loopback checks).
+	 * @param slot Player slot
+	 * @param seq Snapshot sequence
+	 * @return Snapshot, or null if no longer available
+	 */
+	Snapshot getSent(int slot, int seq)
+	{
+		Client c = slots[slot];
+		if (c == null || c.history[seq % HISTORY].seq != seq)
+			return null;
+		return c.history[seq % HISTORY];
+	}
+
+	/**
+	 * Fill the world with bodies (stress test), kept inside the world by the borders.
+	 * @param n Number of bodies
+	 */
+	void fill(int n)
+	{
+		system.useBorderConstraint(true);
+		system.useCannonCollision(false);
+		int total = n + system.getNumberOfBodies();
+		while (system.getNumberOfBodies() < total) {
+			Vec pos = new Vec(rng.nextFloat()*worldWidth, rng.nextFloat()*horizon);
+			system.safeAddBody(new Body(pos, 0.5f + 0.5f*rng.nextFloat(),
+					system.getNumberOfBodies() < total/2, system.getConfig()));
+		}
+	}
+
+	String statistics()
+	{
+		float seconds = (float) nbTicks / TICK_RATE;
+		return String.format("%d bodies, tick %.2f ms (max %.2f ms), UDP %.1f KB/s, TCP %.1f KB/s",
+				system.getNumberOfBodies(), tickNanos / 1e6 / Math.max(1, nbTicks), maxTickNanos / 1e6,
+				udpBytes / 1024f / seconds, tcpBytes / 1024f / seconds);
+	}
+
+	void resetStatistics()
+	{
+		udpBytes = tcpBytes = tickNanos = maxTickNanos = 0;
+		nbTicks = 0;
+	}
+
+	/**
+	 * Loopback test: a server and two headless stand-in clients in the same
+	 * thread. The clients aim and shoot at random, and the state they
+	 * reconstruct is checked against what the server sent. Their position
+	 * error against the server's current state is also bounded, by less than
+	 * the radius of the smallest body: with the snapshots split over several
+	 * datagrams, the bodies left out by the bandwidth budget stay few even
+	 * with 2000 bodies filling the world.
+	 * @param nbBodies Number of bodies filling the world
+	 * @param seconds Duration of the test
+	 * @param maxAllowedError Largest position error allowed, in pixels
+	 * @return True if the snapshots matched and the error stayed within the bound
+	 */
+	static boolean loopback(int nbBodies, int seconds, float maxAllowedError) throws IOException
+	{
+		NetServer server = new NetServer(1104, 600, 42);
+		int port = server.open(0);
+		server.fill(nbBodies);
+		NetClient[] clients = {new NetClient(), new NetClient()};
+		for (NetClient client : clients) {
+			client.connect("localhost", port);
+			server.pump();
+		}
+		SplittableRandom bot = new SplittableRandom(7);
+		int mismatches = 0, checks = 0;
+		float maxError = 0;
+		long next = java.lang.System.nanoTime();
+		final long period = 1000000000L / TICK_RATE;
+		for (int t = 0; t < seconds*TICK_RATE; t++) {
+			server.pump();
+			server.tick();
+			for (NetClient client : clients) {
+				client.poll();
+				if (client.getSlot() >= 0 && bot.nextInt(30) == 0) {
+					client.aim(client.getPredictedAngle() + (bot.nextFloat() - 0.5f) * 0.2f);
+					if (bot.nextInt(4) == 0)
+						client.shoot(0.5f + 0.5f*bot.nextFloat());
+				}
+				Snapshot latest = client.getLatest();
+				if (latest != null) {
+					Snapshot sent = server.getSent(client.getSlot(), latest.seq);
+					if (sent != null) {
+						++checks;
+						if (!sent.sameBodies(latest))
+							++mismatches;
+					}
+					// Once converged (after the first second), measure the staleness of the partial updates.
+					if (t >= TICK_RATE)
+						maxError = Math.max(maxError, latest.maxError(server.current));
+				}
+			}
+			next += period;
+			long sleep = (next - java.lang.System.nanoTime()) / 1000000;
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		}
+		java.lang.System.out.println(server.statistics());
+		java.lang.System.out.println(String.format("%d snapshots checked, %d mismatches, max position error %.1f px (bound %.1f px)",
+				checks, mismatches, maxError, maxAllowedError));
+		for (NetClient client : clients) {
+			client.close();
+		}
+		server.close();
+		return checks > 0 && mismatches == 0 && maxError <= maxAllowedError;
+	}
+
+	/**
+	 * Run a dedicated server: "NetServer [port]",
+	 * or the loopback test: "NetServer --loopback [bodies] [seconds] [max error]"
+	 * (exits with 1 if it fails).
+	 */
+	public static void main(String args[]) throws IOException
+	{
+		if (args.length > 0 && args[0].equals("--loopback")) {
+			boolean passed = loopback((args.length > 1) ? Integer.parseInt(args[1]) : 2000,
+					(args.length > 2) ? Integer.parseInt(args[2]) : 10,
+					(args.length > 3) ? Float.parseFloat(args[3]) : 5);
+			if (!passed) {
+				java.lang.System.out.println("Loopback test failed");
+				java.lang.System.exit(1);
+			}
+			return;
+		}
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : NetProtocol.DEFAULT_PORT;
+		NetServer server = new NetServer(1104, 600, new SplittableRandom().nextLong());
+		server.open(port);
+		java.lang.System.out.println("Listening on port " + port);
+		server.run();
+	}
+}
@@ -0,0 +1,383 @@
+package cannons.net;
+
+import java.nio.ByteBuffer;
+
+import cannons.physics.Body;
+import cannons.physics.Cannon;
+import cannons.physics.System;
+
+/**
+ * Quantized state of the world at a server tick: the bodies (sorted by id)
+ * and the state of the two cannons. Snapshots are sent as a delta against a
+ * baseline snapshot which the client acknowledged. When the changes do not fit
+ * in the bandwidth budget, only part of them is sent: the new and removed
+ * bodies first, then the bodies farthest from their baseline position (which
+ * is where the client shows them), rotating over the bodies among equally
+ * stale ones. Both sides reconstruct exactly the same partial state.
+ */
+public class Snapshot
+{
+	/** Body state flags. */
+	static final int FLAG_HUMAN = 1, FLAG_COLLIDED = 2;
+	/** Delta entry flags: full state (new body or new radius), removed body. */
+	static final int ENTRY_FULL = 4, ENTRY_REMOVED = 8;
+	/** Size of the header of an encoded snapshot. */
+	static final int HEADER_BYTES = 1 + 4*4 + 2*3*4 + 5;
+
+	/** Sequence number (-1 for the empty snapshot). */
+	int seq = -1;
+	/** Server tick at which the snapshot was captured. */
+	int tick;
+	/** Lateral wind force. */
+	float wind;
+	/** Angle and force of each cannon, and last input applied for each player slot. */
+	float[] angles = new float[2], forces = new float[2];
+	int[] inputSeqs = new int[2];
+	/** Number of bodies. */
+	int count;
+	/** Body ids (ascending), quantized positions and radii, and flags. */
+	int[] ids = new int[0], qx = new int[0], qy = new int[0], qrad = new int[0];
+	byte[] flags = new byte[0];
+
+	/** Number of priority levels of the changes (the bit length of their error, and one for the new or removed bodies). */
+	private static final int LEVELS = 33;
+	/** Scratch arrays of the changes found by the encoder: positions, encoded size and priority level. */
+	private int[] changeCur = new int[0], changeBase = new int[0], changeSize = new int[0], changeLevel = new int[0];
+	private boolean[] selected = new boolean[0];
+	/** Encoded size of the changes of each priority level. */
+	private final int[] levelBytes = new int[LEVELS];
+
+	void ensureCapacity(int n)
+	{
+		if (ids.length < n) {
+			int size = Math.max(n, 2*ids.length);
+			ids = java.util.Arrays.copyOf(ids, size);
+			qx = java.util.Arrays.copyOf(qx, size);
+			qy = java.util.Arrays.copyOf(qy, size);
+			qrad = java.util.Arrays.copyOf(qrad, size);
+			flags = java.util.Arrays.copyOf(flags, size);
+		}
+	}
+
+	void add(int id, int x, int y, int rad, int f)
+	{
+		ensureCapacity(count + 1);
+		ids[count] = id;
+		qx[count] = x;
+		qy[count] = y;
+		qrad[count] = rad;
+		flags[count] = (byte) f;
+		++count;
+	}
+
+	/**
+	 * Copy another snapshot.
+	 * @param o Copied snapshot
+	 */
+	void set(Snapshot o)
+	{
+		copyHeader(o);
+		count = 0;
+		ensureCapacity(o.count);
+		java.lang.System.arraycopy(o.ids, 0, ids, 0, o.count);
+		java.lang.System.arraycopy(o.qx, 0, qx, 0, o.count);
+		java.lang.System.arraycopy(o.qy, 0, qy, 0, o.count);
+		java.lang.System.arraycopy(o.qrad, 0, qrad, 0, o.count);
+		java.lang.System.arraycopy(o.flags, 0, flags, 0, o.count);
+		count = o.count;
+	}
+
+	private void copyHeader(Snapshot o)
+	{
+		seq = o.seq;
+		tick = o.tick;
+		wind = o.wind;
+		for (int s = 0; s < 2; s++) {
+			angles[s] = o.angles[s];
+			forces[s] = o.forces[s];
+			inputSeqs[s] = o.inputSeqs[s];
+		}
+	}
+
+	/**
+	 * Capture the state of a system. The bodies are already sorted by id
+	 * since they are appended to the system with increasing ids.
+	 * @param system System of bodies
+	 * @param tick Current tick
+	 * @param cannons Cannons of the two player slots
+	 * @param lastInputs Last input sequence applied for each player slot
+	 */
+	void capture(System system, int tick, Cannon[] cannons, int[] lastInputs)
+	{
+		this.tick = tick;
+		this.wind = system.getWindForceX();
+		for (int s = 0; s < 2; s++) {
+			angles[s] = cannons[s].getAngle();
+			forces[s] = cannons[s].getForce();
+			inputSeqs[s] = lastInputs[s];
+		}
+		count = 0;
+		int n = system.getNumberOfBodies();
+		ensureCapacity(n);
+		for (int i = 0; i < n; i++) {
+			Body b = system.getBody(i);
+			add(b.index, NetProtocol.quantize(b.pos.x), NetProtocol.quantize(b.pos.y), NetProtocol.quantize(b.rad),
+					(b.human ? FLAG_HUMAN : 0) | (b.hasCollidedTerrain ? FLAG_COLLIDED : 0));
+		}
+	}
+
+	/**
+	 * Find a body by id (binary search).
+	 * @param id Body id
+	 * @return Position in the snapshot, or -1
+	 */
+	int find(int id)
+	{
+		return (count == 0) ? -1 : Math.max(-1, java.util.Arrays.binarySearch(ids, 0, count, id));
+	}
+
+	private static int varIntSize(int v)
+	{
+		int size = 1;
+		while ((v & ~0x7F) != 0) {
+			v >>>= 7;
+			++size;
+		}
+		return size;
+	}
+
+	private static int signedVarIntSize(int v)
+	{
+		return varIntSize((v << 1) ^ (v >> 31));
+	}
+
+	/**
+	 * Encode this snapshot as a delta against a baseline, within a byte budget.
+	 * @param base Baseline snapshot known by the client (seq -1 if none)
+	 * @param out Buffer receiving the snapshot
+	 * @param maxBytes Budget of the snapshot
+	 * @param cursor Body id from which to start among the equally stale changes (rotates between calls)
+	 * @return Cursor for the next call
+	 */
+	int encode(Snapshot base, ByteBuffer out, int maxBytes, int cursor)
+	{
+		// Merge walk over the two sorted lists of bodies to find the changes.
+		int maxChanges = count + base.count;
+		if (changeCur.length < maxChanges) {
+			changeCur = new int[maxChanges];
+			changeBase = new int[maxChanges];
+			changeSize = new int[maxChanges];
+			changeLevel = new int[maxChanges];
+			selected = new boolean[maxChanges];
+		}
+		int nbChanges = 0;
+		int i = 0, j = 0;
+		while (i < count || j < base.count) {
+			if (j >= base.count || (i < count && ids[i] < base.ids[j])) {
+				changeCur[nbChanges] = i++;
+				changeBase[nbChanges++] = -1;
+			} else if (i >= count || base.ids[j] < ids[i]) {
+				changeCur[nbChanges] = -1;
+				changeBase[nbChanges++] = j++;
+			} else {
+				if (qx[i] != base.qx[j] || qy[i] != base.qy[j] || qrad[i] != base.qrad[j] || flags[i] != base.flags[j]) {
+					changeCur[nbChanges] = i;
+					changeBase[nbChanges++] = j;
+				}
+				++i;
+				++j;
+			}
+		}
+		// Size and priority of the changes: the new and removed bodies first, then by error.
+		java.util.Arrays.fill(levelBytes, 0);
+		for (int c = 0; c < nbChanges; c++) {
+			int ci = changeCur[c], bi = changeBase[c];
+			int size = varIntSize((ci >= 0) ? ids[ci] : base.ids[bi]) + 1;
+			int level;
+			if (ci < 0) {
+				level = LEVELS-1;
+			} else if (bi < 0 || qrad[ci] != base.qrad[bi]) {
+				size += signedVarIntSize(qx[ci]) + signedVarIntSize(qy[ci]) + varIntSize(qrad[ci]);
+				level = LEVELS-1;
+			} else {
+				int dx = qx[ci] - base.qx[bi], dy = qy[ci] - base.qy[bi];
+				size += signedVarIntSize(dx) + signedVarIntSize(dy);
+				level = 32 - Integer.numberOfLeadingZeros(Math.max(Math.abs(dx), Math.abs(dy)));
+			}
+			changeSize[c] = size;
+			changeLevel[c] = level;
+			levelBytes[level] += size;
+		}
+		// The levels fitting in the budget are sent whole, the next one in part.
+		int budget = maxBytes - HEADER_BYTES;
+		int partial = LEVELS-1;
+		while (partial >= 0 && levelBytes[partial] <= budget) {
+			budget -= levelBytes[partial];
+			--partial;
+		}
+		int nbSelected = 0;
+		for (int c = 0; c < nbChanges; c++) {
+			selected[c] = changeLevel[c] > partial;
+			if (selected[c])
+				++nbSelected;
+		}
+		int next = cursor;
+		if (partial >= 0) {
+			// Rotate over the partial level, from the first change at or after the cursor id.
+			int start = 0;
+			while (start < nbChanges && idOf(base, start) < cursor)
+				++start;
+			for (int k = 0; k < nbChanges; k++) {
+				int c = (start + k) % nbChanges;
+				if (changeLevel[c] != partial)
+					continue;
+				if (changeSize[c] > budget)
+					break;
+				budget -= changeSize[c];
+				selected[c] = true;
+				++nbSelected;
+				next = idOf(base, c) + 1;
+			}
+		}
+		// Write the selected changes by increasing id.
+		out.put(NetProtocol.SNAPSHOT);
+		out.putInt(seq);
+		out.putInt(base.seq);
+		out.putInt(tick);
+		out.putFloat(wind);
+		for (int s = 0; s < 2; s++) {
+			out.putFloat(angles[s]);
+			out.putFloat(forces[s]);
+			out.putInt(inputSeqs[s]);
+		}
+		NetProtocol.putVarInt(out, nbSelected);
+		int prevId = -1;
+		for (int c = 0; c < nbChanges; c++) {
+			if (!selected[c])
+				continue;
+			int ci = changeCur[c], bi = changeBase[c];
+			int id = (ci >= 0) ? ids[ci] : base.ids[bi];
+			NetProtocol.putVarInt(out, id - prevId - 1);
+			prevId = id;
+			if (ci < 0) {
+				out.put((byte) ENTRY_REMOVED);
+			} else if (bi < 0 || qrad[ci] != base.qrad[bi]) {
+				out.put((byte) (flags[ci] | ENTRY_FULL));
+				NetProtocol.putSignedVarInt(out, qx[ci]);
+				NetProtocol.putSignedVarInt(out, qy[ci]);
+				NetProtocol.putVarInt(out, qrad[ci]);
+			} else {
+				out.put(flags[ci]);
+				NetProtocol.putSignedVarInt(out, qx[ci] - base.qx[bi]);
+				NetProtocol.putSignedVarInt(out, qy[ci] - base.qy[bi]);
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Obtain the body id of a change found by the encoder.
+	 * @param base Baseline snapshot
+	 * @param c Change
+	 * @return Body id
+	 */
+	private int idOf(Snapshot base, int c)
+	{
+		return (changeCur[c] >= 0) ? ids[changeCur[c]] : base.ids[changeBase[c]];
+	}
+
+	/**
+	 * Read the baseline sequence of an encoded snapshot (without consuming it).
+	 * @param in Buffer positioned at the start of the snapshot
+	 * @return Baseline sequence (-1 if none)
+	 */
+	static int peekBaseSeq(ByteBuffer in)
+	{
+		return in.getInt(in.position() + 1 + 4);
+	}
+
+	/**
+	 * Decode a snapshot by applying its delta to the baseline.
+	 * @param in Buffer positioned at the start of the snapshot
+	 * @param base Baseline snapshot (must have the sequence given by peekBaseSeq)
+	 */
+	void decode(ByteBuffer in, Snapshot base)
+	{
+		in.get(); // type
+		seq = in.getInt();
+		in.getInt(); // baseline
+		tick = in.getInt();
+		wind = in.getFloat();
+		for (int s = 0; s < 2; s++) {
+			angles[s] = in.getFloat();
+			forces[s] = in.getFloat();
+			inputSeqs[s] = in.getInt();
+		}
+		int nbEntries = NetProtocol.getVarInt(in);
+		count = 0;
+		ensureCapacity(base.count + nbEntries);
+		int j = 0;
+		int id = -1;
+		for (int e = 0; e < nbEntries; e++) {
+			id += NetProtocol.getVarInt(in) + 1;
+			int f = in.get();
+			// Unchanged bodies of the baseline before this one.
+			while (j < base.count && base.ids[j] < id) {
+				add(base.ids[j], base.qx[j], base.qy[j], base.qrad[j], base.flags[j]);
+				++j;
+			}
+			boolean inBase = j < base.count && base.ids[j] == id;
+			if ((f & ENTRY_REMOVED) != 0) {
+				// Skip it.
+			} else if ((f & ENTRY_FULL) != 0) {
+				int x = NetProtocol.getSignedVarInt(in);
+				int y = NetProtocol.getSignedVarInt(in);
+				int rad = NetProtocol.getVarInt(in);
+				add(id, x, y, rad, f & (FLAG_HUMAN | FLAG_COLLIDED));
+			} else {
+				int dx = NetProtocol.getSignedVarInt(in);
+				int dy = NetProtocol.getSignedVarInt(in);
+				add(id, base.qx[j] + dx, base.qy[j] + dy, base.qrad[j], f);
+			}
+			if (inBase)
+				++j;
+		}
+		while (j < base.count) {
+			add(base.ids[j], base.qx[j], base.qy[j], base.qrad[j], base.flags[j]);
+			++j;
+		}
+	}
+
+	/**
+	 * Determine whether two snapshots hold exactly the same bodies.
+	 * @param o Compared snapshot
+	 * @return True if identical
+	 */
+	boolean sameBodies(Snapshot o)
+	{
+		if (count != o.count)
+			return false;
+		for (int i = 0; i < count; i++) {
+			if (ids[i] != o.ids[i] || qx[i] != o.qx[i] || qy[i] != o.qy[i]
+					|| qrad[i] != o.qrad[i] || flags[i] != o.flags[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Largest position difference of the bodies present in both snapshots.
+	 * @param o Compared snapshot
+	 * @return Distance in pixels
+	 */
+	float maxError(Snapshot o)
+	{
+		int maxDiff = 0;
+		for (int i = 0; i < count; i++) {
+			int j = o.find(ids[i]);
+			if (j >= 0)
+				maxDiff = Math.max(maxDiff, Math.max(Math.abs(qx[i] - o.qx[j]), Math.abs(qy[i] - o.qy[j])));
+		}
+		return NetProtocol.dequantize(maxDiff);
+	}
+}
@@ -0,0 +1,342 @@
+package cannons.physics;
+
+
+public final class Body
+{
+	/** Body index */
+	public int index;
+	/** Bolean indicating whether the body has already collided with the terrain or not. */
+	public boolean hasCollidedTerrain;
+	/** Position */
+	public Vec pos;
+	/** Last position (verlet integration) */
+	public Vec ppos;
+	/** Current acceleration */
+	public Vec acc;
+	/** Orientation and last orientation (verlet integration), only changed for the polygons. */
+	public float angle, pangle;
+	/** Convex shape, or null for a circle. The radius is the one of its bounding circle. */
+	public final ConvexPolygon polygon;
+	/** Radius & mass values */
+	public float initRad, rad, mass;
+	/** Owned by the human or by the opponent? */
+	public boolean human;
+	/** Shot by a cannon (only the cannonballs shatter on the terrain). */
+	public boolean projectile;
+	/** Slot of the body in the pool of fragments (-1 if it is not a fragment). */
+	int fragmentSlot = -1;
+	/** Resting bodies are put to sleep and skipped by the integration. */
+	public boolean sleeping;
+	/** Number of consecutive steps for which the body has been (almost) at rest. */
+	private int restSteps;
+	/** Largest rotation of a body in one step. */
+	static final float MAX_ROTATION = 0.25f;
+	/** Inverted mass */
+	private float invMass;
+	/** Color */
+	private int col;
+
+	private int shockCol;
+
+	public Body(Vec pos, float mass, boolean human, PhysicsConfig config)
+	{
+		this(pos, mass, human, config, null);
+	}
+
+	/**
+	 * @param pos Initial position
+	 * @param mass Mass (the radius of the bounding circle is proportional to it)
+	 * @param human Owned by the human or by the opponent?
+	 * @param config Physics parameters
+	 * @param polygon Convex shape, or null for a circle
+	 */
+	public Body(Vec pos, float mass, boolean human, PhysicsConfig config, ConvexPolygon polygon)
+	{
+		this.polygon = polygon;
+		this.human = human;
+		this.pos = new Vec();
+		this.ppos = new Vec();
+		this.acc = new Vec();
+		this.hasCollidedTerrain = false;
+		this.index = -1; // Assigned by the system when the body is added.
+		this.pos.set(pos);
+		this.ppos.set(pos);
+		this.mass = mass;
+		this.invMass = 1.0f/(1.0f+mass); //non-standard, need to tweak values
+		this.rad = config.massToRadiusRatio*mass;
+		this.initRad = rad;
+		this.col = (human) ? Constants.humanColor: Constants.opponentColor;
+		this.shockCol = 255;
+	}
+	
+	/**
+	 * Reuse the body as a new one (e.g. a fragment taken from a pool) thrown
+	 * from a position. It does not dig craters: it is considered as having
+	 * already hit the terrain.
+	 * @param x Horizontal position
+	 * @param y Vertical position
+	 * @param vx Horizontal velocity (displacement per step)
+	 * @param vy Vertical velocity
+	 * @param spin Rotation per step
+	 * @param mass Mass
+	 * @param human Owned by the human or by the opponent?
+	 * @param config Physics parameters
+	 */
+	void respawn(float x, float y, float vx, float vy, float spin, float mass, boolean human, PhysicsConfig config)
+	{
+		this.human = human;
+		pos.set(x, y, 0);
+		ppos.set(x - vx, y - vy, 0);
+		acc.set(0, 0, 0);
+		pangle = angle - spin;
+		this.mass = mass;
+		this.invMass = 1.0f/(1.0f+mass);
+		this.rad = config.massToRadiusRatio*mass;
+		this.initRad = rad;
+		this.col = (human) ? Constants.humanColor: Constants.opponentColor;
+		hasCollidedTerrain = true;
+		projectile = false;
+		sleeping = false;
+		restSteps = 0;
+		index = -1;
+	}
+
+	/**
+	 * Save the state of the body into a row of a world state (all but the
+	 * fragment age, which is known by the pool of fragments).
+	 * @param s World state
+	 * @param k Row
+	 */
+	void save(WorldState s, int k)
+	{
+		float[] f = s.floats;
+		int at = k*WorldState.FLOATS;
+		f[at + WorldState.X] = pos.x;
+		f[at + WorldState.Y] = pos.y;
+		f[at + WorldState.PX] = ppos.x;
+		f[at + WorldState.PY] = ppos.y;
+		f[at + WorldState.AX] = acc.x;
+		f[at + WorldState.AY] = acc.y;
+		f[at + WorldState.ANGLE] = angle;
+		f[at + WorldState.PANGLE] = pangle;
+		f[at + WorldState.RAD] = rad;
+		f[at + WorldState.INIT_RAD] = initRad;
+		f[at + WorldState.MASS] = mass;
+		int[] n = s.ints;
+		at = k*WorldState.INTS;
+		n[at + WorldState.ID] = index;
+		n[at + WorldState.FLAGS] = (human ? WorldState.HUMAN : 0) | (hasCollidedTerrain ? WorldState.COLLIDED : 0)
+				| (sleeping ? WorldState.SLEEPING : 0) | (projectile ? WorldState.PROJECTILE : 0);
+		n[at + WorldState.REST_STEPS] = restSteps;
+		n[at + WorldState.FRAGMENT_SLOT] = fragmentSlot;
+		s.polygons[k] = polygon;
+	}
+
+	/**
+	 * Restore the state of the body from a row of a world state (the shape
+	 * and the fragment slot are those the body was created with).
+	 * @param s World state
+	 * @param k Row
+	 */
+	void load(WorldState s, int k)
+	{
+		float[] f = s.floats;
+		int at = k*WorldState.FLOATS;
+		pos.set(f[at + WorldState.X], f[at + WorldState.Y], 0);
+		ppos.set(f[at + WorldState.PX], f[at + WorldState.PY], 0);
+		acc.set(f[at + WorldState.AX], f[at + WorldState.AY], 0);
+		angle = f[at + WorldState.ANGLE];
+		pangle = f[at + WorldState.PANGLE];
+		rad = f[at + WorldState.RAD];
+		initRad = f[at + WorldState.INIT_RAD];
+		mass = f[at + WorldState.MASS];
+		invMass = 1.0f/(1.0f+mass);
+		int[] n = s.ints;
+		at = k*WorldState.INTS;
+		index = n[at + WorldState.ID];
+		int flags = n[at + WorldState.FLAGS];
+		human = (flags & WorldState.HUMAN) != 0;
+		hasCollidedTerrain = (flags & WorldState.COLLIDED) != 0;
+		sleeping = (flags & WorldState.SLEEPING) != 0;
+		projectile = (flags & WorldState.PROJECTILE) != 0;
+		restSteps = n[at + WorldState.REST_STEPS];
+		col = (human) ? Constants.humanColor: Constants.opponentColor;
+	}
+
+	/**
+	 * Set the body radius.
+	 * @param rad Radius.
+	 */
+	public void setRadius(float rad) {
+		this.rad = rad;
+	}
+	
+	/**
+	 * Obtain the separation between the bodies' positions.
+	 * @param b Separated body
+	 * @return Length of the separation
+	 */
+	public float separation(Body b)
+	{
+		return this.pos.dist(b.pos);
+	}
+	/**
+	 * Obtain the separation between the bodies' positions.
+	 * @param pos Compared position
+	 * @return Length of the separation
+	 */
+	public float separation(Vec pos)
+	{
+		return this.pos.dist(pos);
+	}
+
+	/**
+	 * Minimum allowed separation between the bodies.
+	 * @param b Separated body
+	 * @return Minimum distance
+	 */
+	public float minSeparation(Body b)
+	{
+		return rad + b.rad;
+	}
+
+	/**
+	 * Shape type of the body (index in the narrow phase tests).
+	 * @return NarrowPhase.CIRCLE or NarrowPhase.POLYGON
+	 */
+	public int getShapeType()
+	{
+		return (polygon == null) ? NarrowPhase.CIRCLE : NarrowPhase.POLYGON;
+	}
+
+	/**
+	 * Moment of inertia per unit mass, at the current radius.
+	 * @return Inertia
+	 */
+	public float getInertia()
+	{
+		return ((polygon == null) ? 0.5f : polygon.inertia) * rad * rad;
+	}
+
+	/**
+	 * Obtain the vertices and edge normals of the polygon in world coordinates.
+	 * @param xs Array receiving the vertex x-coords
+	 * @param ys Array receiving the vertex y-coords
+	 * @param nxs Array receiving the normal x-coords (may be null)
+	 * @param nys Array receiving the normal y-coords (may be null)
+	 * @return Number of vertices (0 for a circle)
+	 */
+	public int getVertices(float[] xs, float[] ys, float[] nxs, float[] nys)
+	{
+		if (polygon == null)
+			return 0;
+		float c = (float) StrictMath.cos(angle), s = (float) StrictMath.sin(angle);
+		for (int k = 0; k < polygon.size; k++) {
+			float lx = polygon.localX[k], ly = polygon.localY[k];
+			xs[k] = pos.x + rad * (c*lx - s*ly);
+			ys[k] = pos.y + rad * (s*lx + c*ly);
+			if (nxs != null) {
+				nxs[k] = c*polygon.normalX[k] - s*polygon.normalY[k];
+				nys[k] = s*polygon.normalX[k] + c*polygon.normalY[k];
+			}
+		}
+		return polygon.size;
+	}
+
+	/**
+	 * Add force to the body.
+	 * @param force
+	 */
+	public void addForce(Vec force)
+	{
+		acc.add(force);
+	}
+
+	/**
+	 * Move the body by one simulation step.
+	 * @param dt Time interval.
+	 * @param shockFactor Increases the radius
+	 */
+	public void step(float dt, float shockFactor)
+	{
+		rad = initRad + 0.35f * initRad * shockFactor;
+		float k = invMass*dt * dt;
+		pos.add(acc.x*k, acc.y*k, acc.z*k);
+		acc.set(0, 0, 0);
+	}
+
+	/**
+	 * Preserve the body inertia.
+	 */
+	public void preserveInertia()
+	{
+		float x = pos.x*2 - ppos.x, y = pos.y*2 - ppos.y, z = pos.z*2 - ppos.z;
+		ppos.set(pos);
+		pos.set(x, y, z);
+		// The rotation per step is bounded, so that the contacts always see it.
+		float spin = Math.max(-MAX_ROTATION, Math.min(MAX_ROTATION, angle - pangle));
+		pangle = angle;
+		angle += spin;
+	}
+	
+	/**
+	 * Put the body to sleep once it has been at rest for long enough.
+	 * @param config Physics parameters
+	 */
+	public void updateSleep(PhysicsConfig config)
+	{
+		if (isResting(config.sleepVelocity)) {
+			if (++restSteps >= config.sleepSteps) {
+				sleeping = true;
+				ppos.set(pos);
+				pangle = angle;
+			}
+		} else {
+			restSteps = 0;
+		}
+	}
+	
+	/**
+	 * Determine if the body moved less than the sleep threshold in the last step.
+	 * @param sleepVelocity Displacement under which the body is at rest
+	 * @return True if (almost) at rest
+	 */
+	public boolean isResting(float sleepVelocity)
+	{
+		float dx = pos.x - ppos.x;
+		float dy = pos.y - ppos.y;
+		if (polygon != null) {
+			// Displacement of the vertices by the rotation.
+			float da = (angle - pangle)*rad;
+			return dx*dx + dy*dy + da*da < sleepVelocity*sleepVelocity;
+		}
+		return dx*dx + dy*dy < sleepVelocity*sleepVelocity;
+	}
+	
+	/**
+	 * Wake up the body so that it is integrated again.
+	 */
+	public void wake()
+	{
+		sleeping = false;
+		restSteps = 0;
+	}
+
+	/**
+	 * Obtain the color of the body.
+	 * @return ARGB color
+	 */
+	public int getColor()
+	{
+		return col;
+	}
+
+	/**
+	 * Obtain the color the body goes toward when the system is shocked.
+	 * @return ARGB color
+	 */
+	public int getShockColor()
+	{
+		return shockCol;
+	}
+}
@@ -0,0 +1,301 @@
+package cannons.physics;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Flat storage for very large numbers of bodies (sandbox runs with millions
+ * of particles), where a Body object per particle would be too heavy.
+ * The state of each body (position, last position, acceleration, radius,
+ * mass and flags) is a record of floats in a FloatBuffer, which lives either
+ * on the heap (float array), off the heap (direct buffer, not counted in the
+ * Java heap and never scanned by the GC), or in a memory-mapped file (the
+ * file then always holds the current state, without any copy).
+ * The three backends share the same accessors and solver methods.
+ * These bodies are integrated and constrained by the terrain and the
+ * borders, but they do not collide with each other.
+ */
+public final class BodyStore
+{
+	/** Offsets of the fields in a record. */
+	static final int X = 0, Y = 1, PX = 2, PY = 3, AX = 4, AY = 5, RAD = 6, MASS = 7, FLAGS = 8;
+	/** Number of floats per record. */
+	static final int STRIDE = 9;
+	/** Header of the off-heap and mapped stores: number of bodies and stride (two ints). */
+	static final int HEADER_BYTES = 8;
+	/** Flag set once the body has collided with the terrain (it is not pushed by the wind anymore). */
+	static final int FLAG_COLLIDED = 1;
+	/** Flag of the bodies owned by the human. */
+	static final int FLAG_HUMAN = 2;
+
+	/** Memory of the off-heap and mapped stores (null on the heap). */
+	private ByteBuffer memory;
+	/** Records. */
+	private FloatBuffer data;
+	/** Maximal and current number of bodies. */
+	private int capacity, count;
+	/** Scratch vector receiving the wind samples. */
+	private final Vec windSample = new Vec();
+	/** Scratch arrays of the batched terrain height queries. */
+	private float[] queryX = new float[1024], queryHeight = new float[1024];
+
+	private BodyStore(ByteBuffer memory, FloatBuffer data, int capacity)
+	{
+		this.memory = memory;
+		this.data = data;
+		this.capacity = capacity;
+		if (memory != null)
+			memory.putInt(4, STRIDE);
+	}
+
+	/**
+	 * Create a store on the Java heap.
+	 * @param capacity Maximal number of bodies
+	 * @return New store
+	 */
+	public static BodyStore onHeap(int capacity)
+	{
+		return new BodyStore(null, FloatBuffer.allocate(capacity*STRIDE), capacity);
+	}
+
+	/**
+	 * Create a store in native memory, outside of the Java heap.
+	 * @param capacity Maximal number of bodies
+	 * @return New store
+	 */
+	public static BodyStore offHeap(int capacity)
+	{
+		ByteBuffer memory = ByteBuffer.allocateDirect(HEADER_BYTES + 4*capacity*STRIDE).order(ByteOrder.nativeOrder());
+		return new BodyStore(memory, records(memory), capacity);
+	}
+
+	/**
+	 * Create a store mapped on a file, which always holds the current state
+	 * (call force() to make sure it is written to the disk).
+	 * @param path Path of the file (created or overwritten)
+	 * @param capacity Maximal number of bodies
+	 * @return New store
+	 * @throws IOException If the file cannot be mapped
+	 */
+	public static BodyStore mapped(String path, int capacity) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer memory = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + 4L*capacity*STRIDE);
+			memory.order(ByteOrder.nativeOrder());
+			return new BodyStore(memory, records(memory), capacity);
+		} finally {
+			file.close(); // The mapping stays valid.
+		}
+	}
+
+	private static FloatBuffer records(ByteBuffer memory)
+	{
+		memory.position(HEADER_BYTES);
+		FloatBuffer data = memory.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+		memory.position(0);
+		return data;
+	}
+
+	/**
+	 * Determine whether the records are outside of the Java heap.
+	 * @return True for the off-heap and mapped stores
+	 */
+	public boolean isOffHeap() {
+		return memory != null;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Add a body at rest.
+	 * @param x Horizontal position
+	 * @param y Vertical position
+	 * @param rad Radius
+	 * @param mass Mass
+	 * @param flags Flags (FLAG_HUMAN)
+	 * @return Slot of the body, or -1 if the store is full
+	 */
+	public int add(float x, float y, float rad, float mass, int flags)
+	{
+		if (count == capacity)
+			return -1;
+		int o = count*STRIDE;
+		data.put(o + X, x);
+		data.put(o + Y, y);
+		data.put(o + PX, x);
+		data.put(o + PY, y);
+		data.put(o + AX, 0);
+		data.put(o + AY, 0);
+		data.put(o + RAD, rad);
+		data.put(o + MASS, mass);
+		data.put(o + FLAGS, Float.intBitsToFloat(flags));
+		setCount(count + 1);
+		return count - 1;
+	}
+
+	/**
+	 * Remove all the bodies (the memory is kept).
+	 */
+	public void clear()
+	{
+		setCount(0);
+	}
+
+	/**
+	 * Drop the records. An off-heap store gives its memory back once collected,
+	 * a mapped file keeps the last state. The store is empty and full afterwards.
+	 */
+	public void release()
+	{
+		if (memory instanceof MappedByteBuffer)
+			((MappedByteBuffer) memory).force();
+		memory = null;
+		data = FloatBuffer.allocate(0);
+		capacity = count = 0;
+	}
+
+	/**
+	 * Write a mapped store to the disk.
+	 */
+	public void force()
+	{
+		if (memory instanceof MappedByteBuffer)
+			((MappedByteBuffer) memory).force();
+	}
+
+	private void setCount(int count)
+	{
+		this.count = count;
+		if (memory != null)
+			memory.putInt(0, count);
+	}
+
+	public float getX(int i) {
+		return data.get(i*STRIDE + X);
+	}
+
+	public float getY(int i) {
+		return data.get(i*STRIDE + Y);
+	}
+
+	public float getRadius(int i) {
+		return data.get(i*STRIDE + RAD);
+	}
+
+	public float getMass(int i) {
+		return data.get(i*STRIDE + MASS);
+	}
+
+	public int getFlags(int i) {
+		return Float.floatToRawIntBits(data.get(i*STRIDE + FLAGS));
+	}
+
+	/**
+	 * Add force to a body.
+	 * @param i Slot
+	 * @param fx Horizontal force
+	 * @param fy Vertical force
+	 */
+	public void addForce(int i, float fx, float fy)
+	{
+		int o = i*STRIDE;
+		data.put(o + AX, data.get(o + AX) + fx);
+		data.put(o + AY, data.get(o + AY) + fy);
+	}
+
+	/**
+	 * Apply the gravity, the wind and the accumulated forces, and move the
+	 * bodies (same integration as Body.step()).
+	 * @param gravity Gravity force
+	 * @param wind Wind field (only acting on the bodies which have not hit the terrain)
+	 * @param dt Time interval
+	 */
+	public void accelerate(Vec gravity, WindField wind, float dt)
+	{
+		for (int i = 0, o = 0; i < count; i++, o += STRIDE) {
+			float ax = data.get(o + AX) + gravity.x;
+			float ay = data.get(o + AY) + gravity.y;
+			if ((Float.floatToRawIntBits(data.get(o + FLAGS)) & FLAG_COLLIDED) == 0) {
+				wind.sample(data.get(o + X), data.get(o + Y), windSample);
+				ax += windSample.x;
+				ay += windSample.y;
+			}
+			float k = dt*dt / (1.0f + data.get(o + MASS));
+			data.put(o + X, data.get(o + X) + k*ax);
+			data.put(o + Y, data.get(o + Y) + k*ay);
+			data.put(o + AX, 0);
+			data.put(o + AY, 0);
+		}
+	}
+
+	/**
+	 * Preserve the inertia of the bodies (verlet integration).
+	 */
+	public void inertia()
+	{
+		for (int o = 0, end = count*STRIDE; o < end; o += STRIDE) {
+			float x = data.get(o + X), y = data.get(o + Y);
+			data.put(o + X, 2*x - data.get(o + PX));
+			data.put(o + Y, 2*y - data.get(o + PY));
+			data.put(o + PX, x);
+			data.put(o + PY, y);
+		}
+	}
+
+	/**
+	 * Keep the bodies above the terrain (vertical constraint, as for the
+	 * bodies sliding on the terrain). The heights are queried in batches.
+	 * @param terrain Terrain
+	 */
+	public void terrainCollide(Terrain terrain)
+	{
+		for (int start = 0; start < count; start += queryX.length) {
+			int n = Math.min(queryX.length, count - start);
+			for (int k = 0; k < n; k++) {
+				queryX[k] = data.get((start + k)*STRIDE + X);
+			}
+			terrain.getHeightsUnder(queryX, queryHeight, n);
+			for (int k = 0; k < n; k++) {
+				int o = (start + k)*STRIDE;
+				float y = data.get(o + Y), rad = data.get(o + RAD);
+				if (y + rad > queryHeight[k]) {
+					data.put(o + Y, queryHeight[k] - rad);
+					data.put(o + PY, queryHeight[k] - rad);
+					data.put(o + FLAGS, Float.intBitsToFloat(Float.floatToRawIntBits(data.get(o + FLAGS)) | FLAG_COLLIDED));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Bounce the bodies on the left and right borders of the world.
+	 * @param width Width of the world
+	 * @param damping Velocity damping of the bounce
+	 */
+	public void borderCollide(int width, float damping)
+	{
+		for (int o = 0, end = count*STRIDE; o < end; o += STRIDE) {
+			float x = data.get(o + X), rad = data.get(o + RAD);
+			if (x < rad || x > width - rad) {
+				float vx = damping * (data.get(o + PX) - x);
+				float bound = (x < rad) ? rad : width - rad;
+				data.put(o + X, bound);
+				data.put(o + PX, bound - vx);
+			}
+		}
+	}
+}
@@ -0,0 +1,291 @@
+package cannons.physics;
+
+import java.util.ArrayList;
+
+/**
+ * Uniform grid broad phase for circular bodies, with Verlet neighbour lists.
+ * The cells are at least as large as the biggest body diameter plus the skin,
+ * so a body can only touch bodies in its own cell or in the 8 neighbouring
+ * ones. Cells are hashed into a table of linked lists stored in primitive
+ * arrays, so rebuilding allocates nothing once the arrays have grown to the
+ * number of bodies.
+ * The grid is used to list the pairs of bodies closer than their radii plus
+ * a skin distance. As long as no body has moved (or grown) by more than half
+ * the skin since then, every overlapping pair is still in that list, and the
+ * grid is not rebuilt: finding the pairs only filters the list.
+ */
+public final class BroadPhase
+{
+	/** Head body slot of each hash bucket (-1 if empty). */
+	private int[] buckets = new int[0];
+	/** Next body slot in the same bucket (-1 at the end). */
+	private int[] next = new int[0];
+	/** Cell coordinates of each body slot. */
+	private int[] cellX = new int[0], cellY = new int[0];
+	/** Hash mask (the number of buckets is a power of two). */
+	private int mask;
+	/** Side of a grid cell. */
+	private float cellSize = 1;
+	/** Number of bodies inserted in the grid. */
+	private int count;
+	/** Largest margin passed to findPairs(). */
+	private final float maxMargin;
+	/** Extra distance of the neighbour lists. */
+	private float skin;
+	/** Ids, positions and radii of the bodies when the grid was built. */
+	private int[] refId = new int[0];
+	private float[] refX = new float[0], refY = new float[0], refRad = new float[0];
+	/** False when the grid must be rebuilt whatever the displacements. */
+	private boolean valid;
+	/** Number of rebuilds since the creation. */
+	private int rebuilds;
+	/** Neighbour pairs of body slots, two entries per pair, sorted by slots. */
+	private int[] neighbours = new int[256];
+	/** Number of neighbour pairs. */
+	private int nbNeighbours;
+	/** Candidate pairs of body slots, two entries per pair. */
+	private int[] pairs = new int[256];
+	/** Number of candidate pairs. */
+	private int nbPairs;
+	/** Scratch array for sorting the pairs. */
+	private long[] sortKeys = new long[0];
+
+	/**
+	 * @param maxMargin Largest margin which will be passed to findPairs()
+	 */
+	BroadPhase(float maxMargin)
+	{
+		this.maxMargin = maxMargin;
+	}
+
+	/**
+	 * Set the skin distance of the neighbour lists. A larger skin makes the
+	 * lists longer, but they are rebuilt less often.
+	 * @param skin Skin distance
+	 */
+	public void setSkin(float skin)
+	{
+		if (skin != this.skin) {
+			this.skin = Math.max(0, skin);
+			valid = false;
+		}
+	}
+
+	/**
+	 * Force a rebuild at the next update (e.g. after a reset).
+	 */
+	public void invalidate()
+	{
+		valid = false;
+	}
+
+	/**
+	 * Number of times the grid and the neighbour lists have been rebuilt.
+	 * @return int quantity
+	 */
+	public int getRebuilds() {
+		return rebuilds;
+	}
+
+	/**
+	 * Rebuild the grid and the neighbour lists if the bodies changed or if
+	 * one of them moved too far since the last build.
+	 * @param bodies Bodies (slots are their indices in the list)
+	 * @return True if rebuilt
+	 */
+	public boolean update(ArrayList<Body> bodies)
+	{
+		if (valid && bodies.size() == count) {
+			float limit = 0.5f * skin;
+			boolean moved = false;
+			for (int i = 0; i < count && !moved; i++) {
+				Body b = bodies.get(i);
+				float dx = b.pos.x - refX[i];
+				float dy = b.pos.y - refY[i];
+				float d = limit - Math.max(0, b.rad - refRad[i]);
+				moved = b.index != refId[i] || d < 0 || dx*dx + dy*dy > d*d;
+			}
+			if (!moved)
+				return false;
+		}
+		build(bodies);
+		return true;
+	}
+
+	/**
+	 * Insert all the bodies in the grid, and list the neighbour pairs.
+	 * @param bodies Bodies (slots are their indices in the list)
+	 */
+	private void build(ArrayList<Body> bodies)
+	{
+		count = bodies.size();
+		if (buckets.length == 0 || next.length < count) {
+			int size = Integer.highestOneBit(Math.max(count, 8) * 2 - 1) << 1;
+			buckets = new int[size];
+			next = new int[size/2];
+			cellX = new int[size/2];
+			cellY = new int[size/2];
+			refId = new int[size/2];
+			refX = new float[size/2];
+			refY = new float[size/2];
+			refRad = new float[size/2];
+			mask = size - 1;
+		}
+		float maxRad = 0;
+		for (int i = 0; i < count; i++) {
+			maxRad = Math.max(maxRad, bodies.get(i).rad);
+		}
+		cellSize = Math.max(2*maxRad + maxMargin + skin, 1);
+		java.util.Arrays.fill(buckets, -1);
+		for (int i = 0; i < count; i++) {
+			Body b = bodies.get(i);
+			int cx = cell(b.pos.x);
+			int cy = cell(b.pos.y);
+			cellX[i] = cx;
+			cellY[i] = cy;
+			refId[i] = b.index;
+			refX[i] = b.pos.x;
+			refY[i] = b.pos.y;
+			refRad[i] = b.rad;
+			int h = hash(cx, cy);
+			next[i] = buckets[h];
+			buckets[h] = i;
+		}
+		listNeighbours(bodies);
+		valid = true;
+		++rebuilds;
+	}
+
+	private int cell(float v)
+	{
+		return (int) Math.floor(v/cellSize);
+	}
+
+	private int hash(int cx, int cy)
+	{
+		return ((cx * 73856093) ^ (cy * 19349663)) & mask;
+	}
+
+	/**
+	 * List the pairs of bodies closer than their radii, the margin and the skin.
+	 * @param bodies Bodies, in the same order as when the grid was built
+	 */
+	private void listNeighbours(ArrayList<Body> bodies)
+	{
+		nbNeighbours = 0;
+		for (int i = 0; i < count; i++) {
+			Body b1 = bodies.get(i);
+			for (int dx = -1; dx <= 1; dx++) {
+				for (int dy = -1; dy <= 1; dy++) {
+					int cx = cellX[i] + dx;
+					int cy = cellY[i] + dy;
+					for (int j = buckets[hash(cx, cy)]; j >= 0; j = next[j]) {
+						if (j <= i || cellX[j] != cx || cellY[j] != cy)
+							continue;
+						Body b2 = bodies.get(j);
+						float ex = b1.pos.x - b2.pos.x;
+						float ey = b1.pos.y - b2.pos.y;
+						float reach = b1.rad + b2.rad + maxMargin + skin;
+						if (ex*ex + ey*ey < reach*reach) {
+							if (2*nbNeighbours + 2 > neighbours.length) {
+								neighbours = java.util.Arrays.copyOf(neighbours, 2*neighbours.length);
+							}
+							neighbours[2*nbNeighbours] = i;
+							neighbours[2*nbNeighbours + 1] = j;
+							++nbNeighbours;
+						}
+					}
+				}
+			}
+		}
+		sortNeighbours();
+	}
+
+	/**
+	 * Sort the neighbour pairs by body slots, so that the order in which they
+	 * are solved does not depend on the grid (cell size, hash table size).
+	 */
+	private void sortNeighbours()
+	{
+		if (sortKeys.length < nbNeighbours)
+			sortKeys = new long[neighbours.length/2];
+		for (int k = 0; k < nbNeighbours; k++) {
+			sortKeys[k] = ((long) neighbours[2*k] << 32) | neighbours[2*k + 1];
+		}
+		java.util.Arrays.sort(sortKeys, 0, nbNeighbours);
+		for (int k = 0; k < nbNeighbours; k++) {
+			neighbours[2*k] = (int) (sortKeys[k] >>> 32);
+			neighbours[2*k + 1] = (int) sortKeys[k];
+		}
+	}
+
+	/**
+	 * Find all the pairs of bodies which may overlap, sorted by body slots.
+	 * The neighbour lists must be up to date (see update()).
+	 * @param bodies Bodies, in the same order as when the grid was built
+	 * @param margin Extra distance under which two bodies are still paired (at most maxMargin)
+	 * @return Number of pairs, read with getPairA() and getPairB()
+	 */
+	public int findPairs(ArrayList<Body> bodies, float margin)
+	{
+		if (pairs.length < neighbours.length)
+			pairs = new int[neighbours.length];
+		nbPairs = 0;
+		for (int k = 0; k < nbNeighbours; k++) {
+			int i = neighbours[2*k], j = neighbours[2*k + 1];
+			Body b1 = bodies.get(i);
+			Body b2 = bodies.get(j);
+			float ex = b1.pos.x - b2.pos.x;
+			float ey = b1.pos.y - b2.pos.y;
+			float reach = b1.rad + b2.rad + margin;
+			if (ex*ex + ey*ey < reach*reach) {
+				pairs[2*nbPairs] = i;
+				pairs[2*nbPairs + 1] = j;
+				++nbPairs;
+			}
+		}
+		return nbPairs;
+	}
+
+	public int getPairA(int k) {
+		return pairs[2*k];
+	}
+
+	public int getPairB(int k) {
+		return pairs[2*k + 1];
+	}
+
+	/**
+	 * Find the bodies whose circle overlaps a circle, sorted by body slots.
+	 * The cells searched cover the displacements allowed since the last build.
+	 * @param bodies Bodies, in the same order as when the grid was built
+	 * @param x Horizontal center
+	 * @param y Vertical center
+	 * @param rad Radius
+	 * @param out Array receiving the body slots
+	 * @return Number of bodies found (at most out.length)
+	 */
+	public int query(ArrayList<Body> bodies, float x, float y, float rad, int[] out)
+	{
+		int found = 0;
+		int span = (int) Math.ceil((rad + 0.5f*skin)/cellSize);
+		int cx0 = cell(x), cy0 = cell(y);
+		for (int cx = cx0 - span - 1; cx <= cx0 + span + 1; cx++) {
+			for (int cy = cy0 - span - 1; cy <= cy0 + span + 1; cy++) {
+				for (int j = buckets[hash(cx, cy)]; j >= 0; j = next[j]) {
+					if (cellX[j] != cx || cellY[j] != cy)
+						continue;
+					Body b = bodies.get(j);
+					float ex = b.pos.x - x;
+					float ey = b.pos.y - y;
+					float reach = b.rad + rad;
+					if (ex*ex + ey*ey < reach*reach && found < out.length) {
+						out[found++] = j;
+					}
+				}
+			}
+		}
+		java.util.Arrays.sort(out, 0, found);
+		return found;
+	}
+}
@@ -0,0 +1,203 @@
+package cannons.physics;
+
+import java.util.SplittableRandom;
+
+
+public class Cannon
+{
+	/** Position of the cannon at its base */
+	private Vec position;
+	/** Angle of the cannon from the ground-plane, from 0 to HALF_PI */
+	private float angle;
+	/** Force of the cannon, from 0 to 1.0f */
+	private float impulseForceCoef;
+	/** Physics parameters (maximal force of the cannon, mass to radius ratio). */
+	private PhysicsConfig config;
+	/** Mass of the upcoming cannon-ball. */
+	private float mass;
+	/** Boolean indicating whether this is the human or the opponent cannon. */
+	private boolean human;
+	/** Length of the cannon. */
+	public float length = 40.0f;
+	/** Last cannon-ball shot (null if none). */
+	private Body lastShot;
+	/** Random generator for the mass and force picks. */
+	private SplittableRandom random;
+	
+	public Cannon(Vec position, boolean human, PhysicsConfig config, SplittableRandom random) {
+		this.config = config;
+		this.random = random;
+		this.position = position;
+		this.human = human;
+		this.angle = 0;
+		pickRandomMass();
+	}
+	
+	/**
+	 * Obtain the position at the base of the cannon.
+	 * @return Vec indicating the current position.
+	 */
+	public Vec getPosition() {
+		return position.get();
+	}
+	
+	/**
+	 * Use new physics parameters (for the upcoming shots).
+	 * @param config Physics parameters
+	 */
+	public void setConfig(PhysicsConfig config) {
+		this.config = config;
+	}
+	
+	/**
+	 * Obtain the angle between the ground plane and the cannon.
+	 * @return angle
+	 */
+	public float getAngle() {
+		return angle;
+	}
+	
+	/**
+	 * Determine whether this is the human (left) or the opponent (right) cannon.
+	 * @return True for the human cannon
+	 */
+	public boolean isHuman() {
+		return human;
+	}
+	
+	/**
+	 * Get the position at the center of the cannon used by the
+	 * collision circle/body around it.
+	 * @return Position Vec
+	 */
+	public Vec getCollisionCircleCenter() {
+		float angle = this.angle+Constants.HALF_PI; //Is is ok to always add HALF_PI here?
+		angle = (human) ? angle : -angle;
+		Vec center = new Vec((float) StrictMath.sin(angle), (float) StrictMath.cos(angle));
+		center.mult(length/2);
+		center.add(position);
+		return center;
+	}
+	
+	/**
+	 * Set the cannon angle, constrained between 0 and HALF_PI.
+	 * @param angle New angle
+	 */
+	public void setAngle(float angle) {
+		this.angle = Math.max(0, Math.min(Constants.HALF_PI, angle));
+	}
+	
+	/**
+	 * Increase the cannon angle. If the angle is greater than HALF_PI,
+	 * this has no effect.
+	 * @param increment Angle increment
+	 */
+	public void increaseAngle(float increment) {
+		setAngle(angle + increment);
+	}
+	
+	/**
+	 * Decrease the cannon angle. If the angle is smaller than 0,
+	 * this has no effect.
+	 * @param increment Angle increment
+	 */
+	public void decreaseAngle(float increment) {
+		setAngle(angle - increment);
+	}
+	
+	/**
+	 * Set the force of the shot, constrained between 0 and 1.0f.
+	 * @param force New force coefficient
+	 */
+	public void setForce(float force) {
+		impulseForceCoef = Math.max(0, Math.min(1.0f, force));
+	}
+	
+	/**
+	 * Obtain the force of the shot.
+	 * @return Force coefficient, from 0 to 1.0f
+	 */
+	public float getForce() {
+		return impulseForceCoef;
+	}
+	
+	/**
+	 * Increase the force of the shot. If force is larger than 1.0f,
+	 * this has no effect.
+	 * @param increment Force increment
+	 */
+	public void increaseForce(float increment) {
+		setForce(impulseForceCoef + increment);
+	}
+	
+	/**
+	 * Decrease the force of the shot. If force is smaller than 0.0f,
+	 * this has no effect.
+	 * @param increment Force increment
+	 */
+	public void decreaseForce(float increment) {
+		setForce(impulseForceCoef - increment);
+	}
+	
+	/**
+	 * Assign a random force to the cannon.
+	 */
+	public void pickRandomForce() {
+		impulseForceCoef = 0.6f + 0.1f*random.nextFloat();
+	}
+	
+	/**
+	 * Assign a random mass to the next cannon-ball.
+	 */
+	private void pickRandomMass() {
+		mass = 0.5f + 0.5f*random.nextFloat();
+	}
+	
+	/**
+	 * Shoot the cannon-ball. A body is added to the system.
+	 * @param system System of (circular) bodies in which the new body is added.
+	 * @return True if the cannon wasn't blocked and could shoot
+	 *         (and consequently add a new body into the system).
+	 */
+	public boolean shoot(System system) {
+		float angle = this.angle+Constants.HALF_PI;
+		angle = (human) ? angle : -angle;
+		Vec cannonForce = new Vec((float) StrictMath.sin(angle), (float) StrictMath.cos(angle));
+		Body b1 = new Body(Vec.add(position, Vec.mult(cannonForce, length)), mass, human, config);
+		b1.projectile = true;
+		cannonForce.mult(impulseForceCoef*config.cannonMaxForce);
+		impulseForceCoef = 0.0f;
+		pickRandomMass();
+		if (!system.inCollision(b1)) {
+			b1.addForce(cannonForce);
+			system.addBody(b1);
+			lastShot = b1;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Obtain the last cannon-ball shot.
+	 * @return Body (null if the cannon has not shot yet)
+	 */
+	public Body getLastShot() {
+		return lastShot;
+	}
+	
+	/**
+	 * Obtain the mass of the upcoming cannon-ball.
+	 * @return Mass
+	 */
+	public float getNextMass() {
+		return mass;
+	}
+
+	/**
+	 * Obtain the physics parameters of the upcoming shots.
+	 * @return Physics parameters
+	 */
+	public PhysicsConfig getConfig() {
+		return config;
+	}
+}
@@ -0,0 +1,129 @@
+package cannons.physics;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Watch the physics configuration file and reload it when it changes.
+ * The reloading happens on a background thread; the simulation picks the
+ * new snapshot up between two steps with poll().
+ */
+public class ConfigWatcher implements Runnable
+{
+	/** Watched configuration file. */
+	private final Path file;
+	/** Latest loaded snapshot which has not been polled yet (null if none). */
+	private final AtomicReference<PhysicsConfig> pending;
+	/** File system watch service. */
+	private WatchService watchService;
+	/** Background thread waiting for the file changes. */
+	private Thread thread;
+
+	public ConfigWatcher(String path)
+	{
+		this.file = Paths.get(path).toAbsolutePath();
+		this.pending = new AtomicReference<PhysicsConfig>();
+	}
+
+	/**
+	 * Load the file (if it exists) and start watching it.
+	 * @return The initial configuration (defaults if the file is missing or invalid)
+	 */
+	public PhysicsConfig start()
+	{
+		PhysicsConfig initial = PhysicsConfig.DEFAULT;
+		if (file.toFile().exists()) {
+			try {
+				initial = PhysicsConfig.load(file.toString());
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (NumberFormatException e) {
+				e.printStackTrace();
+			}
+		}
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			file.getParent().register(watchService,
+					StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			thread = new Thread(this, "config-watcher");
+			thread.setDaemon(true);
+			thread.start();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return initial;
+	}
+
+	/**
+	 * Stop watching the file.
+	 */
+	public void stop()
+	{
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+		try {
+			if (watchService != null)
+				watchService.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Obtain the configuration reloaded since the last call, if any.
+	 * Should be called once between two simulation steps.
+	 * @return New configuration, or null if the file did not change
+	 */
+	public PhysicsConfig poll()
+	{
+		return pending.getAndSet(null);
+	}
+
+	public void run()
+	{
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				WatchKey key = watchService.take();
+				boolean changed = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					Object context = event.context();
+					if (context instanceof Path && file.getFileName().equals(context)) {
+						changed = true;
+					}
+				}
+				key.reset();
+				if (changed) {
+					reload();
+				}
+			}
+		} catch (InterruptedException e) {
+			// Stopped.
+		} catch (java.nio.file.ClosedWatchServiceException e) {
+			// Stopped.
+		}
+	}
+
+	/**
+	 * Load the file again. An invalid file is reported and ignored,
+	 * keeping the current configuration.
+	 */
+	private void reload()
+	{
+		try {
+			pending.set(PhysicsConfig.load(file.toString()));
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (NumberFormatException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -1,15 +1,16 @@
-import java.lang.Math;
+package cannons.physics;
+
+import java.util.SplittableRandom;
 
 public class Constants
 {
-	static float damping = 0.98f;
-	static float gravityFactor = 0.4f;
-	static float maxWindForceMagnitude = 0.1f;
-	static int humanColor = -12829496;
-	static int opponentColor = -3654596;
-	static float massToRadiusRatio = 11.0f;
+	public static int humanColor = -12829496;
+	public static int opponentColor = -3654596;
+	public static int worldScreens = 1;
+	/** Angles, with the same float values as in PApplet. */
+	public static final float PI = (float) Math.PI, HALF_PI = PI / 2.0f, TWO_PI = PI * 2.0f;
 	
-	static int[] goodcolor = {
+	public static int[] goodcolor = {
 	0xFFDDE9E5, 0xFFEDF6F5, 0xFFF8F9F4, 0xFFFBF8F3, 0xFFE2DFD6, 0xFFF7F4ED, 0xFFE3EDD5, 0xFFFAF5D7, 0xFFD9E7D8, 0xFFD8CFC8, 
 	0xFFE8F6F9, 0xFFF2F6F5, 0xFFFBFAF6, 0xFFFFFFF8, 0xFFDBE6D8, 0xFFF0F0E4, 0xFFF3F2E0, 0xFFF7F5DC, 0xFFCED1C6, 0xFFC7D3C5, 
 	0xFFE6F5F2, 0xFFF7F6F4, 0xFFFCFBF6, 0xFFF9F8F6, 0xFFDFE9DE, 0xFFEEECDF, 0xFFEFEFD5, 0xFFF4F3DE, 0xFFDCE5C8, 0xFFD9E3CB, 
@@ -21,7 +22,7 @@ public class Constants
 	0xFFDFDBD0, 0xFFDADADC, 0xFFD3CFCE, 0xFFE5E7D1, 0xFFF4F2D9, 0xFFFDFBE6, 0xFFF9F7E0, 0xFFD5E4CD, 0xFFCACCC7, 0xFFD0D7CF, 
 	0xFFD5E3E3, 0xFFEBEDE8, 0xFFE4E8DA, 0xFFDBD6C3, 0xFFF1EECF, 0xFFD3D7C6, 0xFFD7E6D3, 0xFFE3EBD6, 0xFFE0E8D1, 0xFFBCBCBC};
 	
-	static public int somecolor() {
-		return Constants.goodcolor[(int) (Math.random() * goodcolor.length)];
+	static public int somecolor(SplittableRandom random) {
+		return Constants.goodcolor[random.nextInt(goodcolor.length)];
 	}
 }
@@ -0,0 +1,150 @@
+package cannons.physics;
+
+import java.util.ArrayList;
+
+/**
+ * Iterative position solver for the contacts between bodies. The contacts
+ * persist between steps (they are matched by body ids), and each one
+ * remembers the total correction it applied during the previous step.
+ * That correction is applied again at the start of the next step
+ * (warm-starting): the push a stack needs to hold its own weight is then
+ * already there before the first iteration, instead of having to travel
+ * one body per iteration from the ground up.
+ */
+public final class ContactSolver
+{
+	/** Extra distance under which two bodies are kept as a contact. */
+	static final float margin = 0.5f;
+
+	/** Contact keys (ids of the two bodies) of the current and previous steps, in increasing order. */
+	private long[] keys = new long[0], prevKeys = new long[0];
+	/** Body slots of the current contacts. */
+	private int[] slotA = new int[0], slotB = new int[0];
+	/** Corrections accumulated by the contacts during the current and previous steps. */
+	private float[] lambda = new float[0], prevLambda = new float[0];
+	/** Warm-start correction of the current contacts (0 for the new contacts). */
+	private float[] warm = new float[0];
+	/** Number of current and previous contacts. */
+	private int count, prevCount;
+	/** Exact test of the pairs (circles and polygons). */
+	private final NarrowPhase narrow = new NarrowPhase();
+
+	/** Forget all the contacts. */
+	public void clear()
+	{
+		count = prevCount = 0;
+	}
+
+	/**
+	 * Number of contacts of the current step.
+	 * @return int quantity
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Build the contacts from the candidate pairs of the broad phase, and
+	 * find the corrections of the contacts already present in the previous step.
+	 * @param bodies Bodies, sorted by id
+	 * @param broadPhase Broad phase whose pairs were just found (they are sorted by slots)
+	 * @param nbPairs Number of pairs
+	 */
+	public void build(ArrayList<Body> bodies, BroadPhase broadPhase, int nbPairs)
+	{
+		long[] tk = prevKeys; prevKeys = keys; keys = tk;
+		float[] tl = prevLambda; prevLambda = lambda; lambda = tl;
+		prevCount = count;
+		// The key and correction arrays are swapped at each step: check all of them.
+		if (keys.length < nbPairs || slotA.length < nbPairs) {
+			int size = Math.max(nbPairs, 2*slotA.length);
+			keys = new long[size];
+			lambda = new float[size];
+			warm = new float[size];
+			slotA = new int[size];
+			slotB = new int[size];
+		}
+		count = nbPairs;
+		int j = 0;
+		for (int k = 0; k < nbPairs; k++) {
+			int a = broadPhase.getPairA(k), b = broadPhase.getPairB(k);
+			long key = ((long) bodies.get(a).index << 32) | bodies.get(b).index;
+			slotA[k] = a;
+			slotB[k] = b;
+			keys[k] = key;
+			lambda[k] = 0;
+			// Both lists are sorted by key: merge walk.
+			while (j < prevCount && prevKeys[j] < key)
+				++j;
+			warm[k] = (j < prevCount && prevKeys[j] == key) ? prevLambda[j] : 0;
+		}
+	}
+
+	/**
+	 * Apply a fraction of the corrections of the previous step to the contacts
+	 * which still touch.
+	 * @param bodies Bodies
+	 * @param factor Fraction of the previous corrections (0 disables the warm-starting)
+	 * @param preservingMomentum True to split the corrections by mass
+	 */
+	public void warmStart(ArrayList<Body> bodies, float factor, boolean preservingMomentum)
+	{
+		if (factor <= 0)
+			return;
+		for (int k = 0; k < count; k++) {
+			if (warm[k] <= 0)
+				continue;
+			Body b1 = bodies.get(slotA[k]);
+			Body b2 = bodies.get(slotB[k]);
+			if (b1.sleeping || b2.sleeping)
+				continue;
+			if (!narrow.collide(b1, b2))
+				continue;
+			float length = factor * warm[k];
+			narrow.separate(b1, b2, length, preservingMomentum);
+			lambda[k] += length;
+		}
+	}
+
+	/**
+	 * One Gauss-Seidel iteration over the contacts: resolve the overlaps.
+	 * A sleeping body only wakes up when it is hit by a moving body,
+	 * otherwise it behaves as a static obstacle.
+	 * @param bodies Bodies
+	 * @param config Physics parameters
+	 * @param preservingMomentum True to split the corrections by mass
+	 * @return Largest penetration found during the iteration
+	 */
+	public float iterate(ArrayList<Body> bodies, PhysicsConfig config, boolean preservingMomentum)
+	{
+		float maxPenetration = 0;
+		for (int k = 0; k < count; k++) {
+			Body b1 = bodies.get(slotA[k]);
+			Body b2 = bodies.get(slotB[k]);
+			if (b1.sleeping && b2.sleeping)
+				continue;
+			if (!narrow.collide(b1, b2))
+				continue;
+			float penetration = narrow.penetration;
+			if (penetration <= 0)
+				continue;
+			maxPenetration = Math.max(maxPenetration, penetration);
+			float nx = narrow.nx, ny = narrow.ny;
+			if (b1.sleeping || b2.sleeping) {
+				Body awake = (b1.sleeping) ? b2 : b1;
+				Body asleep = (b1.sleeping) ? b1 : b2;
+				if (!awake.isResting(config.sleepVelocity)) {
+					asleep.wake();
+				} else {
+					float sign = (awake == b1) ? 1 : -1;
+					awake.pos.x += sign * nx * penetration;
+					awake.pos.y += sign * ny * penetration;
+					continue;
+				}
+			}
+			narrow.separate(b1, b2, penetration, preservingMomentum);
+			lambda[k] += penetration;
+		}
+		return maxPenetration;
+	}
+}
@@ -0,0 +1,104 @@
+package cannons.physics;
+
+import java.util.SplittableRandom;
+
+/**
+ * Convex polygon shape of a body. The vertices are given in the body frame,
+ * centered on the centroid and scaled so that the farthest vertex lies on the
+ * unit circle: the body radius is then the radius of its bounding circle, and
+ * the shape scales with it.
+ */
+public final class ConvexPolygon
+{
+	/** Maximal number of vertices. */
+	static final int MAX_VERTICES = 16;
+
+	/** Number of vertices. */
+	public final int size;
+	/** Vertices in the body frame (bounding radius of 1). */
+	public final float[] localX, localY;
+	/** Outward unit normals of the edges, in the body frame (edge k goes from vertex k to vertex k+1). */
+	final float[] normalX, normalY;
+	/** Moment of inertia per unit mass, for a bounding radius of 1. */
+	final float inertia;
+
+	/**
+	 * @param xs Vertex x-coords, in order around the polygon (either direction)
+	 * @param ys Vertex y-coords
+	 */
+	ConvexPolygon(float[] xs, float[] ys)
+	{
+		size = xs.length;
+		if (size < 3 || size > MAX_VERTICES || ys.length != size)
+			throw new IllegalArgumentException("A polygon needs 3 to " + MAX_VERTICES + " vertices");
+		// Area centroid.
+		float area = 0, cx = 0, cy = 0;
+		for (int k = 0; k < size; k++) {
+			int l = (k+1) % size;
+			float cross = xs[k]*ys[l] - xs[l]*ys[k];
+			area += cross;
+			cx += (xs[k] + xs[l])*cross;
+			cy += (ys[k] + ys[l])*cross;
+		}
+		cx /= 3*area;
+		cy /= 3*area;
+		float maxDistance = 0;
+		for (int k = 0; k < size; k++) {
+			maxDistance = Math.max(maxDistance, (float) Math.hypot(xs[k] - cx, ys[k] - cy));
+		}
+		localX = new float[size];
+		localY = new float[size];
+		for (int k = 0; k < size; k++) {
+			localX[k] = (xs[k] - cx)/maxDistance;
+			localY[k] = (ys[k] - cy)/maxDistance;
+		}
+		normalX = new float[size];
+		normalY = new float[size];
+		float num = 0, den = 0;
+		for (int k = 0; k < size; k++) {
+			int l = (k+1) % size;
+			float nx = localY[l] - localY[k], ny = localX[k] - localX[l];
+			float length = (float) Math.sqrt(nx*nx + ny*ny);
+			// Outward: away from the centroid (the origin).
+			float sign = (nx*localX[k] + ny*localY[k] < 0) ? -1 : 1;
+			normalX[k] = sign*nx/length;
+			normalY[k] = sign*ny/length;
+			float cross = Math.abs(localX[k]*localY[l] - localX[l]*localY[k]);
+			num += cross*(localX[k]*localX[k] + localY[k]*localY[k] + localX[k]*localX[l] + localY[k]*localY[l]
+					+ localX[l]*localX[l] + localY[l]*localY[l]);
+			den += cross;
+		}
+		inertia = num/(6*den);
+	}
+
+	/**
+	 * Rectangle (e.g. a crate).
+	 * @param width Width
+	 * @param height Height
+	 * @return Polygon
+	 */
+	static ConvexPolygon box(float width, float height)
+	{
+		float w = width/2, h = height/2;
+		return new ConvexPolygon(new float[] {-w, w, w, -w}, new float[] {-h, -h, h, h});
+	}
+
+	/**
+	 * Irregular convex polygon (e.g. a debris fragment): vertices on the unit
+	 * circle at random, but not too close, angles.
+	 * @param random Random generator
+	 * @param sides Number of sides
+	 * @return Polygon
+	 */
+	static ConvexPolygon random(SplittableRandom random, int sides)
+	{
+		float[] xs = new float[sides], ys = new float[sides];
+		float step = (float) (2*Math.PI/sides);
+		for (int k = 0; k < sides; k++) {
+			float angle = step*(k + 0.8f*(random.nextFloat() - 0.5f));
+			xs[k] = (float) StrictMath.cos(angle);
+			ys[k] = (float) StrictMath.sin(angle);
+		}
+		return new ConvexPolygon(xs, ys);
+	}
+}
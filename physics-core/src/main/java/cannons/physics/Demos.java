@@ -0,0 +1,88 @@
+package cannons.physics;
+
+import java.util.SplittableRandom;
+
+/**
+ * Demos of the sandbox, shared by the game (on their keys) and by the
+ * headless scenarios, so that both add the same bodies for the same random
+ * stream.
+ */
+public final class Demos
+{
+	private Demos()
+	{
+	}
+
+	static float random(SplittableRandom random, float low, float high) {
+		return low + random.nextFloat()*(high - low);
+	}
+
+	/**
+	 * Fill the screen with bodies, half of each side, inside the borders (f key).
+	 * @param system System
+	 * @param random Random stream of the demos
+	 * @param x Left edge of the screen in world coordinates
+	 * @param width Width of the screen
+	 * @param height Height of the screen
+	 * @param count Number of bodies added
+	 */
+	public static void fill(System system, SplittableRandom random, float x, float width, float height, int count) {
+		int total = count+system.getNumberOfBodies();
+		system.useBorderConstraint(true);
+		system.useCannonCollision(false);
+		while(system.getNumberOfBodies() < total) {
+			Body b = new Body(new Vec(random(random, x, x+width), random(random, 0, height)),
+					random(random, 0.5f, 1.0f), system.getNumberOfBodies()<total/2, system.getConfig());
+			system.safeAddBody(b);
+		}
+	}
+
+	/**
+	 * Drop crates and rocks on the screen (c key).
+	 * @param system System
+	 * @param random Random stream of the demos
+	 * @param x Left edge of the screen in world coordinates
+	 * @param width Width of the screen
+	 * @param height Height of the screen
+	 */
+	public static void crates(System system, SplittableRandom random, float x, float width, float height) {
+		system.useBorderConstraint(true);
+		for (int k = 0; k < 12; k++) {
+			ConvexPolygon shape = (k % 2 == 0) ? ConvexPolygon.box(1.0f, random(random, 0.6f, 1.0f))
+					: ConvexPolygon.random(random, 5 + k % 3);
+			Body b = new Body(new Vec(random(random, x, x+width), random(random, 0, height/3)),
+					random(random, 0.7f, 1.2f), k % 4 < 2, system.getConfig(), shape);
+			system.safeAddBody(b);
+		}
+	}
+
+	/**
+	 * Throw two bodies of different masses at each other in the middle of the screen (m key).
+	 * @param system System
+	 * @param random Random stream of the demos
+	 * @param x Left edge of the screen in world coordinates
+	 * @param width Width of the screen
+	 * @param height Height of the screen
+	 */
+	public static void momentum(System system, SplittableRandom random, float x, float width, float height) {
+		Body b1 = new Body(new Vec(x+width/2-50, height/2), 2.0f, true, system.getConfig());
+		b1.addForce(new Vec(30.0f, 0f));
+		system.safeAddBody(b1);
+
+		Body b2 = new Body(new Vec(x+width/2+50, height/2+random(random, 0, 5)), 0.6f, false, system.getConfig());
+		b2.addForce(new Vec(-30.0f, 0f));
+		system.safeAddBody(b2);
+	}
+
+	/**
+	 * Drop an opponent's ball on a cannon (k key).
+	 * @param system System
+	 * @param cannon Cannon hit
+	 */
+	public static void suicide(System system, Cannon cannon) {
+		Vec above = new Vec(10, -50, 0);
+		above.add(cannon.getPosition());
+		Body b = new Body(above, 1.0f, false, system.getConfig());
+		system.addBody(b);
+	}
+}
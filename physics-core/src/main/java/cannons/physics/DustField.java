@@ -0,0 +1,242 @@
+package cannons.physics;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Dust particles moved by a noise field and by the wind field, drawn with a short
+ * trail. The particles are stored in primitive arrays (one per field), and
+ * large numbers of them are stepped in parallel, in chunks, on a fork/join
+ * pool: each particle only depends on itself, so the result does not depend
+ * on the chunking. The particles loop around the edges of the screen.
+ * The number of particles can be changed between two steps.
+ */
+public final class DustField
+{
+	/** Number of particles stepped by a single task. */
+	public static final int CHUNK = 4096;
+	/** Number of positions in a trail. */
+	public static final int TRAIL = 10;
+	/** Distance beyond the edges of the screen after which a particle loops around. */
+	static final int BORDER = 7;
+
+	/** Area in which the particles move (screen coordinates). */
+	private int width, height;
+	/** Noise field moving the particles. */
+	private Noise noise;
+	/** Random generator for the new particles. */
+	private SplittableRandom random;
+	/** Pool stepping the chunks of particles. */
+	private ForkJoinPool pool;
+	/** Noise z-offset value for the fluid motion. */
+	private float zoff = 0.0f;
+	/** Noise increment at each step. */
+	private final float zIncrement = 0.002f;
+	/** Number of particles. */
+	private int count;
+	/** Positions, velocities and masses. */
+	private float[] x = new float[0], y = new float[0], vx = new float[0], vy = new float[0], mass = new float[0];
+	/** Last positions of each particle (TRAIL per particle), in a ring shared by all the particles. */
+	private float[] trailX = new float[0], trailY = new float[0];
+	/** Slot of the current position in the trail ring. */
+	private int head;
+	/** Parameters of the step in progress (read by the tasks). */
+	private WindField wind;
+	private float originX, noiseScale, noiseForce, drag, windFactor;
+
+	/**
+	 * @param width Width of the area
+	 * @param height Height of the area
+	 * @param random Random generator (seeds the noise field and places the particles)
+	 * @param pool Pool stepping the chunks of particles
+	 */
+	public DustField(int width, int height, SplittableRandom random, ForkJoinPool pool)
+	{
+		this.width = width;
+		this.height = height;
+		this.noise = new Noise(random.nextLong(), 4, 0.5f);
+		this.random = random;
+		this.pool = pool;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Change the number of particles. The new particles are placed at random.
+	 * Must not be called during a step.
+	 * @param n New number of particles
+	 */
+	public void setCount(int n)
+	{
+		n = Math.max(0, n);
+		if (n > x.length) {
+			int size = Math.max(n, 2*x.length);
+			x = java.util.Arrays.copyOf(x, size);
+			y = java.util.Arrays.copyOf(y, size);
+			vx = java.util.Arrays.copyOf(vx, size);
+			vy = java.util.Arrays.copyOf(vy, size);
+			mass = java.util.Arrays.copyOf(mass, size);
+			trailX = java.util.Arrays.copyOf(trailX, size*TRAIL);
+			trailY = java.util.Arrays.copyOf(trailY, size*TRAIL);
+		}
+		for (int i = count; i < n; i++) {
+			x[i] = width * random.nextFloat();
+			y[i] = height * random.nextFloat();
+			vx[i] = vy[i] = 0;
+			mass[i] = 0.5f + 0.5f*random.nextFloat();
+			regroupTrail(i);
+		}
+		count = n;
+	}
+
+	/**
+	 * Animate the particles by one step.
+	 * @param wind Wind field affecting the motion (read-only during the step)
+	 * @param originX Left edge of the screen in world coordinates (where the wind is sampled)
+	 * @param config Physics parameters
+	 */
+	public void step(WindField wind, float originX, PhysicsConfig config)
+	{
+		zoff += zIncrement;
+		head = (head + 1) % TRAIL;
+		this.wind = wind;
+		this.originX = originX;
+		noiseScale = config.dustNoiseScale;
+		noiseForce = config.dustNoiseForce;
+		drag = config.dustDrag;
+		windFactor = config.dustWindFactor;
+		if (count <= CHUNK) {
+			step(0, count);
+		} else {
+			pool.invoke(new Chunk(0, count));
+		}
+	}
+
+	/**
+	 * Step a range of particles.
+	 * @param from First particle
+	 * @param to Particle after the last one
+	 */
+	private void step(int from, int to)
+	{
+		Vec w = new Vec();
+		for (int i = from; i < to; i++) {
+			wind.sample(originX + x[i], y[i], w);
+			float nval = (noise.noise(noiseScale*x[i], noiseScale*y[i], zoff) - 0.5f)*2.0f*Constants.TWO_PI;
+			float fx = (float) Math.cos(nval)*mass[i]*noiseForce;
+			float fy = (float) Math.sin(nval)*mass[i]*noiseForce;
+			float px = vx[i] + fx, py = vy[i] + fy;
+			vx[i] = px - drag*px + windFactor*w.x;
+			vy[i] = py - drag*py + windFactor*w.y;
+			x[i] += vx[i];
+			y[i] += vy[i];
+			postStep(i);
+		}
+	}
+
+	/**
+	 * Post-step fix. Loop the particle around the edges, and record its position in the trail.
+	 * @param i Particle
+	 */
+	private void postStep(int i)
+	{
+		boolean looped = false;
+		if (x[i] < -BORDER) {
+			x[i] = width;
+			looped = true;
+		} else if (x[i] > width + BORDER) {
+			x[i] = 0;
+			looped = true;
+		}
+		if (y[i] < -BORDER) {
+			y[i] = height;
+			looped = true;
+		} else if (y[i] > height + BORDER) {
+			y[i] = 0;
+			looped = true;
+		}
+		if (looped) {
+			regroupTrail(i);
+		} else {
+			trailX[i*TRAIL + head] = x[i];
+			trailY[i*TRAIL + head] = y[i];
+		}
+	}
+
+	/**
+	 * Regroup the trail at the current position.
+	 * @param i Particle
+	 */
+	private void regroupTrail(int i)
+	{
+		java.util.Arrays.fill(trailX, i*TRAIL, (i+1)*TRAIL, x[i]);
+		java.util.Arrays.fill(trailY, i*TRAIL, (i+1)*TRAIL, y[i]);
+	}
+
+	/**
+	 * Checksum of the positions and velocities (to compare serial and parallel runs).
+	 * @return Hash of the state
+	 */
+	public long checksum()
+	{
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < count; i++) {
+			h = (h ^ Float.floatToIntBits(x[i])) * 0x100000001b3L;
+			h = (h ^ Float.floatToIntBits(y[i])) * 0x100000001b3L;
+			h = (h ^ Float.floatToIntBits(vx[i])) * 0x100000001b3L;
+			h = (h ^ Float.floatToIntBits(vy[i])) * 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Obtain a position of the trail of a particle (screen coordinates).
+	 * @param i Particle index
+	 * @param k Age of the position (0 for the current one, at most TRAIL-1)
+	 * @return Horizontal position
+	 */
+	public float getTrailX(int i, int k)
+	{
+		return trailX[i*TRAIL + (head - k + TRAIL) % TRAIL];
+	}
+
+	/**
+	 * Obtain a position of the trail of a particle (screen coordinates).
+	 * @param i Particle index
+	 * @param k Age of the position (0 for the current one, at most TRAIL-1)
+	 * @return Vertical position
+	 */
+	public float getTrailY(int i, int k)
+	{
+		return trailY[i*TRAIL + (head - k + TRAIL) % TRAIL];
+	}
+
+	/**
+	 * Task stepping a range of particles, split in halves down to CHUNK particles.
+	 */
+	private final class Chunk extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final int from, to;
+
+		Chunk(int from, int to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= CHUNK) {
+				step(from, to);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Chunk(from, middle), new Chunk(middle, to));
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package cannons.physics;
+
+/**
+ * Preallocated ring buffer of the events produced by a simulation step.
+ * The system fills it during the step and the consumers drain it afterwards,
+ * without any allocation. When the buffer is full, new events are dropped
+ * (and counted) rather than overwriting the undrained ones.
+ */
+public final class EventBuffer
+{
+	/** Types of simulation events. */
+	public enum EventType {
+		/** Impact between two bodies (bodyA, bodyB, value is the relative speed). */
+		BODY_CONTACT,
+		/** First impact of a body with the terrain (bodyA, value is the body radius). */
+		TERRAIN_IMPACT,
+		/** Body hitting a cannon (bodyA, bodyB is 0 for the human cannon and 1 for the opponent). */
+		CANNON_HIT,
+		/** Body removed because it left the world (bodyA). */
+		OUT_OF_BOUNDS
+	};
+
+	/** Maximum number of undrained events. */
+	private final int capacity;
+	/** Event fields, stored in parallel arrays. */
+	private final EventType[] types;
+	private final int[] bodyA, bodyB;
+	private final float[] xs, ys, values;
+	/** Slot of the oldest undrained event. */
+	private int head;
+	/** Number of undrained events. */
+	private int count;
+	/** Slot of the event being read (after a call to next()). */
+	private int current = -1;
+	/** Number of events dropped because the buffer was full. */
+	private long dropped;
+
+	EventBuffer(int capacity)
+	{
+		this.capacity = capacity;
+		this.types = new EventType[capacity];
+		this.bodyA = new int[capacity];
+		this.bodyB = new int[capacity];
+		this.xs = new float[capacity];
+		this.ys = new float[capacity];
+		this.values = new float[capacity];
+	}
+
+	/**
+	 * Append an event.
+	 * @param type Type of the event
+	 * @param a Index of the first body
+	 * @param b Index of the second body (or cannon), -1 if none
+	 * @param x Horizontal position of the event
+	 * @param y Vertical position of the event
+	 * @param value Magnitude of the event (depends on the type)
+	 * @return False if the buffer was full and the event was dropped
+	 */
+	public boolean push(EventType type, int a, int b, float x, float y, float value)
+	{
+		if (count == capacity) {
+			++dropped;
+			return false;
+		}
+		int slot = (head + count) % capacity;
+		types[slot] = type;
+		bodyA[slot] = a;
+		bodyB[slot] = b;
+		xs[slot] = x;
+		ys[slot] = y;
+		values[slot] = value;
+		++count;
+		return true;
+	}
+
+	/**
+	 * Move to the next undrained event, which can then be read with the getters.
+	 * @return False if there are no more events
+	 */
+	public boolean next()
+	{
+		if (count == 0) {
+			current = -1;
+			return false;
+		}
+		current = head;
+		head = (head + 1) % capacity;
+		--count;
+		return true;
+	}
+
+	/**
+	 * Move to an undrained event without draining it (for the observers, such
+	 * as the telemetry, which must leave the events to their consumer).
+	 * @param k Rank of the event (0 to size()-1, the oldest first)
+	 */
+	public void peek(int k)
+	{
+		current = (head + k) % capacity;
+	}
+
+	/** Discard all the undrained events. */
+	public void clear()
+	{
+		head = 0;
+		count = 0;
+		current = -1;
+	}
+
+	/**
+	 * Number of undrained events.
+	 * @return int quantity
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Number of events dropped since the creation of the buffer.
+	 * @return long quantity
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	public EventType getType() {
+		return types[current];
+	}
+
+	public int getBodyA() {
+		return bodyA[current];
+	}
+
+	public int getBodyB() {
+		return bodyB[current];
+	}
+
+	public float getX() {
+		return xs[current];
+	}
+
+	public float getY() {
+		return ys[current];
+	}
+
+	public float getValue() {
+		return values[current];
+	}
+}
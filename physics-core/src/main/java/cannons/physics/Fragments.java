@@ -0,0 +1,261 @@
+package cannons.physics;
+
+import java.util.SplittableRandom;
+
+/**
+ * Shrapnel of the cannonballs shattering on the terrain. The fragments are
+ * polygon bodies taken from a pool allocated once, simulated with the other
+ * bodies for a limited time and then given back to the pool. Their number
+ * is bounded twice: by the pool (maxFragments) and by the total number of
+ * bodies in the system (maxBodies). The fragments which do not fit, and the
+ * ones far from the view, become sparks instead: points only thrown by the
+ * gravity, which do not collide with anything and are only drawn. However
+ * dramatic the impacts, the cost of the body pairs stays bounded.
+ */
+public final class Fragments
+{
+	/** Size of the pool of fragment bodies. */
+	static final int POOL = 64;
+	/** Maximal number of sparks (the oldest ones are replaced). */
+	public static final int SPARKS = 1024;
+	/** Number of steps during which a spark is drawn. */
+	public static final int SPARK_LIFE = 90;
+
+	/** Random generator of the fragment directions. */
+	private final SplittableRandom random;
+	/** Fragment bodies, and whether each one is in the system. */
+	private final Body[] pool = new Body[POOL];
+	private final boolean[] used = new boolean[POOL];
+	/** Step at which each fragment was thrown. */
+	private final int[] thrown = new int[POOL];
+	/** Number of fragments in the system. */
+	private int live;
+	/** Steps since the start. */
+	private int step;
+	/** Sparks, stored in parallel arrays (remaining life 0 if unused). */
+	private final float[] sparkX = new float[SPARKS], sparkY = new float[SPARKS];
+	private final float[] sparkVX = new float[SPARKS], sparkVY = new float[SPARKS];
+	private final int[] sparkLife = new int[SPARKS];
+	private final boolean[] sparkHuman = new boolean[SPARKS];
+	/** Slot of the next spark. */
+	private int nextSpark;
+
+	/**
+	 * @param random Random generator (shapes and directions of the fragments)
+	 * @param config Physics parameters
+	 */
+	Fragments(SplittableRandom random, PhysicsConfig config)
+	{
+		this.random = random;
+		for (int k = 0; k < POOL; k++) {
+			pool[k] = new Body(new Vec(), 1, false, config, ConvexPolygon.random(random, 4 + k % 3));
+			pool[k].fragmentSlot = k;
+		}
+	}
+
+	/**
+	 * Number of fragments in the system.
+	 * @return int quantity
+	 */
+	public int getLiveFragments() {
+		return live;
+	}
+
+	/**
+	 * Number of sparks being drawn.
+	 * @return int quantity
+	 */
+	public int getSparks()
+	{
+		int n = 0;
+		for (int k = 0; k < SPARKS; k++) {
+			if (sparkLife[k] > 0)
+				++n;
+		}
+		return n;
+	}
+
+	/**
+	 * Throw the fragments of a shattered cannonball. Each one is a body if the
+	 * limits allow it, otherwise a spark.
+	 * @param ball Shattered cannonball (already removed from the system)
+	 * @param vx Horizontal velocity of the ball at the impact
+	 * @param vy Vertical velocity of the ball at the impact
+	 * @param system System receiving the fragment bodies
+	 * @param nearView Whether the impact is close enough to the view for bodies
+	 * @param config Physics parameters
+	 */
+	void shatter(Body ball, float vx, float vy, System system, boolean nearView, PhysicsConfig config)
+	{
+		int n = config.fragmentsPerImpact;
+		float speed = (float) Math.sqrt(vx*vx + vy*vy);
+		int limit = Math.min(POOL, config.maxFragments);
+		for (int j = 0; j < n; j++) {
+			// Thrown upward, in a fan around the impact.
+			float angle = -Constants.PI * (j + 0.2f + 0.6f*random.nextFloat())/n;
+			float dx = (float) StrictMath.cos(angle), dy = (float) StrictMath.sin(angle);
+			float s = speed * (0.25f + 0.35f*random.nextFloat());
+			float x = ball.pos.x + dx*ball.rad, y = ball.pos.y + dy*ball.rad;
+			float fvx = dx*s + 0.3f*vx, fvy = dy*s;
+			Body f = null;
+			if (nearView && live < limit && system.getNumberOfBodies() < config.maxBodies)
+				f = obtain();
+			if (f != null) {
+				f.respawn(x, y, fvx, fvy, 0.3f*(random.nextFloat() - 0.5f), 0.35f*ball.mass, ball.human, config);
+				system.addBody(f);
+			} else {
+				addSpark(x, y, fvx, fvy, ball.human);
+			}
+		}
+	}
+
+	private Body obtain()
+	{
+		for (int k = 0; k < POOL; k++) {
+			if (!used[k]) {
+				used[k] = true;
+				thrown[k] = step;
+				++live;
+				return pool[k];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Give a fragment removed from the system back to the pool.
+	 * @param b Fragment body
+	 */
+	void recycle(Body b)
+	{
+		if (b.fragmentSlot >= 0 && used[b.fragmentSlot]) {
+			used[b.fragmentSlot] = false;
+			--live;
+		}
+	}
+
+	/**
+	 * Determine whether a fragment has lived for long enough.
+	 * @param b Fragment body
+	 * @param lifetime Number of steps a fragment lives
+	 * @return True if it should be removed
+	 */
+	boolean isExpired(Body b, int lifetime)
+	{
+		return step - thrown[b.fragmentSlot] > lifetime;
+	}
+
+	/**
+	 * Number of steps since a fragment was thrown.
+	 * @param b Fragment body
+	 * @return Age
+	 */
+	int getAge(Body b)
+	{
+		return step - thrown[b.fragmentSlot];
+	}
+
+	/**
+	 * Take a given fragment from the pool (when restoring a saved state, after clear()).
+	 * @param slot Slot of the fragment
+	 * @param age Number of steps since it was thrown
+	 * @return Fragment body (to be added to the system), or null if the slot is taken
+	 */
+	Body adopt(int slot, int age)
+	{
+		if (slot < 0 || slot >= POOL || used[slot])
+			return null;
+		used[slot] = true;
+		thrown[slot] = step - age;
+		++live;
+		return pool[slot];
+	}
+
+	/**
+	 * Turn a fragment into a spark (it must be removed from the system and recycled).
+	 * @param b Fragment body
+	 */
+	void demote(Body b)
+	{
+		addSpark(b.pos.x, b.pos.y, b.pos.x - b.ppos.x, b.pos.y - b.ppos.y, b.human);
+	}
+
+	private void addSpark(float x, float y, float vx, float vy, boolean human)
+	{
+		int k = nextSpark;
+		nextSpark = (nextSpark + 1) % SPARKS;
+		sparkX[k] = x;
+		sparkY[k] = y;
+		sparkVX[k] = vx;
+		sparkVY[k] = vy;
+		sparkLife[k] = SPARK_LIFE;
+		sparkHuman[k] = human;
+	}
+
+	/**
+	 * Move the sparks by one step.
+	 * @param gravity Gravity (displacement added to the velocity at each step)
+	 */
+	void step(float gravity)
+	{
+		++step;
+		for (int k = 0; k < SPARKS; k++) {
+			if (sparkLife[k] <= 0)
+				continue;
+			--sparkLife[k];
+			sparkVY[k] += gravity;
+			sparkX[k] += sparkVX[k];
+			sparkY[k] += sparkVY[k];
+		}
+	}
+
+	/**
+	 * Forget all the fragments (once the bodies of the system are cleared) and the sparks.
+	 */
+	void clear()
+	{
+		java.util.Arrays.fill(used, false);
+		java.util.Arrays.fill(sparkLife, 0);
+		live = 0;
+	}
+
+	/**
+	 * Obtain the remaining life of a spark.
+	 * @param k Spark slot (0 to SPARKS-1)
+	 * @return Number of steps during which it is still drawn (0 if the slot is unused)
+	 */
+	public int getSparkLife(int k)
+	{
+		return sparkLife[k];
+	}
+
+	/**
+	 * Obtain the horizontal position of a spark.
+	 * @param k Spark slot
+	 * @return x-coord
+	 */
+	public float getSparkX(int k)
+	{
+		return sparkX[k];
+	}
+
+	/**
+	 * Obtain the vertical position of a spark.
+	 * @param k Spark slot
+	 * @return y-coord
+	 */
+	public float getSparkY(int k)
+	{
+		return sparkY[k];
+	}
+
+	/**
+	 * Determine whether a spark comes from a cannonball of the human.
+	 * @param k Spark slot
+	 * @return True for the human, false for the opponent
+	 */
+	public boolean isSparkHuman(int k)
+	{
+		return sparkHuman[k];
+	}
+}
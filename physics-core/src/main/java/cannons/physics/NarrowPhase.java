@@ -0,0 +1,328 @@
+package cannons.physics;
+
+/**
+ * Narrow phase between two bodies of any shape. The bounding circles (the
+ * body radii) are compared first, as for the circles alone; the exact test
+ * is then picked from a table by the shape types of the two bodies:
+ * circle/circle, circle/polygon (closest feature) and polygon/polygon
+ * (separating axis test on the edge normals of both polygons, the incident
+ * edge being clipped by the reference one into up to two contact points).
+ * The result of the last test (normal, penetration and contact points) is
+ * kept in the instance, which also holds the scratch arrays of the tests:
+ * each user owns its own instance.
+ */
+public final class NarrowPhase
+{
+	/** Shape types, indices of the test table. */
+	static final int CIRCLE = 0, POLYGON = 1;
+
+	/** Exact test between two shapes. */
+	private interface Test
+	{
+		/**
+		 * @param n Narrow phase receiving the result
+		 * @param b1 First body
+		 * @param b2 Second body
+		 * @return True if the bodies touch
+		 */
+		boolean test(NarrowPhase n, Body b1, Body b2);
+	}
+
+	/** Tests by shape types of the first and second bodies. */
+	private static final Test[][] tests = {
+		{ new Test() { public boolean test(NarrowPhase n, Body b1, Body b2) { return n.circleCircle(b1, b2); } },
+		  new Test() { public boolean test(NarrowPhase n, Body b1, Body b2) { return n.circlePolygon(b1, b2, 1); } } },
+		{ new Test() { public boolean test(NarrowPhase n, Body b1, Body b2) { return n.circlePolygon(b2, b1, -1); } },
+		  new Test() { public boolean test(NarrowPhase n, Body b1, Body b2) { return n.polygonPolygon(b1, b2); } } },
+	};
+
+	/** Unit normal from the second body to the first one. */
+	float nx, ny;
+	/** Largest penetration depth (0 if the bodies only touch). */
+	float penetration;
+	/** Number of contact points (1 or 2). */
+	int points;
+	/** Contact points and their penetration depths. */
+	final float[] contactX = new float[2], contactY = new float[2], depth = new float[2];
+	/** Offset and distance between the centers, found by the bounding circle test. */
+	private float dx, dy, separation;
+	/** World vertices of the two polygons being tested. */
+	private final float[] x1 = new float[ConvexPolygon.MAX_VERTICES], y1 = new float[ConvexPolygon.MAX_VERTICES];
+	private final float[] x2 = new float[ConvexPolygon.MAX_VERTICES], y2 = new float[ConvexPolygon.MAX_VERTICES];
+	/** Lever arms and depths left of the contact points being separated. */
+	private final float[] rn1 = new float[2], rn2 = new float[2], remaining = new float[2];
+	/** Scratch normals of the polygons being tested. */
+	private final float[] nx1 = new float[ConvexPolygon.MAX_VERTICES], ny1 = new float[ConvexPolygon.MAX_VERTICES];
+	private final float[] nx2 = new float[ConvexPolygon.MAX_VERTICES], ny2 = new float[ConvexPolygon.MAX_VERTICES];
+
+	/**
+	 * Test two bodies.
+	 * @param b1 First body
+	 * @param b2 Second body
+	 * @return True if the bodies touch or overlap (the result is then set)
+	 */
+	public boolean collide(Body b1, Body b2)
+	{
+		dx = b1.pos.x - b2.pos.x;
+		dy = b1.pos.y - b2.pos.y;
+		separation = (float) Math.sqrt(dx*dx + dy*dy);
+		if (separation > b1.minSeparation(b2))
+			return false;
+		return tests[b1.getShapeType()][b2.getShapeType()].test(this, b1, b2);
+	}
+
+	private boolean circleCircle(Body b1, Body b2)
+	{
+		if (separation == 0)
+			return false;
+		penetration = b1.minSeparation(b2) - separation;
+		nx = dx/separation;
+		ny = dy/separation;
+		setPoint(b2.pos.x + nx*b2.rad, b2.pos.y + ny*b2.rad);
+		return true;
+	}
+
+	/**
+	 * Closest feature test between a circle and a polygon.
+	 * @param circle Circle body
+	 * @param polygon Polygon body
+	 * @param sign 1 if the circle is the first body, -1 otherwise
+	 * @return True if they touch
+	 */
+	private boolean circlePolygon(Body circle, Body polygon, float sign)
+	{
+		int size = polygon.getVertices(x2, y2, nx2, ny2);
+		float cx = circle.pos.x, cy = circle.pos.y, r = circle.rad;
+		// Edge with the largest separation from the center.
+		float maxSeparation = Float.NEGATIVE_INFINITY;
+		int edge = 0;
+		for (int k = 0; k < size; k++) {
+			float s = nx2[k]*(cx - x2[k]) + ny2[k]*(cy - y2[k]);
+			if (s > maxSeparation) {
+				maxSeparation = s;
+				edge = k;
+			}
+		}
+		if (maxSeparation > r)
+			return false;
+		if (maxSeparation <= 0) {
+			// Center inside the polygon: pushed out through the closest edge.
+			nx = sign*nx2[edge];
+			ny = sign*ny2[edge];
+			penetration = r - maxSeparation;
+			setPoint(cx - nx2[edge]*maxSeparation, cy - ny2[edge]*maxSeparation);
+			return true;
+		}
+		// Closest point of the edge (or of one of its vertices).
+		int next = (edge+1) % size;
+		float ex = x2[next] - x2[edge], ey = y2[next] - y2[edge];
+		float t = ((cx - x2[edge])*ex + (cy - y2[edge])*ey)/(ex*ex + ey*ey);
+		t = Math.max(0, Math.min(1, t));
+		float qx = x2[edge] + t*ex, qy = y2[edge] + t*ey;
+		float ddx = cx - qx, ddy = cy - qy;
+		float distance = (float) Math.sqrt(ddx*ddx + ddy*ddy);
+		if (distance > r || distance == 0)
+			return false;
+		nx = sign*ddx/distance;
+		ny = sign*ddy/distance;
+		penetration = r - distance;
+		setPoint(qx, qy);
+		return true;
+	}
+
+	/** Set a single contact point, with the penetration depth. */
+	private void setPoint(float x, float y)
+	{
+		points = 1;
+		contactX[0] = x;
+		contactY[0] = y;
+		depth[0] = penetration;
+	}
+
+	/**
+	 * Separating axis test between two polygons. The axis of least
+	 * penetration among the edge normals of both polygons gives the normal
+	 * and the reference edge; the edge of the other polygon facing it the
+	 * most is clipped by the sides of the reference edge, and the ends of the
+	 * clipped edge beyond the reference edge are the contact points.
+	 * @param b1 First polygon body
+	 * @param b2 Second polygon body
+	 * @return True if they touch
+	 */
+	private boolean polygonPolygon(Body b1, Body b2)
+	{
+		int size1 = b1.getVertices(x1, y1, nx1, ny1);
+		int size2 = b2.getVertices(x2, y2, nx2, ny2);
+		int edge1 = maxSeparationEdge(x1, y1, nx1, ny1, size1, x2, y2, size2);
+		float separation1 = edgeSeparation(x1, y1, nx1, ny1, edge1, x2, y2, size2);
+		if (separation1 > 0)
+			return false;
+		int edge2 = maxSeparationEdge(x2, y2, nx2, ny2, size2, x1, y1, size1);
+		float separation2 = edgeSeparation(x2, y2, nx2, ny2, edge2, x1, y1, size1);
+		if (separation2 > 0)
+			return false;
+		if (separation2 > separation1) {
+			// Reference edge on the second polygon: its normal points toward the first one.
+			nx = nx2[edge2];
+			ny = ny2[edge2];
+			setContacts(x2, y2, nx2, ny2, size2, edge2, x1, y1, nx1, ny1, size1);
+		} else {
+			nx = -nx1[edge1];
+			ny = -ny1[edge1];
+			setContacts(x1, y1, nx1, ny1, size1, edge1, x2, y2, nx2, ny2, size2);
+		}
+		return true;
+	}
+
+	/**
+	 * Find the edge of a polygon along which another polygon is the farthest.
+	 * @return Edge index
+	 */
+	private static int maxSeparationEdge(float[] xa, float[] ya, float[] nxa, float[] nya, int sizeA,
+			float[] xb, float[] yb, int sizeB)
+	{
+		int best = 0;
+		float bestSeparation = Float.NEGATIVE_INFINITY;
+		for (int k = 0; k < sizeA; k++) {
+			float s = edgeSeparation(xa, ya, nxa, nya, k, xb, yb, sizeB);
+			if (s > bestSeparation) {
+				bestSeparation = s;
+				best = k;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Separation of a polygon from an edge of another one (negative if it overlaps).
+	 * @return Smallest distance of the vertices along the edge normal
+	 */
+	private static float edgeSeparation(float[] xa, float[] ya, float[] nxa, float[] nya, int edge,
+			float[] xb, float[] yb, int sizeB)
+	{
+		float min = Float.POSITIVE_INFINITY;
+		for (int j = 0; j < sizeB; j++) {
+			min = Math.min(min, nxa[edge]*(xb[j] - xa[edge]) + nya[edge]*(yb[j] - ya[edge]));
+		}
+		return min;
+	}
+
+	/**
+	 * Find the contact points of two overlapping polygons.
+	 * @param xa Vertices of the reference polygon (x)
+	 * @param ya Vertices of the reference polygon (y)
+	 * @param nxa Normals of the reference polygon (x)
+	 * @param nya Normals of the reference polygon (y)
+	 * @param sizeA Number of vertices of the reference polygon
+	 * @param edge Reference edge
+	 * @param xb Vertices of the incident polygon (x)
+	 * @param yb Vertices of the incident polygon (y)
+	 * @param nxb Normals of the incident polygon (x)
+	 * @param nyb Normals of the incident polygon (y)
+	 * @param sizeB Number of vertices of the incident polygon
+	 */
+	private void setContacts(float[] xa, float[] ya, float[] nxa, float[] nya, int sizeA, int edge,
+			float[] xb, float[] yb, float[] nxb, float[] nyb, int sizeB)
+	{
+		float refX = nxa[edge], refY = nya[edge];
+		// Incident edge: the most opposed to the reference normal.
+		int incident = 0;
+		float minDot = Float.POSITIVE_INFINITY;
+		for (int k = 0; k < sizeB; k++) {
+			float d = nxb[k]*refX + nyb[k]*refY;
+			if (d < minDot) {
+				minDot = d;
+				incident = k;
+			}
+		}
+		int next = (incident+1) % sizeB;
+		float px0 = xb[incident], py0 = yb[incident], px1 = xb[next], py1 = yb[next];
+		// Clip it between the sides of the reference edge.
+		int end = (edge+1) % sizeA;
+		float tx = xa[end] - xa[edge], ty = ya[end] - ya[edge];
+		float low = tx*xa[edge] + ty*ya[edge], high = tx*xa[end] + ty*ya[end];
+		float s0 = tx*px0 + ty*py0, s1 = tx*px1 + ty*py1;
+		if (s0 != s1) {
+			float t0 = Math.max(0, Math.min(1, ((s0 < s1) ? low - s0 : s0 - high)/Math.abs(s1 - s0)));
+			float t1 = Math.max(0, Math.min(1, ((s0 < s1) ? s1 - high : low - s1)/Math.abs(s1 - s0)));
+			float ex = px1 - px0, ey = py1 - py0;
+			px1 = px0 + (1 - t1)*ex;
+			py1 = py0 + (1 - t1)*ey;
+			px0 += t0*ex;
+			py0 += t0*ey;
+		}
+		points = 0;
+		penetration = 0;
+		addPoint(px0, py0, -(refX*(px0 - xa[edge]) + refY*(py0 - ya[edge])));
+		addPoint(px1, py1, -(refX*(px1 - xa[edge]) + refY*(py1 - ya[edge])));
+		if (points == 0) {
+			// Only a vertex of the incident edge crosses (rounding): the deepest one.
+			float d0 = -(refX*(xb[incident] - xa[edge]) + refY*(yb[incident] - ya[edge]));
+			float d1 = -(refX*(xb[next] - xa[edge]) + refY*(yb[next] - ya[edge]));
+			if (d0 > d1)
+				addPoint(xb[incident], yb[incident], Math.max(0, d0));
+			else
+				addPoint(xb[next], yb[next], Math.max(0, d1));
+		}
+	}
+
+	private void addPoint(float x, float y, float d)
+	{
+		if (!(d >= 0))
+			return;
+		contactX[points] = x;
+		contactY[points] = y;
+		depth[points] = d;
+		++points;
+		penetration = Math.max(penetration, d);
+	}
+
+	/**
+	 * Move the two bodies of the last test apart along its normal. Between two
+	 * circles, the displacement is split by mass (or halved), as before the
+	 * polygons. With a polygon, the correction of each contact point is split
+	 * between the translations and the rotations of the bodies by their
+	 * inverse masses and inertias at that point.
+	 * @param b1 First body
+	 * @param b2 Second body
+	 * @param length Total displacement (the deepest point is moved by this length)
+	 * @param preservingMomentum True to split the displacement by mass (otherwise halved)
+	 */
+	public void separate(Body b1, Body b2, float length, boolean preservingMomentum)
+	{
+		if (b1.polygon == null && b2.polygon == null) {
+			float M = b1.mass + b2.mass;
+			float l1 = (preservingMomentum) ? b2.mass/M * length : 0.5f * length;
+			float l2 = (preservingMomentum) ? b1.mass/M * length : 0.5f * length;
+			b1.pos.x += nx * l1;
+			b1.pos.y += ny * l1;
+			b2.pos.x -= nx * l2;
+			b2.pos.y -= ny * l2;
+			return;
+		}
+		float m1 = (preservingMomentum) ? b1.mass : 1, m2 = (preservingMomentum) ? b2.mass : 1;
+		float i1 = (b1.polygon != null) ? m1*b1.getInertia() : Float.POSITIVE_INFINITY;
+		float i2 = (b2.polygon != null) ? m2*b2.getInertia() : Float.POSITIVE_INFINITY;
+		// Lever arms of the contact points along the normal.
+		for (int k = 0; k < points; k++) {
+			rn1[k] = (contactX[k] - b1.pos.x)*ny - (contactY[k] - b1.pos.y)*nx;
+			rn2[k] = (contactX[k] - b2.pos.x)*ny - (contactY[k] - b2.pos.y)*nx;
+			remaining[k] = depth[k] * ((penetration > 0) ? length/penetration : 1);
+		}
+		// The points are solved in turn, each one lowering the depth left at the other.
+		for (int k = 0; k < points; k++) {
+			if (remaining[k] <= 0)
+				continue;
+			float lambda = remaining[k]/(1/m1 + rn1[k]*rn1[k]/i1 + 1/m2 + rn2[k]*rn2[k]/i2);
+			b1.pos.x += nx * lambda/m1;
+			b1.pos.y += ny * lambda/m1;
+			b2.pos.x -= nx * lambda/m2;
+			b2.pos.y -= ny * lambda/m2;
+			b1.angle += rn1[k]/i1 * lambda;
+			b2.angle -= rn2[k]/i2 * lambda;
+			for (int l = k+1; l < points; l++) {
+				remaining[l] -= lambda*(1/m1 + rn1[k]*rn1[l]/i1 + 1/m2 + rn2[k]*rn2[l]/i2);
+			}
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package cannons.physics;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Seeded 1D and 3D noise with several octaves, equivalent in spirit to PApplet.noise()
+ * with noiseDetail(octaves, falloff). Unlike PApplet's, it does not rely on
+ * any global state nor on a display, so the same terrain can be generated
+ * from the same seed on a headless server and on every client.
+ * Instances are immutable once created (and therefore thread-safe), apart
+ * from the count of the batches evaluated in parallel.
+ */
+public final class Noise
+{
+	/** Number of lattice values (power of two). */
+	private static final int SIZE = 4096;
+	/** Random lattice values in [0, 1). */
+	private final float[] lattice;
+	/** Number of octaves. */
+	private final int octaves;
+	/** Amplitude falloff between two octaves. */
+	private final float falloff;
+	/**
+	 * Minimal number of positions of a batch for its octaves to be evaluated
+	 * in parallel: the largest terrain chunk (the prefetched chunks are
+	 * evaluated together, as a single batch).
+	 */
+	static final int PARALLEL_BATCH = 512;
+	/** Number of steps of the fade table. */
+	private static final int FADE_STEPS = 512;
+	/** Cosine fade curve, tabulated for the 3D noise (as PApplet does). */
+	private static final float[] FADE = new float[FADE_STEPS + 1];
+	/** Number of batches whose octaves were evaluated in parallel. */
+	private final AtomicInteger forkedBatches = new AtomicInteger();
+	static {
+		for (int i = 0; i <= FADE_STEPS; i++) {
+			FADE[i] = 0.5f * (1.0f - (float) StrictMath.cos(Math.PI * i / FADE_STEPS));
+		}
+	}
+
+	Noise(long seed, int octaves, float falloff)
+	{
+		this.octaves = octaves;
+		this.falloff = falloff;
+		this.lattice = new float[SIZE];
+		SplittableRandom random = new SplittableRandom(seed);
+		for (int i = 0; i < SIZE; i++) {
+			lattice[i] = random.nextFloat();
+		}
+	}
+
+	/**
+	 * Noise value at a position.
+	 * @param x Position (should be positive)
+	 * @return Value roughly in [0, 1)
+	 */
+	public float noise(float x)
+	{
+		float sum = 0;
+		float amplitude = 0.5f;
+		for (int o = 0; o < octaves; o++) {
+			sum += amplitude * octave(x);
+			amplitude *= falloff;
+			x *= 2;
+		}
+		return sum;
+	}
+
+	/**
+	 * Noise values at a batch of positions, equal to noise(x) at each of them.
+	 * Large batches have their octaves evaluated in parallel, each one into
+	 * its own array, and summed afterwards in the same order as noise(x).
+	 * @param xs Positions (should be positive)
+	 * @param out Array receiving the values (may be xs itself)
+	 * @param n Number of positions
+	 * @param pool Pool evaluating the octaves
+	 */
+	public void noise(float[] xs, float[] out, int n, ForkJoinPool pool)
+	{
+		if (n < PARALLEL_BATCH || octaves < 2) {
+			for (int k = 0; k < n; k++) {
+				out[k] = noise(xs[k]);
+			}
+			return;
+		}
+		Octave[] tasks = new Octave[octaves];
+		float amplitude = 0.5f, scale = 1;
+		for (int o = 0; o < octaves; o++) {
+			tasks[o] = new Octave(xs, n, amplitude, scale);
+			amplitude *= falloff;
+			scale *= 2;
+		}
+		pool.invoke(new Batch(tasks));
+		forkedBatches.incrementAndGet();
+		for (int k = 0; k < n; k++) {
+			float sum = 0;
+			for (int o = 0; o < octaves; o++) {
+				sum += tasks[o].values[k];
+			}
+			out[k] = sum;
+		}
+	}
+
+	/**
+	 * Number of batches whose octaves were evaluated in parallel.
+	 * @return int quantity
+	 */
+	public int getForkedBatches()
+	{
+		return forkedBatches.get();
+	}
+
+	/**
+	 * Noise value at a position in 3D (e.g. a 2D field animated along z).
+	 * @param x Horizontal position (should be positive)
+	 * @param y Vertical position (should be positive)
+	 * @param z Depth or time (should be positive)
+	 * @return Value roughly in [0, 1)
+	 */
+	public float noise(float x, float y, float z)
+	{
+		float sum = 0;
+		float amplitude = 0.5f;
+		for (int o = 0; o < octaves; o++) {
+			sum += amplitude * octave(x, y, z);
+			amplitude *= falloff;
+			x *= 2;
+			y *= 2;
+			z *= 2;
+		}
+		return sum;
+	}
+
+	/**
+	 * Single octave in 3D: cosine interpolation between the eight lattice
+	 * values around the position (the lattice wraps along y every 16 values
+	 * and along z every 256, as in PApplet.noise()).
+	 * @param x Horizontal position
+	 * @param y Vertical position
+	 * @param z Depth
+	 * @return Value in [0, 1)
+	 */
+	private float octave(float x, float y, float z)
+	{
+		int xi = (int) Math.floor(x), yi = (int) Math.floor(y), zi = (int) Math.floor(z);
+		float tx = fade(x - xi), ty = fade(y - yi), tz = fade(z - zi);
+		int i = xi + (yi << 4) + (zi << 8);
+		float a = lerp(lattice(i), lattice(i + 1), tx);
+		float b = lerp(lattice(i + 16), lattice(i + 17), tx);
+		float c = lerp(lattice(i + 256), lattice(i + 257), tx);
+		float d = lerp(lattice(i + 272), lattice(i + 273), tx);
+		return lerp(lerp(a, b, ty), lerp(c, d, ty), tz);
+	}
+
+	private float lattice(int i)
+	{
+		return lattice[i & (SIZE - 1)];
+	}
+
+	private static float fade(float f)
+	{
+		return FADE[(int) (f * FADE_STEPS)];
+	}
+
+	private static float lerp(float a, float b, float t)
+	{
+		return a + t * (b - a);
+	}
+
+	/**
+	 * Single octave: cosine interpolation between two lattice values.
+	 * @param x Position
+	 * @return Value in [0, 1)
+	 */
+	private float octave(float x)
+	{
+		int i = (int) Math.floor(x);
+		float f = x - i;
+		float a = lattice[i & (SIZE - 1)];
+		float b = lattice[(i + 1) & (SIZE - 1)];
+		float t = 0.5f * (1.0f - (float) StrictMath.cos(f * Math.PI));
+		return a + t * (b - a);
+	}
+
+	/**
+	 * Evaluation of the octaves of a batch, one task per octave.
+	 */
+	private static final class Batch extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final Octave[] tasks;
+
+		Batch(Octave[] tasks)
+		{
+			this.tasks = tasks;
+		}
+
+		protected void compute()
+		{
+			invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Weighted values of a single octave over a batch of positions.
+	 */
+	private final class Octave extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final float[] xs;
+		private final float amplitude, scale;
+		/** Amplitude times the octave at each position. */
+		final float[] values;
+
+		Octave(float[] xs, int n, float amplitude, float scale)
+		{
+			this.xs = xs;
+			this.amplitude = amplitude;
+			this.scale = scale;
+			this.values = new float[n];
+		}
+
+		protected void compute()
+		{
+			for (int k = 0; k < values.length; k++) {
+				values[k] = amplitude * octave(xs[k] * scale);
+			}
+		}
+	}
+}
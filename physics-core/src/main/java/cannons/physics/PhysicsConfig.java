@@ -0,0 +1,152 @@
+package cannons.physics;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Immutable snapshot of the tunable physics parameters.
+ * A new snapshot is created each time the configuration file changes and is
+ * swapped in between two simulation steps, so the solver only ever reads
+ * plain final fields.
+ */
+public final class PhysicsConfig
+{
+	/** Velocity damping applied by the collision responses. */
+	public final float damping;
+	/** Magnitude of the gravity force. */
+	public final float gravityFactor;
+	/** Maximal magnitude of the lateral wind force. */
+	public final float maxWindForceMagnitude;
+	/** Side of the cells of the wind field. */
+	public final float windCellSize;
+	/** Amplitude of the wind gusts, relative to the global wind. */
+	public final float windGust;
+	/** Height above the ground over which the wind builds up. */
+	public final float windAltitudeScale;
+	/** Distance downwind of a ridge sheltered from the wind. */
+	public final float windShadowLength;
+	/** Fraction of the wind left in the shelter of a ridge. */
+	public final float windShadowFactor;
+	/** Ratio between the mass and the radius of a body. */
+	public final float massToRadiusRatio;
+	/** Maximal force of the cannons. */
+	public final float cannonMaxForce;
+	/** Number of dust particles. */
+	public final int dustParticles;
+	/** Scale of the noise field moving the dust particles. */
+	public final float dustNoiseScale;
+	/** Magnitude of the noise force acting on the dust particles. */
+	public final float dustNoiseForce;
+	/** Drag slowing down the dust particles. */
+	public final float dustDrag;
+	/** Amplification of the wind force on the dust particles. */
+	public final float dustWindFactor;
+	/** Crater half-width relative to the impacting body radius. */
+	public final float craterRadiusFactor;
+	/** Crater depth relative to the impacting body radius. */
+	public final float craterDepthFactor;
+	/** Displacement per step under which a body is considered at rest. */
+	public final float sleepVelocity;
+	/** Number of steps at rest before a body is put to sleep. */
+	public final int sleepSteps;
+	/** Maximal number of iterations of the position solver per step. */
+	public final int solverIterations;
+	/** Penetration under which the position solver stops iterating. */
+	public final float solverTolerance;
+	/** Fraction of the previous step's contact corrections applied before iterating. */
+	public final float warmStartFactor;
+	/** Displacement per step, relative to the radius, above which a body is swept in substeps. */
+	public final float substepFraction;
+	/** Maximal number of substeps of a fast body. */
+	public final int maxSubsteps;
+	/** Skin distance of the neighbour lists of the broad phase. */
+	public final float neighbourSkin;
+	/** Fraction of the sliding of a polygon vertex on the terrain removed by each correction. */
+	public final float polygonFriction;
+	/** Impact speed on the terrain above which a cannonball shatters. */
+	public final float fragmentSpeed;
+	/** Number of fragments of a shattered cannonball (0 disables the shattering). */
+	public final int fragmentsPerImpact;
+	/** Maximal number of fragment bodies (at most Fragments.POOL). */
+	public final int maxFragments;
+	/** Number of bodies above which the new fragments are only sparks. */
+	public final int maxBodies;
+	/** Number of steps a fragment body lives. */
+	public final int fragmentLifetime;
+	/** Distance beyond the edges of the view after which a fragment becomes a spark. */
+	public final float fragmentDistance;
+	/** Width of a terrain segment (applied to the next terrain). */
+	public final int terrainSegmentWidth;
+
+	/** Default parameters. */
+	public static final PhysicsConfig DEFAULT = new PhysicsConfig(new Properties());
+
+	/**
+	 * Create a snapshot from a set of properties. Missing properties take their default value.
+	 * @param props Properties (keys are the field names)
+	 * @throws NumberFormatException If a value is not a valid number
+	 */
+	public PhysicsConfig(Properties props)
+	{
+		damping = getFloat(props, "damping", 0.98f);
+		gravityFactor = getFloat(props, "gravityFactor", 0.4f);
+		maxWindForceMagnitude = getFloat(props, "maxWindForceMagnitude", 0.1f);
+		windCellSize = getFloat(props, "windCellSize", 32.0f);
+		windGust = getFloat(props, "windGust", 0.5f);
+		windAltitudeScale = getFloat(props, "windAltitudeScale", 60.0f);
+		windShadowLength = getFloat(props, "windShadowLength", 240.0f);
+		windShadowFactor = getFloat(props, "windShadowFactor", 0.3f);
+		massToRadiusRatio = getFloat(props, "massToRadiusRatio", 11.0f);
+		cannonMaxForce = getFloat(props, "cannonMaxForce", 60.0f);
+		dustParticles = Math.max(0, (int) getFloat(props, "dustParticles", 40));
+		dustNoiseScale = getFloat(props, "dustNoiseScale", 0.01f);
+		dustNoiseForce = getFloat(props, "dustNoiseForce", 0.1f);
+		dustDrag = getFloat(props, "dustDrag", 0.025f);
+		dustWindFactor = getFloat(props, "dustWindFactor", 1.8f);
+		craterRadiusFactor = getFloat(props, "craterRadiusFactor", 2.5f);
+		craterDepthFactor = getFloat(props, "craterDepthFactor", 0.8f);
+		sleepVelocity = getFloat(props, "sleepVelocity", 0.1f);
+		sleepSteps = (int) getFloat(props, "sleepSteps", 45);
+		solverIterations = Math.max(1, (int) getFloat(props, "solverIterations", 4));
+		solverTolerance = getFloat(props, "solverTolerance", 0.05f);
+		warmStartFactor = getFloat(props, "warmStartFactor", 0.8f);
+		substepFraction = getFloat(props, "substepFraction", 0.5f);
+		maxSubsteps = Math.max(1, (int) getFloat(props, "maxSubsteps", 8));
+		neighbourSkin = getFloat(props, "neighbourSkin", 3.0f);
+		polygonFriction = getFloat(props, "polygonFriction", 0.3f);
+		fragmentSpeed = getFloat(props, "fragmentSpeed", 6.0f);
+		fragmentsPerImpact = Math.max(0, (int) getFloat(props, "fragmentsPerImpact", 5));
+		maxFragments = Math.max(0, (int) getFloat(props, "maxFragments", 48));
+		maxBodies = Math.max(0, (int) getFloat(props, "maxBodies", 600));
+		fragmentLifetime = Math.max(1, (int) getFloat(props, "fragmentLifetime", 600));
+		fragmentDistance = getFloat(props, "fragmentDistance", 400.0f);
+		terrainSegmentWidth = Math.max(1, (int) getFloat(props, "terrainSegmentWidth", 4));
+	}
+
+	private static float getFloat(Properties props, String key, float defaultValue)
+	{
+		String value = props.getProperty(key);
+		return (value == null) ? defaultValue : Float.parseFloat(value.trim());
+	}
+
+	/**
+	 * Load a snapshot from a properties file.
+	 * @param path Path of the file
+	 * @return New configuration
+	 * @throws IOException If the file cannot be read
+	 * @throws NumberFormatException If a value is not a valid number
+	 */
+	public static PhysicsConfig load(String path) throws IOException
+	{
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(path);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		return new PhysicsConfig(props);
+	}
+}
@@ -0,0 +1,84 @@
+package cannons.physics;
+
+import java.util.SplittableRandom;
+
+public class RandomOpponent
+{
+	/** Number of simulation ticks between two shots (2 seconds at 60 fps). */
+	static final int shootInterval = 120;
+	/** Random generator for the angle picks. */
+	SplittableRandom random;
+	/** Cannon reference controlled by this opponent. */
+	Cannon cannon;
+	/** Cannon angle variable regularly modified. */
+	float newAngle;
+	/** Boolean indicating whether the opponent shoots. */
+	boolean enabled;
+	/** Ticks elapsed since the last shot. */
+	int ticks;
+	/** Reference to the system of (circular) bodies. */
+	final System systemRef;
+	
+	public RandomOpponent(Cannon cannon, System system, SplittableRandom random) {
+		this.random = random;
+		this.cannon = cannon;
+		this.systemRef = system;
+		this.newAngle = randomAngle();
+	}
+	
+	/**
+	 * Reset the opponent
+	 * @param cannon New cannon reference.
+	 */
+	public void reset(Cannon cannon) {
+		this.cannon = cannon;
+		this.ticks = 0;
+	}
+	
+	/**
+	 * Start the opponent.
+	 */
+	public void enable() {
+		enabled = true;
+	}
+	
+	/**
+	 * Stop the opponent.
+	 */
+	public void disable() {
+		enabled = false;
+	}
+	
+	private float randomAngle() {
+		return 0.75f*Constants.HALF_PI*random.nextFloat();
+	}
+	
+	/**
+	 * Shoot a cannon-ball.
+	 */
+	private void shoot() {
+		cannon.pickRandomForce();
+		cannon.shoot(systemRef);
+		newAngle = randomAngle();
+	}
+	
+	/**
+	 * Automate the cannon tilt modifications, and shoot at a regular interval.
+	 * It is driven by the simulation ticks (not by the wall clock), so
+	 * that a match can be replayed identically.
+	 */
+	public void step() {
+		float currentAngle = cannon.getAngle();
+		if (currentAngle < newAngle) {
+			cannon.increaseAngle(0.03f);
+			systemRef.setCannonCollisionPosition(cannon.getCollisionCircleCenter(), cannon.isHuman());
+		} else if (currentAngle > newAngle){
+			cannon.decreaseAngle(0.03f);
+			systemRef.setCannonCollisionPosition(cannon.getCollisionCircleCenter(), cannon.isHuman());
+		}
+		if (enabled && ++ticks >= shootInterval) {
+			ticks = 0;
+			shoot();
+		}
+	}
+}
@@ -0,0 +1,400 @@
+package cannons.physics;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Rolling history of the last ticks of the simulation, to scrub through
+ * them, resume the simulation from one of them, or replay them.
+ * Each tick is saved as a frame encoded against the previous one: every
+ * field of a body is XORed (floats, bit for bit) or subtracted (integers)
+ * with the same field of the same body at the previous tick, and written as
+ * a variable-length integer, so that a body at rest takes a byte per field.
+ * Every KEYFRAME_INTERVAL ticks a keyframe is encoded against nothing. A tick
+ * is decoded from the keyframe before it. The frames are stored one after the
+ * other in a ring of bytes allocated once, so the memory is bounded both by
+ * the number of frames and by their total size: when either is exhausted,
+ * the oldest keyframe and its frames are dropped.
+ * Recording does not allocate once the states have grown to the number of bodies.
+ */
+public final class RewindBuffer
+{
+	/** Number of ticks between two keyframes. */
+	static final int KEYFRAME_INTERVAL = 30;
+
+	/** Maximal number of frames. */
+	private final int capacity;
+	/** Encoded frames, one after the other (wrapping around). */
+	private final byte[] data;
+	/** Offsets, lengths, ticks and kinds of the frames (ring indexed by frame number % capacity). */
+	private final int[] offsets, lengths, ticks;
+	private final boolean[] keyframes;
+	/** Frame numbers of the oldest frame and of the next one recorded. */
+	private long firstFrame, endFrame;
+	/** Total size of the encoded frames. */
+	private long bytes;
+	/** Frames recorded since the last keyframe, and whether the next one must be a keyframe. */
+	private int sinceKeyframe;
+	private boolean forceKeyframe = true;
+
+	/** State being recorded, and state of the last recorded frame (the reference of the next one). */
+	private WorldState current = new WorldState(), last = new WorldState();
+	/** Last decoded state and the frame it belongs to (-1 if none), and a scratch state. */
+	private WorldState decoded = new WorldState(), scratch = new WorldState();
+	private long decodedFrame = -1;
+	/** Encoding buffer. */
+	private byte[] buffer = new byte[4096];
+	private int position;
+	/** Shapes of the polygon bodies, encoded by their rank. */
+	private final ArrayList<ConvexPolygon> shapes = new ArrayList<ConvexPolygon>();
+	private final IdentityHashMap<ConvexPolygon, Integer> shapeIds = new IdentityHashMap<ConvexPolygon, Integer>();
+
+	/**
+	 * @param capacity Maximal number of frames (ticks)
+	 * @param maxBytes Total size of the encoded frames
+	 */
+	public RewindBuffer(int capacity, int maxBytes)
+	{
+		this.capacity = capacity;
+		this.data = new byte[maxBytes];
+		this.offsets = new int[capacity];
+		this.lengths = new int[capacity];
+		this.ticks = new int[capacity];
+		this.keyframes = new boolean[capacity];
+	}
+
+	/**
+	 * Record the state of the system after a tick.
+	 * @param tick Tick number (one more than the last recorded one)
+	 * @param system System which has just been stepped
+	 * @param terrain Terrain being simulated
+	 */
+	public void record(int tick, System system, Terrain terrain)
+	{
+		system.saveState(current, tick, terrain);
+		boolean keyframe = forceKeyframe || sinceKeyframe >= KEYFRAME_INTERVAL - 1;
+		encode(current, keyframe ? null : last);
+		int offset = allocate(position);
+		if (!keyframe && isEmpty()) {
+			// Its keyframe was dropped to make room.
+			keyframe = true;
+			encode(current, null);
+			offset = allocate(position);
+		}
+		if (offset < 0) {
+			// Larger than the whole buffer: not recorded.
+			forceKeyframe = true;
+			return;
+		}
+		int slot = (int) (endFrame % capacity);
+		java.lang.System.arraycopy(buffer, 0, data, offset, position);
+		offsets[slot] = offset;
+		lengths[slot] = position;
+		ticks[slot] = tick;
+		keyframes[slot] = keyframe;
+		bytes += position;
+		++endFrame;
+		sinceKeyframe = keyframe ? 0 : sinceKeyframe + 1;
+		forceKeyframe = false;
+		WorldState swap = last;
+		last = current;
+		current = swap;
+	}
+
+	/**
+	 * Find room for a frame after the newest one, dropping the oldest frames
+	 * as needed (a frame never wraps around the end of the data).
+	 * @param length Size of the frame
+	 * @return Offset of the frame, or -1 if it is larger than the whole buffer
+	 */
+	private int allocate(int length)
+	{
+		if (length > data.length)
+			return -1;
+		if (endFrame - firstFrame >= capacity)
+			dropOldest();
+		while (!isEmpty()) {
+			int newest = (int) ((endFrame - 1) % capacity);
+			int head = offsets[(int) (firstFrame % capacity)], tail = offsets[newest] + lengths[newest];
+			if (tail > head) {
+				// Free space after the newest frame, and before the oldest one.
+				if (tail + length <= data.length)
+					return tail;
+				if (length <= head)
+					return 0;
+			} else if (tail + length <= head) {
+				// Wrapped around: free space between the newest and the oldest frames.
+				return tail;
+			}
+			dropOldest();
+		}
+		return 0;
+	}
+
+	/**
+	 * Drop the oldest keyframe and the frames encoded against it.
+	 */
+	private void dropOldest()
+	{
+		do {
+			bytes -= lengths[(int) (firstFrame % capacity)];
+			++firstFrame;
+		} while (firstFrame < endFrame && !keyframes[(int) (firstFrame % capacity)]);
+		if (decodedFrame < firstFrame)
+			decodedFrame = -1;
+	}
+
+	/**
+	 * Forget all the frames (e.g. when a new match starts).
+	 */
+	public void clear()
+	{
+		firstFrame = endFrame = 0;
+		bytes = 0;
+		decodedFrame = -1;
+		forceKeyframe = true;
+		shapes.clear();
+		shapeIds.clear();
+	}
+
+	/**
+	 * Forget the frames after a tick, to resume the simulation from it.
+	 * @param tick Last tick kept
+	 */
+	public void truncateAfter(int tick)
+	{
+		while (endFrame > firstFrame && ticks[(int) ((endFrame - 1) % capacity)] > tick) {
+			--endFrame;
+			bytes -= lengths[(int) (endFrame % capacity)];
+		}
+		if (decodedFrame >= endFrame)
+			decodedFrame = -1;
+		forceKeyframe = true;
+	}
+
+	/**
+	 * Determine whether no frame is recorded.
+	 * @return True if empty
+	 */
+	public boolean isEmpty() {
+		return endFrame == firstFrame;
+	}
+
+	/**
+	 * Oldest recorded tick.
+	 * @return Tick
+	 */
+	public int getFirstTick() {
+		return ticks[(int) (firstFrame % capacity)];
+	}
+
+	/**
+	 * Latest recorded tick.
+	 * @return Tick
+	 */
+	public int getLastTick() {
+		return ticks[(int) ((endFrame - 1) % capacity)];
+	}
+
+	/**
+	 * Total size of the encoded frames.
+	 * @return long quantity
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Decode the state of a recorded tick. The state belongs to the buffer
+	 * and is only valid until the next call.
+	 * @param tick Tick (clamped to the recorded ones)
+	 * @return State of the tick, or null if nothing is recorded
+	 */
+	public WorldState seek(int tick)
+	{
+		if (isEmpty())
+			return null;
+		long target = firstFrame + Math.max(0, Math.min(endFrame - firstFrame - 1, tick - getFirstTick()));
+		while (target > firstFrame && ticks[(int) (target % capacity)] > tick) {
+			--target;
+		}
+		long frame = target;
+		while (!keyframes[(int) (frame % capacity)]) {
+			--frame;
+		}
+		// Carry on from the last decoded frame if it is on the way.
+		if (decodedFrame >= frame && decodedFrame <= target)
+			frame = decodedFrame + 1;
+		else
+			decodedFrame = -1;
+		for (; frame <= target; frame++) {
+			WorldState reference = (decodedFrame >= 0) ? decoded : null;
+			decode(offsets[(int) (frame % capacity)], scratch, reference);
+			WorldState swap = decoded;
+			decoded = scratch;
+			scratch = swap;
+			decodedFrame = frame;
+		}
+		return decoded;
+	}
+
+	/**
+	 * Encode a state into the buffer.
+	 * @param s State
+	 * @param reference State of the previous tick, or null for a keyframe
+	 */
+	private void encode(WorldState s, WorldState reference)
+	{
+		position = 0;
+		ensureRoom(64 + s.size*(5*WorldState.FLOATS + 5*WorldState.INTS + 10));
+		writeVarInt(s.tick);
+		writeVarInt(Float.floatToIntBits(s.shockFactor));
+		writeVarInt(Float.floatToIntBits(s.windTime));
+		writeVarInt(Float.floatToIntBits(s.windForce));
+		writeVarInt(Float.floatToIntBits(s.windDrift));
+		writeVarInt(Float.floatToIntBits(s.gravityAngle));
+		writeVarInt(s.nextBodyId);
+		writeVarInt((s.borderConstraint ? 1 : 0) | (s.cannonCollision ? 2 : 0));
+		writeVarInt(s.terrainEdits);
+		writeVarInt(s.size);
+		int r = 0, previousId = 0;
+		for (int i = 0; i < s.size; i++) {
+			int id = s.ints[i*WorldState.INTS + WorldState.ID];
+			writeVarInt(zigzag(id - previousId));
+			previousId = id;
+			r = find(reference, id, r);
+			boolean match = reference != null && r < reference.size;
+			if (!match)
+				writeVarInt(shapeId(s.polygons[i]) + 1);
+			for (int f = 0; f < WorldState.FLOATS; f++) {
+				int bits = Float.floatToIntBits(s.floats[i*WorldState.FLOATS + f]);
+				writeVarInt(match ? bits ^ Float.floatToIntBits(reference.floats[r*WorldState.FLOATS + f]) : bits);
+			}
+			for (int f = WorldState.FLAGS; f < WorldState.INTS; f++) {
+				int v = s.ints[i*WorldState.INTS + f];
+				writeVarInt(zigzag(match ? v - reference.ints[r*WorldState.INTS + f] : v));
+			}
+		}
+	}
+
+	/**
+	 * Decode a frame.
+	 * @param offset Offset of the encoded frame
+	 * @param s State receiving the decoded frame
+	 * @param reference State of the previous tick, or null for a keyframe
+	 */
+	private void decode(int offset, WorldState s, WorldState reference)
+	{
+		position = offset;
+		s.tick = readVarInt();
+		s.shockFactor = Float.intBitsToFloat(readVarInt());
+		s.windTime = Float.intBitsToFloat(readVarInt());
+		s.windForce = Float.intBitsToFloat(readVarInt());
+		s.windDrift = Float.intBitsToFloat(readVarInt());
+		s.gravityAngle = Float.intBitsToFloat(readVarInt());
+		s.nextBodyId = readVarInt();
+		int flags = readVarInt();
+		s.borderConstraint = (flags & 1) != 0;
+		s.cannonCollision = (flags & 2) != 0;
+		s.terrainEdits = readVarInt();
+		s.size = readVarInt();
+		s.ensureCapacity(s.size);
+		int r = 0, previousId = 0;
+		for (int i = 0; i < s.size; i++) {
+			int id = previousId + unzigzag(readVarInt());
+			previousId = id;
+			s.ints[i*WorldState.INTS + WorldState.ID] = id;
+			r = find(reference, id, r);
+			boolean match = reference != null && r < reference.size;
+			if (match) {
+				s.polygons[i] = reference.polygons[r];
+			} else {
+				int shape = readVarInt() - 1;
+				s.polygons[i] = (shape >= 0) ? shapes.get(shape) : null;
+			}
+			for (int f = 0; f < WorldState.FLOATS; f++) {
+				int bits = readVarInt();
+				s.floats[i*WorldState.FLOATS + f] = Float.intBitsToFloat(
+						match ? bits ^ Float.floatToIntBits(reference.floats[r*WorldState.FLOATS + f]) : bits);
+			}
+			for (int f = WorldState.FLAGS; f < WorldState.INTS; f++) {
+				int v = unzigzag(readVarInt());
+				s.ints[i*WorldState.INTS + f] = match ? v + reference.ints[r*WorldState.INTS + f] : v;
+			}
+		}
+	}
+
+	/**
+	 * Find the row of a body in the previous state. The rows are in
+	 * increasing order of ids, so the search goes on from the last row found.
+	 * @param reference State of the previous tick (may be null)
+	 * @param id Body id
+	 * @param from Row from which to search
+	 * @return Row of the body, or reference.size if it is absent
+	 */
+	private static int find(WorldState reference, int id, int from)
+	{
+		if (reference == null)
+			return 0;
+		if (from >= reference.size || reference.ints[from*WorldState.INTS + WorldState.ID] > id)
+			from = 0;
+		while (from < reference.size && reference.ints[from*WorldState.INTS + WorldState.ID] < id) {
+			++from;
+		}
+		return (from < reference.size && reference.ints[from*WorldState.INTS + WorldState.ID] == id) ? from : reference.size;
+	}
+
+	/**
+	 * Rank of a shape, registering it if it is new.
+	 * @param polygon Shape (null for a circle)
+	 * @return Rank, or -1 for a circle
+	 */
+	private int shapeId(ConvexPolygon polygon)
+	{
+		if (polygon == null)
+			return -1;
+		Integer id = shapeIds.get(polygon);
+		if (id == null) {
+			id = shapes.size();
+			shapes.add(polygon);
+			shapeIds.put(polygon, id);
+		}
+		return id;
+	}
+
+	private void ensureRoom(int n)
+	{
+		if (buffer.length < n)
+			buffer = new byte[Math.max(n, 2*buffer.length)];
+	}
+
+	private static int zigzag(int v)
+	{
+		return (v << 1) ^ (v >> 31);
+	}
+
+	private static int unzigzag(int v)
+	{
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private void writeVarInt(int v)
+	{
+		while ((v & ~0x7F) != 0) {
+			buffer[position++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		buffer[position++] = (byte) v;
+	}
+
+	private int readVarInt()
+	{
+		int v = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = data[position++];
+			v |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return v;
+		}
+	}
+}
@@ -0,0 +1,1300 @@
+package cannons.physics;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import cannons.telemetry.FrameProfiler;
+// Used as a reference for verlet collision response between circles
+// http://codeflow.org/entries/2010/nov/29/verlet-collision-with-impulse-preservation/
+public final class System
+{
+	/** List of bodies used for collision. */
+	private ArrayList<Body> bodies;
+	/** Dust particles moving from the wind force (decorative). */
+	private DustField dust;
+	/** Fraction of the configured dust particles kept (lowered under load). */
+	private float dustFraction = 1;
+	/** Gravity force acting downward on bodies. */
+	private Vec gravity;
+	/** Angle of the gravity force. */
+	private float gravityAngle;
+	/** Current physics parameters, only replaced between two steps. */
+	private PhysicsConfig config;
+	/** Time-varying wind force acting laterally on bodies. */
+	private WindForce wind;
+	/** Wind force over the world, sampled at the body positions. */
+	private WindField windField;
+	/** Scratch vector receiving the wind samples. */
+	private final Vec windSample = new Vec();
+	/** Left edge of the view in world coordinates (where the dust is), and its width (unbounded if headless). */
+	private float viewX, viewWidth = Float.POSITIVE_INFINITY;
+	/** Pool of the fragments of the shattered cannonballs, and their sparks. */
+	private Fragments fragments;
+	/** Cannonballs shattered during the step, and their velocities at the impact. */
+	private Body[] impactBodies = new Body[8];
+	private float[] impactVX = new float[8], impactVY = new float[8];
+	private int nbImpacts;
+	/** Trigger shock in the system to test stability. */
+	private float shockFactor = 0;
+	/** Profiler timing the phases of the steps (null if none). */
+	private FrameProfiler profiler;
+	/** Bodies used for detecting collisions with cannons. */
+	private Body cannonCollision1, cannonCollision2;
+	/** Boolean indicating whether border constraints is activated */
+	private boolean useBorderConstraint;
+	/** Boolean indicating whether cannon collision is activated */
+	private boolean useCannonCollision;
+	/** Uniform grid and neighbour lists used to find the pairs of bodies which may collide. */
+	private BroadPhase broadPhase;
+	/** Persistent contacts between bodies, solved iteratively. */
+	private ContactSolver contacts;
+	/** Number of iterations of the position solver during the last step. */
+	private int solverIterations;
+	/** Number of bodies swept in substeps during the last step. */
+	private int substeppedBodies;
+	/** Scratch vectors of the collision response. */
+	private final Vec impulseTangent = new Vec(), impulseV1t = new Vec(), impulseV1n = new Vec(),
+			impulseV2t = new Vec(), impulseV2n = new Vec(), impulseProj1 = new Vec(), impulseProj2 = new Vec();
+	/** Scratch vectors of the collision passes (the steps must not allocate). */
+	private final Vec contactNormal = new Vec(), impulseV1 = new Vec(), impulseV2 = new Vec();
+	private final Vec pathv = new Vec(), radv = new Vec(), center = new Vec(), distv = new Vec();
+	private final Vec segmentStart = new Vec(), segment = new Vec(), pathStart = new Vec();
+	private final Vec intersection = new Vec(), sweepNormal = new Vec();
+	/** Exact test of the pairs involving a polygon. */
+	private final NarrowPhase narrow = new NarrowPhase();
+	/** World vertices of the polygon constrained by the terrain, and the heights under them. */
+	private final float[] polygonX = new float[ConvexPolygon.MAX_VERTICES], polygonY = new float[ConvexPolygon.MAX_VERTICES];
+	private final float[] polygonHeight = new float[ConvexPolygon.MAX_VERTICES];
+	/** Body touched by the last call to touches() (null if none, or if the terrain or a cannon was touched). */
+	private Body sweepContact;
+	/** Scratch arrays for the height queries of the substeps. */
+	private float[] sweepX = new float[1], sweepHeight = new float[1];
+	/** Scratch array for the cannon queries in the broad phase. */
+	private int[] cannonQuery = new int[64];
+	/** Events produced by the simulation steps (drained by the consumers). */
+	private EventBuffer events;
+	/** Scratch arrays for the batched terrain height queries. */
+	private float[] terrainQueryX = new float[0], terrainQueryHeight = new float[0];
+	/** Flat store of the sandbox particles (null if none), released by reset(). */
+	private BodyStore particles;
+	/** Id of the next body added to the system. */
+	private int nextBodyId = 0;
+	/** Determinism mode: checksum of the state after each step. */
+	private boolean deterministic;
+	/** Checksum of the state after the last step (determinism mode only). */
+	private long checksum;
+
+	/**
+	 * Create a headless system, without the decorative dust.
+	 * @param random Random generator (split into the streams of the wind, fragments and dust)
+	 */
+	public System(SplittableRandom random)
+	{
+		this(random, 0, 0);
+	}
+
+	/**
+	 * @param random Random generator (split into the streams of the wind, fragments and dust)
+	 * @param viewWidth Width of the view in which the dust moves (0 if headless)
+	 * @param viewHeight Height of the view
+	 */
+	public System(SplittableRandom random, int viewWidth, int viewHeight)
+	{
+		this.config = PhysicsConfig.DEFAULT;
+		this.gravity = new Vec(0, config.gravityFactor, 0);
+		this.bodies = new ArrayList<Body>();
+		this.broadPhase = new BroadPhase(ContactSolver.margin);
+		broadPhase.setSkin(config.neighbourSkin);
+		this.contacts = new ContactSolver();
+		this.events = new EventBuffer(4096);
+		wind = new WindForce(random);
+		windField = new WindField(random.nextLong());
+		fragments = new Fragments(random.split(), config);
+		// The dust is only decorative: there is none without a view (headless).
+		if (viewWidth > 0) {
+			dust = new DustField(viewWidth, viewHeight, random.split(), ForkJoinPool.commonPool());
+			dust.setCount(config.dustParticles);
+		}
+		this.useBorderConstraint = false;
+		this.useCannonCollision = true;
+	}
+	/** 
+	 * Add cannon bodies to the system.
+	 * @param center1 Center of the first(human) cannon
+	 * @param rad1 Radius of the first(human) cannon
+	 * @param center2 Center of the second (opponent) cannon
+	 * @param rad2 Radius of the second (opponent) cannon
+	 */
+	public void setCannonCollisions(Vec center1, float rad1, Vec center2, float rad2) {
+		this.cannonCollision1 = new Body(center1, 1.0f, true, config);
+		this.cannonCollision1.setRadius(rad1);
+		this.cannonCollision2 = new Body(center2, 1.0f, false, config);
+		this.cannonCollision1.setRadius(rad2);
+	}
+
+	/**
+	 * Add (circular) body to the system for motion and collision.
+	 * @param body Body to be added.
+	 */
+	public void addBody(Body body){
+		body.index = nextBodyId++;
+		bodies.add(body);
+	}
+	
+	/**
+	 * Adds a body only if it does not collide with others.
+	 * @param body Body to be added.
+	 * @return True if the body was added.
+	 */
+	public boolean safeAddBody(Body body) {
+		if (!inCollision(body)) {
+			addBody(body);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Reset to default and remove all bodies.
+	 */
+	public void reset() {
+		bodies.clear();
+		events.clear();
+		contacts.clear();
+		broadPhase.invalidate();
+		fragments.clear();
+		nbImpacts = 0;
+		if (particles != null) {
+			particles.release();
+			particles = null;
+		}
+		nextBodyId = 0;
+		useBorderConstraint = false;
+		useCannonCollision = true;
+	}
+
+	/**
+	 * Get the number of (circular) bodies.
+	 * @return int quantity
+	 */
+	public int getNumberOfBodies() {
+		return bodies.size();
+	}
+
+	/**
+	 * Get a body, in the order in which the bodies were added.
+	 * @param i Position of the body in the system
+	 * @return Body
+	 */
+	public Body getBody(int i) {
+		return bodies.get(i);
+	}
+
+	/**
+	 * Keep only a fraction of the configured dust particles (e.g. under load).
+	 * @param fraction Fraction, from 0 to 1
+	 */
+	public void setDustFraction(float fraction) {
+		if (fraction != dustFraction) {
+			dustFraction = fraction;
+			if (dust != null)
+				dust.setCount((int) (dustFraction * config.dustParticles));
+		}
+	}
+
+	/**
+	 * Set the view: the dust particles (in screen coordinates) sample the wind
+	 * field from its left edge, and the fragments far from it become sparks.
+	 * @param x Left edge of the view in world coordinates
+	 * @param width Width of the view
+	 */
+	public void setViewOrigin(float x, float width) {
+		viewX = x;
+		viewWidth = width;
+	}
+
+	/**
+	 * Time the phases of the steps (wind, solver, fragments, dust) as scopes
+	 * nested in the current scope of a profiler.
+	 * @param profiler Profiler (null to stop timing)
+	 */
+	public void setProfiler(FrameProfiler profiler) {
+		this.profiler = profiler;
+	}
+
+	/**
+	 * Obtain the fragments of the shattered cannonballs.
+	 * @return Fragments
+	 */
+	public Fragments getFragments() {
+		return fragments;
+	}
+
+	/**
+	 * Obtain the wind force over the world.
+	 * @return Wind field
+	 */
+	public WindField getWindField() {
+		return windField;
+	}
+
+	/**
+	 * Get the global lateral wind force, modulated over the world by the wind field.
+	 * @return Horizontal component of the wind force
+	 */
+	public float getWindForceX() {
+		return wind.getForceX();
+	}
+	
+	/**
+	 * Enable border constraints (for demonstration)
+	 * (The bodies do no 'die' if they touch water.
+	 * @param enable
+	 */
+	public void useBorderConstraint(boolean enable) {
+		useBorderConstraint = enable;
+	}
+	
+	public void useCannonCollision(boolean enable) {
+		useCannonCollision = enable;
+	}
+
+	/**
+	 * Change the gravity angle, and wake up the sleeping bodies (they rest
+	 * against the previous gravity).
+	 * @param angle New angle.
+	 */
+	public void reorientGravity(float angle)
+	{
+		applyGravity(angle);
+		wakeAll();
+	}
+
+	/**
+	 * Set the gravity vector from its angle and the current parameters.
+	 * @param angle Gravity angle
+	 */
+	private void applyGravity(float angle)
+	{
+		gravityAngle = angle;
+		gravity.x = config.gravityFactor * (float) StrictMath.sin(angle);
+		gravity.y = config.gravityFactor * (float) StrictMath.cos(angle);
+	}
+
+	/**
+	 * Swap in new physics parameters, and wake up the sleeping bodies (they
+	 * rest under the previous ones). Must be called between two steps.
+	 * @param config New physics parameters
+	 */
+	public void setConfig(PhysicsConfig config)
+	{
+		this.config = config;
+		broadPhase.setSkin(config.neighbourSkin);
+		if (dust != null)
+			dust.setCount((int) (dustFraction * config.dustParticles));
+		applyGravity(gravityAngle);
+		wakeAll();
+	}
+
+	/**
+	 * Obtain the current physics parameters.
+	 * @return Physics parameters
+	 */
+	public PhysicsConfig getConfig()
+	{
+		return config;
+	}
+
+	/**
+	 * Enable the determinism mode: a checksum of the state is computed after
+	 * each step. The candidate pairs are always solved in the order of the
+	 * body slots, whatever the state of the broad phase. Combined with seeded
+	 * random streams and the same inputs at the same ticks, two runs produce
+	 * bit-identical states.
+	 * @param enable
+	 */
+	public void setDeterministic(boolean enable) {
+		deterministic = enable;
+	}
+
+	/**
+	 * Obtain the checksum of the state after the last step.
+	 * @return 64-bit checksum (0 if the determinism mode is disabled)
+	 */
+	public long getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Checksum (64-bit FNV-1a) of the simulation state: the exact bits of
+	 * the body states, the wind and the gravity. The decorative dust is excluded.
+	 * @return Checksum
+	 */
+	public long computeChecksum() {
+		long h = 0xcbf29ce484222325L;
+		h = mix(h, Float.floatToIntBits(wind.getForceX()));
+		h = mix(h, Float.floatToIntBits(gravity.x));
+		h = mix(h, Float.floatToIntBits(gravity.y));
+		for (int i = 0; i < bodies.size(); i++) {
+			Body b = bodies.get(i);
+			h = mix(h, b.index);
+			h = mix(h, Float.floatToIntBits(b.pos.x));
+			h = mix(h, Float.floatToIntBits(b.pos.y));
+			h = mix(h, Float.floatToIntBits(b.ppos.x));
+			h = mix(h, Float.floatToIntBits(b.ppos.y));
+			h = mix(h, Float.floatToIntBits(b.rad));
+			h = mix(h, (b.hasCollidedTerrain ? 1 : 0) | (b.sleeping ? 2 : 0));
+		}
+		return h;
+	}
+
+	static long mix(long h, int v) {
+		for (int k = 0; k < 4; k++) {
+			h ^= (v >>> (8*k)) & 0xFF;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Save the simulation state (bodies, wind, shock, gravity and the number
+	 * of terrain deformations) after a step, without allocating once the
+	 * state has grown to the number of bodies. The sandbox particles and the
+	 * decorative dust and sparks are not saved.
+	 * @param s State receiving the copy
+	 * @param tick Tick of the state
+	 * @param terrain Terrain being simulated
+	 */
+	public void saveState(WorldState s, int tick, Terrain terrain)
+	{
+		int n = bodies.size();
+		s.ensureCapacity(n);
+		s.tick = tick;
+		s.size = n;
+		for (int i = 0; i < n; i++) {
+			Body b = bodies.get(i);
+			b.save(s, i);
+			s.ints[i*WorldState.INTS + WorldState.FRAGMENT_AGE] = (b.fragmentSlot >= 0) ? fragments.getAge(b) : 0;
+		}
+		s.shockFactor = shockFactor;
+		s.windTime = wind.getTime();
+		s.windForce = wind.getForceX();
+		s.windDrift = windField.getDrift();
+		s.gravityAngle = gravityAngle;
+		s.nextBodyId = nextBodyId;
+		s.borderConstraint = useBorderConstraint;
+		s.cannonCollision = useCannonCollision;
+		s.terrainEdits = terrain.getEditCount();
+	}
+
+	/**
+	 * Restore a saved state, e.g. to resume the simulation from a past tick.
+	 * The bodies are recreated (the fragments are taken back from their pool),
+	 * the contacts and neighbour lists are rebuilt by the next step, and the
+	 * terrain is brought back to its deformations at that tick if they are
+	 * still in its journal.
+	 * @param s Saved state
+	 * @param terrain Terrain being simulated
+	 */
+	public void loadState(WorldState s, Terrain terrain)
+	{
+		bodies.clear();
+		events.clear();
+		contacts.clear();
+		broadPhase.invalidate();
+		fragments.clear();
+		nbImpacts = 0;
+		Vec origin = new Vec();
+		for (int i = 0; i < s.size; i++) {
+			int slot = s.ints[i*WorldState.INTS + WorldState.FRAGMENT_SLOT];
+			Body b = (slot >= 0) ? fragments.adopt(slot, s.ints[i*WorldState.INTS + WorldState.FRAGMENT_AGE])
+					: new Body(origin, s.floats[i*WorldState.FLOATS + WorldState.MASS],
+							(s.ints[i*WorldState.INTS + WorldState.FLAGS] & WorldState.HUMAN) != 0, config, s.polygons[i]);
+			if (b == null)
+				continue;
+			b.load(s, i);
+			bodies.add(b);
+		}
+		shockFactor = s.shockFactor;
+		wind.setState(s.windTime, s.windForce);
+		windField.setDrift(s.windDrift);
+		applyGravity(s.gravityAngle);
+		nextBodyId = s.nextBodyId;
+		useBorderConstraint = s.borderConstraint;
+		useCannonCollision = s.cannonCollision;
+		if (terrain.setEditCount(s.terrainEdits))
+			windField.invalidate();
+	}
+
+	/**
+	 * Determine if a circular body collides (overlaps)
+	 * with another one.
+	 * @param b1 Body to be tested for collision
+	 * @return True if colliding
+	 */
+	public boolean inCollision(Body b1)
+	{
+		for (int i = 0; i < this.bodies.size(); i++)
+		{
+			Body b2 = bodies.get(i);
+			if (b1 != b2)
+			{
+				if (b1.separation(b2) < b1.minSeparation(b2))
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Apply forces and move bodies.
+	 * @param dt Time interval
+	 */
+	private void accelerate(float dt)
+	{
+		for (int i = 0; i < this.bodies.size(); i++)
+		{
+			Body b = bodies.get(i);
+			if (b.sleeping)
+				continue;
+			b.addForce(gravity);
+			if(!b.hasCollidedTerrain) {
+				windField.sample(b.pos.x, b.pos.y, windSample);
+				b.addForce(windSample);
+			}
+			b.step(dt, shockFactor);
+		}
+	}
+	
+	/**
+	 * Modify the position of a cannon body.
+	 * @param center New position
+	 * @param human Boolean to differentiate between the human and the opponent
+	 */
+	public void setCannonCollisionPosition(Vec center, boolean human) {
+		if(human) {
+			cannonCollision1.pos.set(center);
+		} else {
+			cannonCollision2.pos.set(center);
+		}
+	}
+	
+	/**
+	 * Determine if bodies collide with a cannon (before hitting a mountain).
+	 * The candidates are obtained from the broad phase, and each valid
+	 * collision is reported as a CANNON_HIT event.
+	 * @param cannon Body of the cannon potentially colliding
+	 */
+	private void cannonCollide(Body cannon) {
+		int found = broadPhase.query(bodies, cannon.pos.x, cannon.pos.y, cannon.rad, cannonQuery);
+		for (int k = 0; k < found; k++) {
+			Body b = bodies.get(cannonQuery[k]);
+			if (!b.hasCollidedTerrain && b.human!=cannon.human && b.separation(cannon) < b.minSeparation(cannon)) {
+				events.push(EventBuffer.EventType.CANNON_HIT, b.index, (cannon.human) ? 0 : 1, b.pos.x, b.pos.y, 0);
+			}
+		}
+	}
+
+	/**
+	 * Iterative position solver. The contacts between bodies are warm-started
+	 * with the corrections of the previous step, then the body, border and
+	 * terrain constraints are solved in turn until the largest penetration
+	 * is under the tolerance (or the maximal number of iterations is reached).
+	 * @param terrain Terrain constraint
+	 */
+	private void solvePositions(Terrain terrain)
+	{
+		broadPhase.update(bodies);
+		if (substepFastBodies(terrain))
+			broadPhase.update(bodies);
+		if (useCannonCollision) {
+			cannonCollide(cannonCollision1);
+			cannonCollide(cannonCollision2);
+		}
+		int nbPairs = broadPhase.findPairs(bodies, ContactSolver.margin);
+		contacts.build(bodies, broadPhase, nbPairs);
+		contacts.warmStart(bodies, config.warmStartFactor, true);
+		float maxPenetration;
+		solverIterations = 0;
+		do {
+			maxPenetration = contacts.iterate(bodies, config, true);
+			if(useBorderConstraint)
+				borderCollide(terrain.worldWidth, terrain.worldHeight, false);
+			maxPenetration = Math.max(maxPenetration, terrainCollide(terrain));
+			++solverIterations;
+		} while (solverIterations < config.solverIterations && maxPenetration > config.solverTolerance);
+	}
+
+	/**
+	 * Sweep the fast bodies along their displacement in substeps. A body
+	 * moving by more than a fraction of its radius in one step could
+	 * otherwise jump over a body, a cannon or a thin peak between two
+	 * steps. The substeps are tested in order, and the body stops at the
+	 * first one touching something, where the constraints then resolve the
+	 * contact (a body hit is also given its share of the impulse right away). The slow bodies, which are the
+	 * vast majority, take a single step as before.
+	 * @param terrain Terrain
+	 * @return True if a body was stopped (the broad phase is then outdated)
+	 */
+	private boolean substepFastBodies(Terrain terrain)
+	{
+		boolean stopped = false;
+		substeppedBodies = 0;
+		for (int i = 0; i < bodies.size(); i++) {
+			Body b = bodies.get(i);
+			if (b.sleeping)
+				continue;
+			float dx = b.pos.x - b.ppos.x;
+			float dy = b.pos.y - b.ppos.y;
+			float limit = config.substepFraction * b.rad;
+			float distance = (float) Math.sqrt(dx*dx + dy*dy);
+			if (distance <= limit)
+				continue;
+			// A body already in contact (e.g. rolling on the terrain) is left to the solver.
+			if (touches(b, b.ppos.x, b.ppos.y, terrain))
+				continue;
+			int substeps = Math.min(config.maxSubsteps, (int) Math.ceil(distance / limit));
+			++substeppedBodies;
+			// The last substep is the end of the step, left to the solver.
+			for (int s = 1; s < substeps; s++) {
+				float t = (float) s / substeps;
+				float x = b.ppos.x + t*dx;
+				float y = b.ppos.y + t*dy;
+				if (touches(b, x, y, terrain)) {
+					b.pos.set(x, y, 0);
+					b.ppos.set(x - dx, y - dy, 0);
+					if (sweepContact != null) {
+						// Respond to the impact now: after the inertia step, the
+						// fast body would already be past the center of the other one.
+						Body other = sweepContact;
+						other.wake();
+						sweepNormal.set(b.pos.x - other.pos.x, b.pos.y - other.pos.y, 0);
+						exchangeImpulse(b, other, sweepNormal, true);
+					}
+					stopped = true;
+					break;
+				}
+			}
+		}
+		return stopped;
+	}
+
+	/**
+	 * Determine if a body placed at a position would touch the terrain,
+	 * another body or a cannon.
+	 * @param b Body
+	 * @param x Horizontal position
+	 * @param y Vertical position
+	 * @param terrain Terrain
+	 * @return True if touching
+	 */
+	private boolean touches(Body b, float x, float y, Terrain terrain)
+	{
+		sweepContact = null;
+		sweepX[0] = x;
+		terrain.getHeightsUnder(sweepX, sweepHeight, 1);
+		if (y + b.rad > sweepHeight[0])
+			return true;
+		int found = broadPhase.query(bodies, x, y, b.rad, cannonQuery);
+		for (int k = 0; k < found; k++) {
+			if (bodies.get(cannonQuery[k]) != b) {
+				sweepContact = bodies.get(cannonQuery[k]);
+				return true;
+			}
+		}
+		if (useCannonCollision && !b.hasCollidedTerrain) {
+			Body cannon = (b.human) ? cannonCollision2 : cannonCollision1;
+			float cx = cannon.pos.x - x, cy = cannon.pos.y - y;
+			float reach = b.rad + cannon.rad;
+			if (cx*cx + cy*cy < reach*reach)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Number of bodies swept in substeps during the last step.
+	 * @return int quantity
+	 */
+	public int getSubsteppedBodies() {
+		return substeppedBodies;
+	}
+
+	/**
+	 * Simulate a flat store of particles along with the bodies. The system
+	 * owns the store until the next reset, which releases it.
+	 * @param store Store (on or off the heap), or null to remove the particles
+	 */
+	public void setParticles(BodyStore store) {
+		if (particles != null && particles != store)
+			particles.release();
+		particles = store;
+	}
+
+	/**
+	 * Obtain the store of the sandbox particles.
+	 * @return Store, or null if none
+	 */
+	public BodyStore getParticles() {
+		return particles;
+	}
+
+	/**
+	 * Number of rebuilds of the broad phase grid and neighbour lists since the start.
+	 * @return int quantity
+	 */
+	public int getNeighbourRebuilds() {
+		return broadPhase.getRebuilds();
+	}
+
+	/**
+	 * Number of iterations of the position solver during the last step.
+	 * @return int quantity
+	 */
+	public int getSolverIterations() {
+		return solverIterations;
+	}
+
+	/**
+	 * Collision response between bodies after the inertia step.
+	 * It uses hard constraints on the candidate pairs from the broad phase
+	 * (the pairs involving a polygon go through the narrow phase).
+	 * @param preservingImpulse True to preserve the impulse
+	 * @param preservingMomentum True to preserver the momemtum
+	 */
+	private void bodyCollide(boolean preservingImpulse, boolean preservingMomentum)
+	{
+		broadPhase.update(bodies);
+		int nbPairs = broadPhase.findPairs(bodies, 0);
+		Vec dn = contactNormal;
+		float separation, minSeparation;
+		float M, m1, m2;
+		for (int k = 0; k < nbPairs; k++) {
+			Body b1 = bodies.get(broadPhase.getPairA(k));
+			Body b2 = bodies.get(broadPhase.getPairB(k));
+			if (b1.sleeping && b2.sleeping)
+				continue;
+			if (b1.polygon != null || b2.polygon != null) {
+				polygonCollide(b1, b2, preservingImpulse, preservingMomentum);
+				continue;
+			}
+			//TODO: Should use distance squared for faster detection..
+			separation = b1.separation(b2);
+			minSeparation = b1.minSeparation(b2);
+			dn.set(b1.pos.x - b2.pos.x, b1.pos.y - b2.pos.y, b1.pos.z - b2.pos.z);
+			if (separation < minSeparation && separation != 0) {
+				if (b1.sleeping || b2.sleeping) {
+					// A sleeping body only wakes up when it is hit, otherwise
+					// it behaves as a static obstacle for the resting body.
+					Body awake = (b1.sleeping) ? b2 : b1;
+					Body asleep = (b1.sleeping) ? b1 : b2;
+					if (!awake.isResting(config.sleepVelocity)) {
+						asleep.wake();
+					} else {
+						float sign = (awake == b1) ? 1 : -1;
+						float f = sign * (minSeparation - separation) / separation;
+						awake.pos.add(dn.x*f, dn.y*f, dn.z*f);
+						continue;
+					}
+				}
+				m1 = b1.mass;
+				m2 = b2.mass;
+				M = m1 + m2;
+				// Hard constraint: resolve the body overlap conflict
+				float conflictingLength = (minSeparation - separation) / separation;
+				float f1 = (preservingMomentum)? m2/M *conflictingLength : 0.5f * conflictingLength;
+				float f2 = (preservingMomentum)? m1/M *conflictingLength : 0.5f * conflictingLength;
+				b1.pos.add(dn.x*f1, dn.y*f1, dn.z*f1);
+				b2.pos.sub(dn.x*f2, dn.y*f2, dn.z*f2);
+				if (preservingImpulse) {
+					exchangeImpulse(b1, b2, dn, preservingMomentum);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Collision response for a pair involving a polygon, through the narrow phase
+	 * (the overlap is split between the translations and the rotations).
+	 * @param b1 First body
+	 * @param b2 Second body
+	 * @param preservingImpulse True to preserve the impulse
+	 * @param preservingMomentum True to preserver the momemtum
+	 */
+	private void polygonCollide(Body b1, Body b2, boolean preservingImpulse, boolean preservingMomentum)
+	{
+		if (!narrow.collide(b1, b2) || narrow.penetration <= 0)
+			return;
+		if (b1.sleeping || b2.sleeping) {
+			Body awake = (b1.sleeping) ? b2 : b1;
+			Body asleep = (b1.sleeping) ? b1 : b2;
+			if (!awake.isResting(config.sleepVelocity)) {
+				asleep.wake();
+			} else {
+				float sign = (awake == b1) ? 1 : -1;
+				awake.pos.x += sign * narrow.nx * narrow.penetration;
+				awake.pos.y += sign * narrow.ny * narrow.penetration;
+				return;
+			}
+		}
+		narrow.separate(b1, b2, narrow.penetration, preservingMomentum);
+		if (preservingImpulse) {
+			contactNormal.set(narrow.nx, narrow.ny, 0);
+			exchangeImpulse(b1, b2, contactNormal, preservingMomentum);
+		}
+	}
+
+	/**
+	 * Collision response: exchange the velocities of two colliding bodies
+	 * (by modifying their previous positions).
+	 * @param b1 First body
+	 * @param b2 Second body
+	 * @param dn Vector from the second body to the first one (normalized by the call)
+	 * @param preservingMomentum True to preserver the momemtum
+	 */
+	private void exchangeImpulse(Body b1, Body b2, Vec dn, boolean preservingMomentum)
+	{
+		final float damping = config.damping;
+		Vec v1 = impulseV1, v2 = impulseV2;
+		Vec dt = impulseTangent;
+		Vec v1t = impulseV1t, v1n = impulseV1n, v2t = impulseV2t, v2n = impulseV2n;
+		Vec proj1 = impulseProj1, proj2 = impulseProj2;
+		float m1 = b1.mass, m2 = b2.mass, M = m1 + m2;
+		v1.set(b1.pos); v1.sub(b1.ppos);
+		v2.set(b2.pos); v2.sub(b2.ppos);
+		if (!b1.isResting(config.sleepVelocity) || !b2.isResting(config.sleepVelocity)) {
+			events.push(EventBuffer.EventType.BODY_CONTACT, b1.index, b2.index,
+					0.5f*(b1.pos.x + b2.pos.x), 0.5f*(b1.pos.y + b2.pos.y), Vec.dist(v1, v2));
+		}
+		if(preservingMomentum) {
+			//http://en.wikipedia.org/wiki/Elastic_collision#Two-dimensional_C.23_example
+			dn.normalize();
+			dt.set(dn.y,-dn.x,0);
+			v1n.set(dn); v2n.set(dn); v1t.set(dt); v2t.set(dt);
+			v1n.mult(damping*v1.dot(dn));
+			v1t.mult(damping*v1.dot(dt));
+			v2n.mult(damping*v2.dot(dn));
+			v2t.mult(damping*v2.dot(dt));
+			// I'm using ' - ' here, error in wikipedia? It cannot only be positive...
+			// TODO: There could be an error here.
+			float k1 = 2*m2/M*v2n.mag() - (m1-m2)/M*v1n.mag();
+			float k2 = 2*m1/M*v1n.mag() - (m2-m1)/M*v2n.mag();
+			v1.set(v1t.x + dn.x*k1, v1t.y + dn.y*k1, v1t.z + dn.z*k1);
+			v2.set(v2t.x - dn.x*k2, v2t.y - dn.y*k2, v2t.z - dn.z*k2);
+		} else {
+			dn.normalize(proj1);
+			dn.normalize(proj2);
+			proj1.mult(damping*proj1.dot(v1));
+			proj2.mult(damping*proj2.dot(v2));
+			v1.add(proj2.x - proj1.x, proj2.y - proj1.y, proj2.z - proj1.z);
+			v2.add(proj1.x - proj2.x, proj1.y - proj2.y, proj1.z - proj2.z);
+		}
+		b1.ppos.set(b1.pos); b1.ppos.sub(v1);
+		b2.ppos.set(b2.pos); b2.ppos.sub(v2);
+	}
+	
+	/**
+	 * Hard constraints for collisions on the edges of the scene.
+	 * @param width Width of the world
+	 * @param height Height of the world
+	 * @param preservingImpulse True to preserve the impulse
+	 */
+	void borderCollide(int width, int height, boolean preservingImpulse){
+	    Vec vel = impulseV1;
+	    float damping = config.damping;
+	    for(int i=0; i<this.bodies.size(); i++)
+	    {
+	      Body b = bodies.get(i);
+	      vel.set(b.ppos);
+	      vel.sub(b.pos);
+	      vel.mult(damping);
+	      // Extent of the body on each side (the vertices of a polygon, not its bounding circle).
+	      float left = b.rad, right = b.rad, top = b.rad, bottom = b.rad;
+	      int size = b.getVertices(polygonX, polygonY, null, null);
+	      if (size > 0) {
+	        left = right = top = bottom = Float.NEGATIVE_INFINITY;
+	        for (int k = 0; k < size; k++) {
+	          left = Math.max(left, b.pos.x - polygonX[k]);
+	          right = Math.max(right, polygonX[k] - b.pos.x);
+	          top = Math.max(top, b.pos.y - polygonY[k]);
+	          bottom = Math.max(bottom, polygonY[k] - b.pos.y);
+	        }
+	      }
+	      if(b.pos.x - left < 0) {
+	        b.pos.x = left;
+	        if(preservingImpulse) b.ppos.x = b.pos.x - vel.x;
+	      } else if(b.pos.x + right > width) {
+	        b.pos.x = width-right;
+	        if(preservingImpulse) b.ppos.x = b.pos.x - vel.x;
+	      }
+	      if(b.pos.y - top < 0) {
+	        b.pos.y =  top;
+	        if(preservingImpulse) b.ppos.y = b.pos.y - vel.y;
+	      } else if(b.pos.y + bottom > height) {
+	        b.pos.y = height-bottom;
+	        if(preservingImpulse) b.ppos.y = b.pos.y - vel.y;
+	      }
+	    }
+	  }
+
+	/**
+	 * Collision detection and resolution for between circular bodies and the terrain.
+	 * This is one pass, repeated by the iterations of the position solver.
+	 * @param terrain Terrain constraint
+	 * @return Largest penetration into the terrain found during the pass
+	 */
+	private float terrainCollide(Terrain terrain)
+	{
+		int len = bodies.size();
+		/* The search is limited to the terrain segments whose bounding boxes
+		 * overlap the box swept by the body (and its radius), found by the
+		 * bounds trees of the terrain: a body flying high over the terrain
+		 * does not test any segment.
+		 */
+		int nbSegments;
+		float maxPenetration = 0;
+		Vec pathv = this.pathv, radv = this.radv;
+		Vec center = this.center, distv = this.distv;
+		if (terrainQueryX.length < len) {
+			terrainQueryX = new float[len];
+			terrainQueryHeight = new float[len];
+		}
+		for (int i = 0; i < len; i++) {
+			boolean collided = false;
+			Body b = bodies.get(i);
+			if (b.sleeping)
+				continue;
+			float vx = b.pos.x - b.ppos.x, vy = b.pos.y - b.ppos.y;
+			float reach = 1.22f*Math.abs(vx) + b.rad + terrain.terrainSegmentWidth;
+			// The vertical range also covers the moves of the overlap constraints.
+			float sweep = 1.22f*vy;
+			float margin = 2*b.rad + terrain.terrainSegmentWidth;
+			nbSegments = terrain.findSegments(b.pos.x - reach, b.pos.x + reach,
+					Math.min(b.pos.y, b.pos.y + sweep) - margin, Math.max(b.pos.y, b.pos.y + sweep) + margin);
+			if(!b.hasCollidedTerrain) {
+				//Obtain the path/line traced by the projectile body
+				//with the radius added to it.
+				pathv.set(b.pos);
+				pathv.sub(b.ppos);
+				radv.set(pathv);
+				radv.normalize();
+				radv.mult(b.rad);
+				// I think this extra length to the path somehow reinforces
+				// the "full-stop" behavior which is required in this assignment
+				pathv.mult(1.22f);
+				for(int k=0; k<nbSegments; ++k) {
+					collided = applyTerrainIntersectionConstraint(b, terrain, pathv, radv, terrain.getFoundSegment(k));
+					if (collided) break;
+				}
+			}
+			if (b.polygon != null) {
+				// The vertices of a polygon are kept above the terrain, instead of its bounding circle.
+				maxPenetration = Math.max(maxPenetration, applyTerrainPolygonConstraint(b, terrain));
+			} else for(int k=0; k<nbSegments; ++k) {
+				int j = terrain.getFoundSegment(k);
+				center.set(terrain.getX(j), terrain.getHeight(j), 0);
+				distv.set(b.pos);
+				distv.sub(center);
+				maxPenetration = Math.max(maxPenetration,
+						applyTerrainOverlapConstraint( b, b.separation(center), distv, collided));
+			}
+			if(collided) {
+				b.hasCollidedTerrain = true;
+				events.push(EventBuffer.EventType.TERRAIN_IMPACT, b.index, -1, b.pos.x, b.pos.y, b.initRad);
+				digCrater(terrain, b);
+				if (b.projectile && config.fragmentsPerImpact > 0
+						&& vx*vx + vy*vy > config.fragmentSpeed*config.fragmentSpeed)
+					queueShatter(b, vx, vy);
+			}
+		}
+		// The heights under all the bodies are resolved in a single batch.
+		for (int i = 0; i < len; i++) {
+			terrainQueryX[i] = bodies.get(i).pos.x;
+		}
+		terrain.getHeightsUnder(terrainQueryX, terrainQueryHeight, len);
+		for (int i = 0; i < len; i++) {
+			Body b = bodies.get(i);
+			if (!b.sleeping && b.polygon == null)
+				maxPenetration = Math.max(maxPenetration, applyTerrainVerticalConstraint(b, terrainQueryHeight[i]));
+		}
+		return maxPenetration;
+	}
+	
+	/**
+	 * Remember a cannonball to shatter at the end of the step (the bodies
+	 * cannot be removed while the solver iterates over them).
+	 * @param b Cannonball
+	 * @param vx Horizontal velocity at the impact
+	 * @param vy Vertical velocity at the impact
+	 */
+	private void queueShatter(Body b, float vx, float vy)
+	{
+		if (nbImpacts == impactBodies.length) {
+			impactBodies = java.util.Arrays.copyOf(impactBodies, 2*nbImpacts);
+			impactVX = java.util.Arrays.copyOf(impactVX, 2*nbImpacts);
+			impactVY = java.util.Arrays.copyOf(impactVY, 2*nbImpacts);
+		}
+		impactBodies[nbImpacts] = b;
+		impactVX[nbImpacts] = vx;
+		impactVY[nbImpacts] = vy;
+		++nbImpacts;
+	}
+
+	/**
+	 * Replace the cannonballs shattered during the step by their fragments,
+	 * and remove the fragments which lived for too long or went far from the
+	 * view (the latter become sparks). The sleeping bodies over the removed
+	 * ones are woken up.
+	 */
+	private void updateFragments()
+	{
+		for (int k = 0; k < nbImpacts; k++) {
+			Body ball = impactBodies[k];
+			impactBodies[k] = null;
+			if (!bodies.remove(ball))
+				continue;
+			wakeOver(ball.pos.x - ball.rad, ball.pos.x + ball.rad);
+			fragments.shatter(ball, impactVX[k], impactVY[k], this, isNearView(ball.pos.x), config);
+		}
+		nbImpacts = 0;
+		if (fragments.getLiveFragments() == 0)
+			return;
+		for (int i = bodies.size()-1; i >= 0; --i) {
+			Body b = bodies.get(i);
+			if (b.fragmentSlot < 0)
+				continue;
+			boolean far = !isNearView(b.pos.x);
+			if (far || fragments.isExpired(b, config.fragmentLifetime)) {
+				if (far)
+					fragments.demote(b);
+				bodies.remove(i);
+				wakeOver(b.pos.x - b.rad, b.pos.x + b.rad);
+				fragments.recycle(b);
+			}
+		}
+	}
+
+	/**
+	 * Determine whether a position is close enough to the view for the fragments to be bodies.
+	 * @param x Horizontal position
+	 * @return True if within fragmentDistance of the view
+	 */
+	private boolean isNearView(float x)
+	{
+		return x > viewX - config.fragmentDistance && x < viewX + viewWidth + config.fragmentDistance;
+	}
+
+	/**
+	 * Dig a crater at the first impact of a body with the terrain
+	 * and wake up the sleeping bodies lying over it.
+	 * @param terrain Terrain to be deformed
+	 * @param b Impacting body
+	 */
+	private void digCrater(Terrain terrain, Body b)
+	{
+		float radius = config.craterRadiusFactor * b.initRad;
+		int[] span = terrain.deform(b.pos.x, radius, config.craterDepthFactor * b.initRad);
+		if (span == null)
+			return;
+		windField.invalidate();
+		wakeOver(terrain.getX(span[0]), terrain.getX(span[1]));
+	}
+
+	/**
+	 * Wake up the sleeping bodies lying over a horizontal span (a crater, or
+	 * a removed body which may have been supporting them).
+	 * @param left Left end of the span
+	 * @param right Right end of the span
+	 */
+	private void wakeOver(float left, float right)
+	{
+		for (int i = 0; i < bodies.size(); i++) {
+			Body other = bodies.get(i);
+			if (other.sleeping && other.pos.x + other.rad > left && other.pos.x - other.rad < right) {
+				other.wake();
+			}
+		}
+	}
+	
+	/**
+	 * Hard constraint applied if the path of the body (+ its radius) intersects the terrain.
+	 * @param b Body to be constrained.
+	 * @param terrain Terrain (heightmap)
+	 * @param pathv Path vector of the body
+	 * @param radv Vec in the direction of pathv with the magnitude of the body's radius
+	 * @param j Terrain segment index
+	 * @return True if there was an intersection (a collision resolution)
+	 */
+	private boolean applyTerrainIntersectionConstraint(Body b, Terrain terrain, Vec pathv, Vec radv, int j )
+	{
+		segmentStart.set(terrain.getX(j), terrain.getHeight(j), 0);
+		segment.set(terrain.terrainSegmentWidth, terrain.getSlope(j)*terrain.terrainSegmentWidth, 0);
+		pathStart.set(b.pos);
+		pathStart.add(radv);
+		if(intersect(pathStart, pathv, segmentStart, segment, intersection)) {
+			b.pos.set(intersection);
+			b.pos.sub(radv);
+			b.ppos.set(b.pos);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Hard constraint with a simple overlap between
+	 * the circle and the terrain vertices.
+	 * @param b Body to be constrained.
+	 * @param separation Separation/distance between the body and the current terrain vertex
+	 * @param distv Distance vector between the body and the current terrain vertex
+	 * @param collided True if the body just had its first collision with the terrain
+	 * @return Penetration which was resolved (0 if none)
+	 */
+	private float applyTerrainOverlapConstraint(Body b, float separation, Vec distv, boolean collided) {
+		if ((separation < b.rad && separation != 0))
+		{
+			float conflictingLength = (b.rad - separation) / separation;
+			b.pos.add(distv.x*conflictingLength, distv.y*conflictingLength, distv.z*conflictingLength);
+			if(collided) {
+				b.ppos.set(b.pos); //full-stop
+			}
+			return b.rad - separation;
+		}
+		return 0;
+	}
+	
+	/**
+	 * Hard constraint. Limit the body to be above the current terrain segment.
+	 * 
+	 * (Additional safety constrain based on the body's height.
+	 * Works fine without this but this additional constraint
+	 * might help if there are many projectiles stacked on each
+	 * other, or if the space between the terrain vertices is
+	 * very wide. The resulting behavior is not perfect however.)
+	 * 
+	 * @param b Body to be constrained vertically
+	 * @param height Terrain height under the body
+	 * @return Penetration which was resolved (0 if none)
+	 */
+	private float applyTerrainVerticalConstraint(Body b, float height) {
+		if(b.pos.y + b.rad > height) {
+			float penetration = b.pos.y + b.rad - height;
+			b.pos.y = height-b.rad;
+			b.ppos.y = b.pos.y;
+			return penetration;
+		}
+		return 0;
+	}
+
+	/**
+	 * Hard constraint. Push the vertices of a polygon out of the terrain, one
+	 * after the other, splitting each correction between the translation and
+	 * the rotation of the body. The sliding of the touching vertices is damped
+	 * the same way (friction). The bottom of the world counts as terrain.
+	 * @param b Polygon body to be constrained
+	 * @param terrain Terrain (heightmap)
+	 * @return Largest penetration which was resolved (0 if none)
+	 */
+	private float applyTerrainPolygonConstraint(Body b, Terrain terrain)
+	{
+		int size = b.getVertices(polygonX, polygonY, null, null);
+		terrain.getHeightsUnder(polygonX, polygonHeight, size);
+		for (int k = 0; k < size; k++) {
+			// The bottom of the world is a floor as well.
+			polygonHeight[k] = Math.min(polygonHeight[k], terrain.worldHeight);
+		}
+		float inertia = b.getInertia();
+		float maxPenetration = 0;
+		for (int k = 0; k < size; k++) {
+			// The vertex moved with the previous corrections: recompute it from the body.
+			float c = (float) StrictMath.cos(b.angle), s = (float) StrictMath.sin(b.angle);
+			float rx = b.rad * (c*b.polygon.localX[k] - s*b.polygon.localY[k]);
+			float ry = b.rad * (s*b.polygon.localX[k] + c*b.polygon.localY[k]);
+			float penetration = b.pos.y + ry - polygonHeight[k];
+			if (!(penetration > 0))
+				continue;
+			maxPenetration = Math.max(maxPenetration, penetration);
+			// Normal (0, -1): the vertex moves up by the whole penetration.
+			float rn = -rx;
+			float lambda = penetration/(1 + rn*rn/inertia);
+			b.pos.y -= lambda;
+			b.angle += rn/inertia * lambda;
+			// Tangent (1, 0): damp the horizontal motion of the vertex.
+			float rt = -ry;
+			float slide = (b.pos.x - b.ppos.x) + (b.angle - b.pangle)*rt;
+			lambda = -config.polygonFriction * slide/(1 + rt*rt/inertia);
+			b.pos.x += lambda;
+			b.angle += rt/inertia * lambda;
+		}
+		return maxPenetration;
+	}
+
+	private float cross2d( Vec v1, Vec v2) {
+		return v1.x * v2.y - v1.y * v2.x;
+	}
+
+	/**
+	 * Intersection between two line segments.
+	 * @param point1 Initial point of the first segment.
+	 * @param vec1 Vector of the first segment.
+	 * @param point2 Initial point of the second segment.
+	 * @param vec2 Vector of the second segment
+	 * @param out Intersection point (set only if there is one)
+	 * @return True if the segments intersect
+	 */
+	private boolean intersect(Vec point1, Vec vec1, Vec point2, Vec vec2, Vec out) {
+		float dx = point2.x - point1.x, dy = point2.y - point1.y;
+		float scalev1 = (dx * vec2.y - dy * vec2.x)/cross2d(vec1, vec2);
+		float scalev2 = ((point1.x - point2.x) * vec1.y - (point1.y - point2.y) * vec1.x)/cross2d(vec2, vec1);
+		// Parallel
+		if (cross2d(vec1, vec2)==0) {
+			return false;
+		}
+		if (0 < scalev1 && scalev1 < 1 && 0<scalev2 && scalev2 <1) {
+			out.set(point1.x + vec1.x*scalev1, point1.y + vec1.y*scalev1, point1.z + vec1.z*scalev1);
+			return true;
+		}
+		else {
+			return false;
+		}
+	}
+
+	/**
+	 * Preserve bodies' inertia.
+	 */
+	private void inertia()
+	{
+		for (int i = 0; i < this.bodies.size(); i++)
+		{
+			Body b = bodies.get(i);
+			if (!b.sleeping) {
+				b.preserveInertia();
+				b.updateSleep(config);
+			}
+		}
+	}
+
+	/**
+	 * Testing: Shock the system to test the stability.
+	 */
+	public void shock()
+	{
+		shockFactor = 1.0f;
+		wakeAll();
+	}
+
+	/**
+	 * Wake up all the sleeping bodies.
+	 */
+	private void wakeAll()
+	{
+		for (int i = 0; i < this.bodies.size(); i++)
+		{
+			bodies.get(i).wake();
+		}
+	}
+
+	/**
+	 * Obtain the events produced by the last steps. They should be drained
+	 * after each step, otherwise the newest events are dropped once the buffer is full.
+	 * @return Event buffer
+	 */
+	public EventBuffer getEvents() {
+		return events;
+	}
+
+	/**
+	 * Advance the simulation by one step. Cannon hits, terrain impacts, body
+	 * contacts and removals are reported in the event buffer.
+	 * @param terrain Terrain for collision
+	 */
+	public void step(Terrain terrain)
+	{
+		if (profiler != null)
+			profiler.begin(FrameProfiler.Scope.WIND);
+		wind.step(config);
+		windField.update(terrain, wind.getForceX(), config);
+		if (profiler != null) {
+			profiler.end();
+			profiler.begin(FrameProfiler.Scope.SOLVER);
+		}
+		int steps = 1;
+		float dt = (float) steps / 2;
+		for (int i = 0; i < steps; i++)
+		{
+			accelerate(dt);
+			solvePositions(terrain);
+			inertia();
+			bodyCollide(true, true);
+			if(useBorderConstraint)
+				borderCollide(terrain.worldWidth, terrain.worldHeight, true);
+			if (particles != null) {
+				particles.accelerate(gravity, windField, dt);
+				particles.terrainCollide(terrain);
+				particles.inertia();
+				particles.borderCollide(terrain.worldWidth, config.damping);
+			}
+		}
+		if (profiler != null) {
+			profiler.end();
+			profiler.begin(FrameProfiler.Scope.FRAGMENTS);
+		}
+		shockFactor -= 0.01;
+		shockFactor = Math.max(shockFactor, 0);
+		postStep(terrain.worldWidth, terrain.worldHeight, terrain.horizon);
+		updateFragments();
+		fragments.step(gravity.y * dt * dt);
+		if (profiler != null)
+			profiler.end();
+		if (deterministic)
+			checksum = computeChecksum();
+		if (dust != null) {
+			if (profiler != null)
+				profiler.begin(FrameProfiler.Scope.DUST);
+			dust.step(windField, viewX, config);
+			if (profiler != null)
+				profiler.end();
+		}
+	}
+	
+	/**
+	 * Post-step cleanup. Remove bodies outside the world, waking up the
+	 * sleeping bodies over them.
+	 * @param width Width of the world.
+	 * @param height Height of the world.
+	 * @param horizon Water level.
+	 */
+	private void postStep(int width, int height, int horizon)
+	{
+		if (!useBorderConstraint) {
+			for (int i = this.bodies.size()-1; i >= 0; --i) {
+				Body b = bodies.get(i);
+				if ( b.pos.x + b.rad < 0 || b.pos.x - b.rad > width 
+						|| b.pos.y - b.rad > height || b.pos.y - b.rad > horizon) {
+					events.push(EventBuffer.EventType.OUT_OF_BOUNDS, b.index, -1, b.pos.x, b.pos.y, 0);
+					bodies.remove(i);
+					wakeOver(b.pos.x - b.rad, b.pos.x + b.rad);
+					fragments.recycle(b);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Obtain the dust particles.
+	 * @return Dust field (null if headless)
+	 */
+	public DustField getDust() {
+		return dust;
+	}
+
+	/**
+	 * Obtain the shock factor (the colors of the bodies go toward white).
+	 * @return Factor, from 0 to 1
+	 */
+	public float getShockFactor() {
+		return shockFactor;
+	}
+}
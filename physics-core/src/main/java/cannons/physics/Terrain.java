@@ -0,0 +1,970 @@
+package cannons.physics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+
+public final class Terrain
+{
+	/*
+	 * IMPORTANT REMINDER: The y-coordinate increases as it goes down the screen.
+	 */
+	/** Water level. */
+	public final int horizon;
+	/** Height of the noise */
+	public final int noiseHeight;
+	/** Width of a single terrain segment. */
+	public final int terrainSegmentWidth;
+	/** Width of the whole world (which may span many screens). */
+	public final int worldWidth;
+	/** Height of the world. */
+	public final int worldHeight;
+	/** Seed from which the whole terrain is generated. */
+	public final long seed;
+	/** Noise added to the mountain shape. */
+	private final Noise noise;
+	/** Number of terrain vertices over the width of the world. */
+	public final int nbSegments;
+	/** Number of vertices in a terrain chunk (a chunk spans at least 512 pixels). */
+	public final int chunkSize;
+	/** Maximum number of chunks kept in the cache before evicting the least recently used ones. */
+	final int maxCachedChunks = 32;
+	/** Number of frames during which an unused chunk is protected from the eviction. */
+	final int keepFrames = 120;
+	/** Inidices of important terrain points */
+	public int summit1Index, summit2Index, seaFloorIndex;
+	/** Points defining the general mountain shape, from the left shore to the right one. */
+	private Vec leftShore, summit1, seaFloor, summit2, rightShore;
+	/** Cache of generated chunks, in access order. */
+	private LinkedHashMap<Integer, TerrainChunk> chunks;
+	/** Heights of the deformed chunks which have been evicted from the cache. */
+	private HashMap<Integer, float[]> edits;
+	/** Last accessed chunk (avoids a map lookup for consecutive queries). */
+	private TerrainChunk lastChunk;
+	/** Current frame, used to protect recently used chunks from the eviction. */
+	private int frame;
+	/**
+	 * Number of coarse levels of the heightmap (the coarsest has segments of at
+	 * most 64 pixels), for the far-field queries: level l (1 to nbLevels) has
+	 * a vertex every 2^l vertices, each a weighted average of the three closest
+	 * vertices of the level below. The contacts use the full-resolution chunks
+	 * (level 0).
+	 */
+	public final int nbLevels;
+	/** Number of vertices of each level over the width of the world. */
+	private final int[] levelLength;
+	/** Coarse levels of the chunks which have been evicted from the cache. */
+	private HashMap<Integer, float[][]> evictedLevels;
+	/** Spans of each level needed to compute a span of a coarser one. */
+	private final int[] levelLow, levelHigh;
+	/** Scratch heights from which the coarse vertices are computed. */
+	private float[] levelScratch = new float[256], generatedScratch = new float[256];
+	/** Number of deformations applied (undone ones excluded). */
+	private int editCount;
+	/**
+	 * Journal of the last deformations, to undo and redo them when the game is
+	 * rewound (null if disabled). Entry k is deformation journalFirst+k.
+	 */
+	private ArrayList<Edit> journal;
+	private int journalFirst, journalCapacity;
+	/** Segments found by the last call to findSegments. */
+	private int[] found = new int[64];
+	private int nbFound;
+
+	/**
+	 * Create a terrain entirely defined by its dimensions and seed.
+	 * @param worldWidth Width of the world
+	 * @param worldHeight Height of the world
+	 * @param horizon Water level
+	 * @param noiseHeight Height of the noise
+	 * @param seed Seed of the mountain shape and noise
+	 */
+	public Terrain(int worldWidth, int worldHeight, int horizon, int noiseHeight, long seed)
+	{
+		this(worldWidth, worldHeight, horizon, noiseHeight, seed, 4);
+	}
+
+	/**
+	 * Create a terrain with a given resolution. The mountain shape and the
+	 * noise are the same whatever the segment width, only sampled more finely.
+	 * @param worldWidth Width of the world
+	 * @param worldHeight Height of the world
+	 * @param horizon Water level
+	 * @param noiseHeight Height of the noise
+	 * @param seed Seed of the mountain shape and noise
+	 * @param segmentWidth Width of a terrain segment (at least 1)
+	 */
+	public Terrain(int worldWidth, int worldHeight, int horizon, int noiseHeight, long seed, int segmentWidth)
+	{
+		this.seed = seed;
+		this.horizon = horizon;
+		this.noiseHeight = noiseHeight;
+		this.terrainSegmentWidth = Math.max(1, segmentWidth);
+		this.worldWidth = worldWidth;
+		this.worldHeight = worldHeight;
+		this.nbSegments = worldWidth/terrainSegmentWidth+1;
+		this.chunkSize = Math.max(128, 512/terrainSegmentWidth);
+		this.chunks = new LinkedHashMap<Integer, TerrainChunk>(16, 0.75f, true);
+		this.edits = new HashMap<Integer, float[]>();
+		SplittableRandom random = new SplittableRandom(seed);
+		this.noise = new Noise(random.nextLong(), 4, 0.48f);
+		addMountains(random);
+		int l = 0;
+		while ((terrainSegmentWidth << (l+1)) <= 64) {
+			++l;
+		}
+		this.nbLevels = l;
+		this.levelLength = new int[nbLevels+1];
+		this.levelLength[0] = nbSegments;
+		for (l = 1; l <= nbLevels; l++) {
+			levelLength[l] = (levelLength[l-1]-1)/2+1;
+		}
+		this.levelLow = new int[nbLevels+1];
+		this.levelHigh = new int[nbLevels+1];
+		this.evictedLevels = new HashMap<Integer, float[][]>();
+	}
+
+	/**
+	 * Obtain a coarse level of a chunk, computing it if needed. The levels are
+	 * kept with the chunk in the cache, and aside when it is evicted, so a
+	 * chunk which is only queried at a coarse level (e.g. by the wind) is not
+	 * kept at full resolution.
+	 * @param c Chunk index
+	 * @param level Level (1 to nbLevels)
+	 * @return Vertices of the level whose position falls in the chunk, from
+	 * getFirstLevelVertex(c, level)
+	 */
+	private float[] getChunkLevel(int c, int level)
+	{
+		TerrainChunk chunk = chunks.get(c);
+		float[][] levels = (chunk != null) ? chunk.levels : evictedLevels.get(c);
+		if (levels == null) {
+			levels = new float[nbLevels][];
+			if (chunk != null) {
+				chunk.levels = levels;
+			} else {
+				evictedLevels.put(c, levels);
+			}
+		}
+		if (levels[level-1] == null) {
+			int low = getFirstLevelVertex(c, level);
+			int high = Math.min(getFirstLevelVertex(c+1, level), levelLength[level]) - 1;
+			float[] coarse = new float[high - low + 1];
+			computeLevel(level, low, high);
+			java.lang.System.arraycopy(levelScratch, 0, coarse, 0, coarse.length);
+			levels[level-1] = coarse;
+		}
+		return levels[level-1];
+	}
+
+	/**
+	 * First vertex of a level whose position falls in a chunk.
+	 * @param c Chunk index
+	 * @param level Level
+	 * @return Vertex index in the level
+	 */
+	private int getFirstLevelVertex(int c, int level)
+	{
+		return (c*chunkSize + (1 << level) - 1) >> level;
+	}
+
+	/**
+	 * Compute a span of vertices of a coarse level from the heights, into the
+	 * start of levelScratch: the span of each level below which it depends on
+	 * is reduced in place, up to the level.
+	 * @param level Level (1 to nbLevels)
+	 * @param low First vertex index in the level
+	 * @param high Last vertex index in the level
+	 */
+	private void computeLevel(int level, int low, int high)
+	{
+		levelLow[level] = low;
+		levelHigh[level] = high;
+		for (int l = level; l > 0; l--) {
+			levelLow[l-1] = Math.max(2*levelLow[l]-1, 0);
+			levelHigh[l-1] = Math.min(2*levelHigh[l]+1, levelLength[l-1]-1);
+		}
+		if (levelScratch.length < levelHigh[0] - levelLow[0] + 1) {
+			levelScratch = new float[levelHigh[0] - levelLow[0] + 1];
+		}
+		peekHeights(levelLow[0], levelHigh[0], levelScratch);
+		for (int l = 1; l <= level; l++) {
+			int fineLow = levelLow[l-1], last = levelLength[l-1]-1;
+			// The coarse vertex k is written after the fine vertices before 2k have been read.
+			for (int j = levelLow[l]; j <= levelHigh[l]; j++) {
+				int i = 2*j;
+				levelScratch[j - levelLow[l]] = 0.25f*(levelScratch[Math.max(i-1, 0) - fineLow]
+						+ 2*levelScratch[i - fineLow] + levelScratch[Math.min(i+1, last) - fineLow]);
+			}
+		}
+	}
+
+	/**
+	 * Heights of consecutive vertices, without generating their chunks (the
+	 * ones which are not in the cache are generated into a scratch array).
+	 * @param low First vertex index
+	 * @param high Last vertex index
+	 * @param out Array receiving the heights
+	 */
+	private void peekHeights(int low, int high, float[] out)
+	{
+		for (int i = low; i <= high; ) {
+			int c = i/chunkSize, first = c*chunkSize;
+			int n = Math.min(high+1, first + chunkSize) - i;
+			TerrainChunk chunk = chunks.get(c);
+			float[] saved = (chunk != null) ? chunk.heights : edits.get(c);
+			if (saved != null) {
+				java.lang.System.arraycopy(saved, i - first, out, i - low, n);
+			} else {
+				if (generatedScratch.length < n) {
+					generatedScratch = new float[chunkSize];
+				}
+				generateHeights(i, n, generatedScratch);
+				java.lang.System.arraycopy(generatedScratch, 0, out, i - low, n);
+			}
+			i += n;
+		}
+	}
+
+	/**
+	 * Update the coarse levels which have been computed after a change of the heights.
+	 * @param low First changed vertex index
+	 * @param high Last changed vertex index
+	 */
+	private void updateLevels(int low, int high)
+	{
+		for (int l = 1; l <= nbLevels; l++) {
+			low = low/2;
+			high = Math.min((high+1)/2, levelLength[l]-1);
+			int first = -1;
+			for (int c = (low << l)/chunkSize; c <= (high << l)/chunkSize; c++) {
+				TerrainChunk chunk = chunks.get(c);
+				float[][] levels = (chunk != null) ? chunk.levels : evictedLevels.get(c);
+				if (levels == null || levels[l-1] == null)
+					continue;
+				if (first < 0) {
+					computeLevel(l, low, high);
+					first = low;
+				}
+				int chunkFirst = getFirstLevelVertex(c, l);
+				int from = Math.max(low, chunkFirst), to = Math.min(high, chunkFirst + levels[l-1].length - 1);
+				java.lang.System.arraycopy(levelScratch, from - first, levels[l-1], from - chunkFirst, to - from + 1);
+			}
+		}
+	}
+
+	/** Pick the general mountain shape. The heightmap itself is only generated
+	 * lazily, chunk by chunk, using simple linear interpolation between the
+	 * edges/summits/seafloor.
+	 * @param random Random generator seeded with the terrain seed
+	 */
+	private void addMountains(SplittableRandom random)
+	{
+		leftShore = new Vec(0, horizon);
+		rightShore = new Vec(worldWidth, horizon);
+		seaFloor = new Vec(worldWidth/2,horizon+175);
+		summit1 = new Vec();
+		summit2 = new Vec();
+		summit1.x = (int) random(random, 0.10f*worldWidth, 0.20f*worldWidth);
+		summit1.y = horizon-(int) random(random, 150, 400);
+		summit2.x = (int) random(random, 0.80f*worldWidth, 0.90f*worldWidth);
+		summit2.y = horizon-(int) random(random, 150, 400);
+		summit1Index = (int) Math.ceil(summit1.x/terrainSegmentWidth);
+		seaFloorIndex = (int) Math.ceil(seaFloor.x/terrainSegmentWidth);
+		summit2Index = (int) Math.ceil(summit2.x/terrainSegmentWidth);
+	}
+
+	private static float random(SplittableRandom random, float low, float high)
+	{
+		return low + random.nextFloat()*(high - low);
+	}
+
+	/**
+	 * Return the interpolated moutain height based on the current x-coord.
+	 * @param start Starting interpolation point
+	 * @param end Ending interpolation point
+	 * @param x Current x-coord
+	 * @return Interpolated height
+	 */
+	private float moutainLinearInterpolation(Vec start, Vec end, int x)
+	{
+		int width = (int) (end.x - start.x);
+		float inter = (x - start.x)/(float)(width);
+		return start.y+(int)(inter*(end.y - start.y));
+	}
+
+	/**
+	 * Generated (undeformed) height of a terrain vertex: the mountain shape
+	 * with the perlin noise added to it. This only depends on the vertex index
+	 * and the noise seed, so chunks can be regenerated in any order.
+	 * @param i Global vertex index
+	 * @return Height (y-coord)
+	 */
+	private float generateHeight(int i)
+	{
+		return mountainHeight(i) + noiseHeight*(noise.noise(noiseX(i))-0.5f);
+	}
+
+	/**
+	 * Generated heights of consecutive vertices (equal to generateHeight for
+	 * each of them), with the noise evaluated as a batch.
+	 * @param first Global index of the first vertex
+	 * @param n Number of vertices
+	 * @param out Array receiving the heights
+	 */
+	private void generateHeights(int first, int n, float[] out)
+	{
+		for(int k=0; k<n; ++k) {
+			out[k] = noiseX(first + k);
+		}
+		noise.noise(out, out, n, ForkJoinPool.commonPool());
+		for(int k=0; k<n; ++k) {
+			out[k] = mountainHeight(first + k) + noiseHeight*(out[k]-0.5f);
+		}
+	}
+
+	/**
+	 * Position of a vertex in the noise (0.06 per segment of 4 pixels).
+	 * @param i Global vertex index
+	 * @return Noise coordinate
+	 */
+	private float noiseX(int i)
+	{
+		return 0.06f*i*terrainSegmentWidth/4;
+	}
+
+	/**
+	 * Mountain shape under a vertex, without the noise.
+	 * @param i Global vertex index
+	 * @return Height (y-coord)
+	 */
+	private float mountainHeight(int i)
+	{
+		int x = i*terrainSegmentWidth;
+		float y;
+		if(x < summit1.x) {
+			y = moutainLinearInterpolation(leftShore, summit1, x);
+		} else if (x < seaFloor.x) {
+			y = moutainLinearInterpolation(summit1, seaFloor, x);
+		} else if (x < summit2.x) {
+			y = moutainLinearInterpolation(seaFloor, summit2, x);
+		} else {
+			y = moutainLinearInterpolation(summit2, rightShore, x);
+		}
+		return y;
+	}
+
+	/**
+	 * Generate a chunk of the heightmap (restoring its deformations if it had been evicted).
+	 * @param c Chunk index
+	 * @return New chunk
+	 */
+	private TerrainChunk generateChunk(int c)
+	{
+		return generateChunk(c, null, 0);
+	}
+
+	/**
+	 * Generate a chunk of the heightmap from heights generated beforehand
+	 * (restoring its deformations if it had been evicted).
+	 * @param c Chunk index
+	 * @param generated Generated heights (null to generate them)
+	 * @param offset Index of the first vertex of the chunk in generated
+	 * @return New chunk
+	 */
+	private TerrainChunk generateChunk(int c, float[] generated, int offset)
+	{
+		int first = c*chunkSize;
+		int size = Math.min(chunkSize, nbSegments - first);
+		TerrainChunk chunk = new TerrainChunk(c, first, size);
+		float[] saved = edits.remove(c);
+		if (saved != null) {
+			java.lang.System.arraycopy(saved, 0, chunk.heights, 0, size);
+		} else if (generated != null) {
+			java.lang.System.arraycopy(generated, offset, chunk.heights, 0, size);
+		} else {
+			generateHeights(first, size, chunk.heights);
+		}
+		chunk.deformed = saved != null;
+		chunk.levels = evictedLevels.remove(c);
+		for(int k=0; k<size; ++k) {
+			computeDerivatives(first + k, chunk);
+		}
+		chunk.buildBounds(terrainSegmentWidth);
+		return chunk;
+	}
+
+	/**
+	 * Obtain a chunk, generating it if it is not in the cache.
+	 * @param c Chunk index
+	 * @return Terrain chunk
+	 */
+	public TerrainChunk getChunk(int c)
+	{
+		TerrainChunk chunk = lastChunk;
+		if (chunk == null || chunk.index != c) {
+			chunk = chunks.get(c);
+			if (chunk == null) {
+				chunk = generateChunk(c);
+				chunks.put(c, chunk);
+			}
+			lastChunk = chunk;
+		}
+		chunk.lastUsedFrame = frame;
+		return chunk;
+	}
+
+	/**
+	 * Height of a vertex without generating its chunk
+	 * (used at the chunk boundaries while generating a neighbour).
+	 * @param i Global vertex index
+	 * @return Height (y-coord)
+	 */
+	private float peekHeight(int i)
+	{
+		int c = i/chunkSize;
+		TerrainChunk chunk = chunks.get(c);
+		if (chunk != null) {
+			return chunk.heights[i - chunk.firstVertex];
+		}
+		float[] saved = edits.get(c);
+		if (saved != null) {
+			return saved[i - c*chunkSize];
+		}
+		return generateHeight(i);
+	}
+
+	/**
+	 * Generate ahead of time the chunks under a horizontal range, e.g. on a
+	 * background thread before the terrain is handed over to the game. The
+	 * noise of consecutive missing chunks is evaluated as a single batch, large
+	 * enough for its octaves to be evaluated in parallel.
+	 * @param minX Left x-coord
+	 * @param maxX Right x-coord
+	 */
+	public void prefetch(float minX, float maxX)
+	{
+		int high = getHighIndex(maxX)/chunkSize;
+		for(int c=getLowIndex(minX)/chunkSize; c<=high; ) {
+			if (!isMissing(c)) {
+				getChunk(c);
+				++c;
+				continue;
+			}
+			int last = c;
+			while (last < high && isMissing(last+1))
+				++last;
+			int first = c*chunkSize;
+			int n = Math.min((last+1)*chunkSize, nbSegments) - first;
+			float[] batch = new float[n];
+			generateHeights(first, n, batch);
+			for(; c<=last; ++c) {
+				TerrainChunk chunk = generateChunk(c, batch, c*chunkSize - first);
+				chunk.lastUsedFrame = frame;
+				chunks.put(c, chunk);
+			}
+		}
+	}
+
+	/**
+	 * Determine whether a chunk has to be generated from the noise.
+	 * @param c Chunk index
+	 * @return True if it is neither in the cache nor deformed
+	 */
+	private boolean isMissing(int c)
+	{
+		return !chunks.containsKey(c) && !edits.containsKey(c);
+	}
+
+	/**
+	 * Number of batches of the terrain noise whose octaves were evaluated in parallel.
+	 * @return int quantity
+	 */
+	public int getForkedNoiseBatches()
+	{
+		return noise.getForkedBatches();
+	}
+
+	/**
+	 * Obtain the x-coord of a terrain vertex.
+	 * @param i Global vertex index
+	 * @return Horizontal position
+	 */
+	public float getX(int i)
+	{
+		return i*terrainSegmentWidth;
+	}
+
+	/**
+	 * Obtain the height (y-coord) of a terrain vertex.
+	 * @param i Global vertex index
+	 * @return Height
+	 */
+	public float getHeight(int i)
+	{
+		TerrainChunk chunk = getChunk(i/chunkSize);
+		return chunk.heights[i - chunk.firstVertex];
+	}
+
+	/**
+	 * Obtain the slope (dy/dx) of the segment starting at a terrain vertex.
+	 * @param i Global vertex index
+	 * @return Slope
+	 */
+	public float getSlope(int i)
+	{
+		TerrainChunk chunk = getChunk(i/chunkSize);
+		return chunk.slopes[i - chunk.firstVertex];
+	}
+
+	/**
+	 * Obtain a terrain normal (perpendicular to the terrain).
+	 * @param i Global vertex index
+	 * @param normal Vec receiving the normal
+	 */
+	public void getNormal(int i, Vec normal)
+	{
+		TerrainChunk chunk = getChunk(i/chunkSize);
+		normal.set(chunk.normalX[i - chunk.firstVertex], chunk.normalY[i - chunk.firstVertex], 0);
+	}
+
+	/**
+	 * Obtain the terrain height under a batch of horizontal positions, as a tight
+	 * loop over the primitive arrays (no allocation, no map lookup as long as
+	 * consecutive positions fall in the same chunk).
+	 * Positions outside of the world get an infinite height (no terrain).
+	 * @param xs Horizontal positions
+	 * @param heights Array receiving the heights
+	 * @param n Number of positions
+	 */
+	public void getHeightsUnder(float[] xs, float[] heights, int n)
+	{
+		float invWidth = 1.0f/terrainSegmentWidth;
+		float maxX = (nbSegments-1)*terrainSegmentWidth;
+		TerrainChunk chunk = null;
+		for(int k=0; k<n; ++k) {
+			float x = xs[k];
+			if (!(x >= 0 && x < maxX)) {
+				heights[k] = Float.POSITIVE_INFINITY;
+				continue;
+			}
+			int i = (int) (x*invWidth);
+			int local = i - ((chunk != null) ? chunk.firstVertex : 0);
+			if (chunk == null || local < 0 || local >= chunk.size) {
+				chunk = getChunk(i/chunkSize);
+				local = i - chunk.firstVertex;
+			}
+			heights[k] = chunk.heights[local] + chunk.slopes[local]*(x - i*terrainSegmentWidth);
+		}
+	}
+
+	/**
+	 * Obtain the height of a coarse level of the heightmap under a batch of
+	 * horizontal positions (linear interpolation between its vertices), for the
+	 * far-field queries which do not need every detail of the terrain.
+	 * Positions outside of the world get an infinite height (no terrain).
+	 * @param xs Horizontal positions
+	 * @param heights Array receiving the heights
+	 * @param n Number of positions
+	 * @param level Level (0 for the full resolution, at most nbLevels)
+	 */
+	public void getHeightsUnder(float[] xs, float[] heights, int n, int level)
+	{
+		level = Math.min(level, nbLevels);
+		if (level <= 0) {
+			getHeightsUnder(xs, heights, n);
+			return;
+		}
+		float invWidth = 1.0f/(terrainSegmentWidth << level);
+		float maxX = (nbSegments-1)*terrainSegmentWidth;
+		int length = levelLength[level];
+		float[] coarse = null;
+		int first = 0;
+		for(int k=0; k<n; ++k) {
+			float x = xs[k];
+			if (!(x >= 0 && x < maxX)) {
+				heights[k] = Float.POSITIVE_INFINITY;
+				continue;
+			}
+			float f = x*invWidth;
+			int j = Math.min((int) f, length-1);
+			if (coarse == null || j < first || j - first >= coarse.length) {
+				int c = (j << level)/chunkSize;
+				coarse = getChunkLevel(c, level);
+				first = getFirstLevelVertex(c, level);
+			}
+			float y0 = coarse[j - first];
+			if (j+1 >= length) {
+				heights[k] = y0;
+				continue;
+			}
+			// The next vertex may be the first of the next chunk.
+			float y1;
+			if (j+1 - first < coarse.length) {
+				y1 = coarse[j+1 - first];
+			} else {
+				int c = ((j+1) << level)/chunkSize;
+				coarse = getChunkLevel(c, level);
+				first = getFirstLevelVertex(c, level);
+				y1 = coarse[j+1 - first];
+			}
+			heights[k] = y0 + (f - j)*(y1 - y0);
+		}
+	}
+
+	/**
+	 * Coarsest level of the heightmap whose segments are not wider than a distance.
+	 * @param spacing Distance between two queries
+	 * @return Level (0 for the full resolution)
+	 */
+	public int getLevel(float spacing)
+	{
+		int level = 0;
+		while (level < nbLevels && (terrainSegmentWidth << (level+1)) <= spacing) {
+			++level;
+		}
+		return level;
+	}
+
+	/**
+	 * Compute the slope and the normal of a terrain vertex based on adjacent vertices.
+	 * @param i Global vertex index
+	 * @param chunk Chunk owning the vertex
+	 */
+	private void computeDerivatives(int i, TerrainChunk chunk)
+	{
+		int k = i - chunk.firstVertex;
+		int prev = Math.max(i-1, 0);
+		int next = Math.min(i+1, nbSegments-1);
+		float prevY = (prev >= chunk.firstVertex) ? chunk.heights[prev - chunk.firstVertex] : peekHeight(prev);
+		float nextY = (next - chunk.firstVertex < chunk.size) ? chunk.heights[next - chunk.firstVertex] : peekHeight(next);
+		chunk.slopes[k] = (next > i) ? (nextY - chunk.heights[k])/terrainSegmentWidth : 0;
+		float nx = nextY - prevY;
+		float ny = -(next - prev)*terrainSegmentWidth;
+		float invLength = 1.0f/(float) Math.sqrt(nx*nx + ny*ny);
+		chunk.normalX[k] = nx*invLength;
+		chunk.normalY[k] = ny*invLength;
+	}
+
+	/**
+	 * Recompute the terrain slopes and normals only over a span of vertices.
+	 * @param low First vertex index
+	 * @param high Last vertex index
+	 */
+	private void updateDerivatives(int low, int high)
+	{
+		low = Math.max(low, 0);
+		high = Math.min(high, nbSegments-1);
+		for(int i=low; i<=high; ++i) {
+			computeDerivatives(i, getChunk(i/chunkSize));
+		}
+		for(int c=low/chunkSize; c<=high/chunkSize; ++c) {
+			TerrainChunk chunk = getChunk(c);
+			int first = chunk.firstVertex;
+			chunk.refitBounds(Math.max(low, first) - first,
+					Math.min(high, first + chunk.size - 1) - first, terrainSegmentWidth);
+		}
+	}
+
+	/**
+	 * Mark the segments starting at the given vertices as needing a repaint.
+	 * @param low First vertex index
+	 * @param high Last vertex index
+	 */
+	private void markDirty(int low, int high)
+	{
+		low = Math.max(low, 0);
+		high = Math.min(high, nbSegments-1);
+		for(int c=low/chunkSize; c<=high/chunkSize; ++c) {
+			TerrainChunk chunk = getChunk(c);
+			int first = chunk.firstVertex;
+			chunk.markDirty(Math.max(low, first) - first,
+					Math.min(high, first + chunk.size - 1) - first);
+		}
+	}
+
+	/**
+	 * Dig a crater in the terrain. Only the touched vertices, their normals and
+	 * the corresponding part of the render cache are updated, so the cost is
+	 * proportional to the crater width.
+	 * @param x Horizontal center of the impact
+	 * @param radius Half-width of the crater
+	 * @param depth Depth at the center of the crater
+	 * @return Array of the two (inclusive) vertex indices enclosing the crater, or null
+	 */
+	public int[] deform(float x, float radius, float depth)
+	{
+		int low = Math.max(0, (int) Math.ceil((x - radius)/terrainSegmentWidth));
+		int high = Math.min(nbSegments-1, (int) ((x + radius)/terrainSegmentWidth));
+		if (low > high)
+			return null;
+		Edit edit = null;
+		if (journal != null) {
+			edit = new Edit(low, high);
+			for(int i=low; i<=high; ++i) {
+				edit.before[i-low] = getHeight(i);
+			}
+		}
+		for(int i=low; i<=high; ++i) {
+			TerrainChunk chunk = getChunk(i/chunkSize);
+			int k = i - chunk.firstVertex;
+			float d = (getX(i) - x)/radius;
+			chunk.heights[k] += depth*(float) Math.sqrt(Math.max(0, 1 - d*d));
+			chunk.heights[k] = Math.min(chunk.heights[k], worldHeight);
+			chunk.deformed = true;
+		}
+		// Slopes and normals depend on the adjacent vertices.
+		updateDerivatives(low-1, high+1);
+		updateLevels(low, high);
+		markDirty(low-1, high);
+		if (edit != null) {
+			for(int i=low; i<=high; ++i) {
+				edit.after[i-low] = getHeight(i);
+			}
+			// The undone deformations can no longer be redone.
+			while (journalFirst + journal.size() > editCount) {
+				journal.remove(journal.size()-1);
+			}
+			journal.add(edit);
+			if (journal.size() > journalCapacity) {
+				journal.remove(0);
+				++journalFirst;
+			}
+		}
+		++editCount;
+		int[] span = {low, high};
+		return span;
+	}
+
+	/**
+	 * Keep a journal of the last deformations, so that they can be undone and
+	 * redone with setEditCount.
+	 * @param capacity Number of deformations kept
+	 */
+	public void enableJournal(int capacity)
+	{
+		journal = new ArrayList<Edit>();
+		journalFirst = editCount;
+		journalCapacity = capacity;
+	}
+
+	/**
+	 * Number of deformations applied to the terrain.
+	 * @return int quantity
+	 */
+	public int getEditCount() {
+		return editCount;
+	}
+
+	/**
+	 * Undo or redo the deformations from the journal, as far as it goes
+	 * toward a given number of applied deformations.
+	 * @param count Number of deformations to be applied
+	 * @return True if the terrain changed
+	 */
+	public boolean setEditCount(int count)
+	{
+		if (journal == null)
+			return false;
+		boolean changed = false;
+		while (editCount > count && editCount > journalFirst) {
+			Edit edit = journal.get(--editCount - journalFirst);
+			setHeights(edit.low, edit.before);
+			changed = true;
+		}
+		while (editCount < count && editCount < journalFirst + journal.size()) {
+			Edit edit = journal.get(editCount++ - journalFirst);
+			setHeights(edit.low, edit.after);
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * Overwrite the heights of consecutive vertices, and update what depends on them.
+	 * @param low First vertex index
+	 * @param heights New heights
+	 */
+	private void setHeights(int low, float[] heights)
+	{
+		int high = low + heights.length - 1;
+		for(int i=low; i<=high; ++i) {
+			TerrainChunk chunk = getChunk(i/chunkSize);
+			chunk.heights[i - chunk.firstVertex] = heights[i-low];
+			chunk.deformed = true;
+		}
+		updateDerivatives(low-1, high+1);
+		updateLevels(low, high);
+		markDirty(low-1, high);
+	}
+
+	/**
+	 * Checksum (64-bit FNV-1a, as System.computeChecksum) of the exact bits
+	 * of the heights of the whole terrain. The chunks which are not loaded
+	 * are generated.
+	 * @return Checksum
+	 */
+	public long computeChecksum()
+	{
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < nbSegments; i++)
+			h = System.mix(h, Float.floatToIntBits(getHeight(i)));
+		return h;
+	}
+
+	/**
+	 * Evict the least recently used chunks which have not been accessed by any
+	 * body or by the camera for a while. Deformed chunks keep their heights.
+	 * Should be called once per frame.
+	 */
+	public void trim()
+	{
+		++frame;
+		int excess = chunks.size() - maxCachedChunks;
+		Iterator<TerrainChunk> it = chunks.values().iterator();
+		while (excess > 0 && it.hasNext()) {
+			TerrainChunk chunk = it.next();
+			if (frame - chunk.lastUsedFrame > keepFrames) {
+				if (chunk.deformed) {
+					edits.put(chunk.index, chunk.saveHeights());
+				}
+				if (chunk.levels != null) {
+					evictedLevels.put(chunk.index, chunk.levels);
+				}
+				if (chunk == lastChunk) {
+					lastChunk = null;
+				}
+				it.remove();
+				--excess;
+			}
+		}
+	}
+
+	/**
+	 * Number of chunks currently held in the cache.
+	 * @return int quantity
+	 */
+	public int getNumberOfCachedChunks() {
+		return chunks.size();
+	}
+
+	/**
+	 * Obtain the first cannon position (2/3 up the first mountain).
+	 * @return Vec position
+	 */
+	public Vec getFirstCannonPosition()
+	{
+		int index = summit1Index;
+		while(getHeight(index) < horizon) {
+			++index;
+		}
+		index = summit1Index+(index-summit1Index)/3;
+		return new Vec(getX(index), getHeight(index));
+	}
+
+	/**
+	 * Obtain the second cannon position (2/3 up the first mountain).
+	 * @return Vec position
+	 */
+	public Vec getSecondCannonPosition()
+	{
+		int index = summit2Index;
+		while(getHeight(index) < horizon) {
+			--index;
+		}
+		index = summit2Index-(summit2Index-index)/3;
+		return new Vec(getX(index), getHeight(index));
+	}
+
+	/**
+	 * Get heightmap indices enclosing a horizontal range.
+	 * This limits the collision detection to the vertices under a body.
+	 * @param minX Left x-coord
+	 * @param maxX Right x-coord
+	 * @return Array of two int indices
+	 */
+	public int[] getBoundingIndices(float minX, float maxX)
+	{
+		int[] pair = new int[2];
+		pair[0] = getLowIndex(minX);
+		pair[1] = getHighIndex(maxX);
+		return pair;
+	}
+
+	/**
+	 * Find the terrain segments whose bounding boxes overlap a box (e.g. the
+	 * box swept by a body), descending the bounds trees of the chunks under it.
+	 * The segments are those starting at the vertices of getBoundingIndices,
+	 * minus the ones entirely above or below the box, in increasing order.
+	 * The result is read with getFoundSegment.
+	 * @param minX Left x-coord
+	 * @param maxX Right x-coord
+	 * @param minY Top y-coord
+	 * @param maxY Bottom y-coord
+	 * @return Number of segments found
+	 */
+	public int findSegments(float minX, float maxX, float minY, float maxY)
+	{
+		int low = getLowIndex(minX), high = getHighIndex(maxX);
+		nbFound = 0;
+		if (found.length < high - low) {
+			found = new int[Math.max(high - low, 2*found.length)];
+		}
+		for(int c=low/chunkSize; low<high && c<=(high-1)/chunkSize; ++c) {
+			TerrainChunk chunk = getChunk(c);
+			int first = chunk.firstVertex;
+			nbFound = chunk.findSegments(1, 0, chunk.leafCount, Math.max(low, first) - first,
+					Math.min(high, first + chunk.size) - first, minY, maxY, found, nbFound);
+		}
+		return nbFound;
+	}
+
+	/**
+	 * Obtain a segment found by the last call to findSegments.
+	 * @param k Rank of the segment (0 to the number found - 1)
+	 * @return Global vertex index of the segment start
+	 */
+	public int getFoundSegment(int k) {
+		return found[k];
+	}
+
+	/**
+	 * Get the heightmap index at or before a x-coord (first index of getBoundingIndices, without allocating).
+	 * @param minX Left x-coord
+	 * @return Index
+	 */
+	public int getLowIndex(float minX)
+	{
+		return Math.max(0, Math.min(nbSegments-1, (int) Math.floor(minX/terrainSegmentWidth)));
+	}
+
+	/**
+	 * Get the heightmap index at or after a x-coord (second index of getBoundingIndices, without allocating).
+	 * @param maxX Right x-coord
+	 * @return Index
+	 */
+	public int getHighIndex(float maxX)
+	{
+		return Math.max(0, Math.min(nbSegments-1, (int) Math.ceil(maxX/terrainSegmentWidth)));
+	}
+
+	/**
+	 * Deformation of a span of vertices, with the heights before and after it.
+	 */
+	private static class Edit
+	{
+		final int low;
+		final float[] before, after;
+
+		Edit(int low, int high)
+		{
+			this.low = low;
+			this.before = new float[high - low + 1];
+			this.after = new float[high - low + 1];
+		}
+	}
+}
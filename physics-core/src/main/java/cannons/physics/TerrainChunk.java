@@ -0,0 +1,145 @@
+package cannons.physics;
+
+public final class TerrainChunk
+{
+	/** Index of the chunk along the world. */
+	public final int index;
+	/** Global index of the first vertex of the chunk. */
+	public final int firstVertex;
+	/** Number of vertices in the chunk. */
+	public final int size;
+	/** Height (y-coord) of the terrain vertices of this chunk. */
+	public float heights[];
+	/** Slope (dy/dx) of the segments starting at the vertices of this chunk. */
+	public float slopes[];
+	/** Terrain normal components (perpendicular to the terrain) of this chunk. */
+	float normalX[], normalY[];
+	/** Coarse levels of the heightmap over the chunk (level l at levels[l-1], null until queried). */
+	float[][] levels;
+	/** True once the chunk was deformed and differs from the generated terrain. */
+	boolean deformed;
+	/** Last frame at which the chunk was accessed (used by the eviction). */
+	int lastUsedFrame;
+	/** Span of local vertex indices waiting to be repainted in the render cache (-1 if clean). */
+	public int dirtyLow = -1, dirtyHigh = -1;
+	/** Number of leaves of the bounds tree (power of two, at least size). */
+	final int leafCount;
+	/**
+	 * Vertical bounds of the segments starting at the vertices of this chunk, as
+	 * an implicit binary tree: node 1 is the root, the children of node n are
+	 * 2n and 2n+1, and the leaf of segment k is leafCount+k. The unused leaves
+	 * are empty (top above bottom).
+	 */
+	float boundsTop[], boundsBottom[];
+
+	TerrainChunk(int index, int firstVertex, int size)
+	{
+		this.index = index;
+		this.firstVertex = firstVertex;
+		this.size = size;
+		this.heights = new float[size];
+		this.slopes = new float[size];
+		this.normalX = new float[size];
+		this.normalY = new float[size];
+		this.leafCount = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		this.boundsTop = new float[2*leafCount];
+		this.boundsBottom = new float[2*leafCount];
+	}
+
+	/**
+	 * Mark a span of local vertices as needing a repaint.
+	 * @param low First local vertex index
+	 * @param high Last local vertex index
+	 */
+	void markDirty(int low, int high)
+	{
+		dirtyLow = (dirtyLow < 0) ? low : Math.min(dirtyLow, low);
+		dirtyHigh = Math.max(dirtyHigh, high);
+	}
+
+	/**
+	 * Build the bounds tree from the heights and slopes.
+	 * @param segmentWidth Width of a terrain segment
+	 */
+	void buildBounds(float segmentWidth)
+	{
+		for (int k = 0; k < leafCount; k++) {
+			setLeafBounds(k, segmentWidth);
+		}
+		for (int n = leafCount-1; n >= 1; n--) {
+			mergeBounds(n);
+		}
+	}
+
+	/**
+	 * Refit the bounds tree after a change of the heights or slopes.
+	 * @param low First local vertex index
+	 * @param high Last local vertex index
+	 * @param segmentWidth Width of a terrain segment
+	 */
+	void refitBounds(int low, int high, float segmentWidth)
+	{
+		for (int k = low; k <= high; k++) {
+			setLeafBounds(k, segmentWidth);
+		}
+		for (int a = (leafCount+low) >> 1, b = (leafCount+high) >> 1; a >= 1; a >>= 1, b >>= 1) {
+			for (int n = a; n <= b; n++) {
+				mergeBounds(n);
+			}
+		}
+	}
+
+	private void setLeafBounds(int k, float segmentWidth)
+	{
+		int n = leafCount + k;
+		if (k < size) {
+			float y0 = heights[k], y1 = heights[k] + slopes[k]*segmentWidth;
+			boundsTop[n] = Math.min(y0, y1);
+			boundsBottom[n] = Math.max(y0, y1);
+		} else {
+			boundsTop[n] = Float.POSITIVE_INFINITY;
+			boundsBottom[n] = Float.NEGATIVE_INFINITY;
+		}
+	}
+
+	private void mergeBounds(int n)
+	{
+		boundsTop[n] = Math.min(boundsTop[2*n], boundsTop[2*n+1]);
+		boundsBottom[n] = Math.max(boundsBottom[2*n], boundsBottom[2*n+1]);
+	}
+
+	/**
+	 * Find the segments of a span whose vertical bounds overlap a range, in increasing order.
+	 * @param n Node of the bounds tree (1 for the root)
+	 * @param nodeLow First leaf covered by the node
+	 * @param nodeHigh Leaf after the last one covered by the node
+	 * @param low First local segment of the span
+	 * @param high Local segment after the last one of the span
+	 * @param minY Top of the range
+	 * @param maxY Bottom of the range
+	 * @param found Array receiving the global indices of the segments
+	 * @param nbFound Number of segments already in the array
+	 * @return New number of segments in the array
+	 */
+	int findSegments(int n, int nodeLow, int nodeHigh, int low, int high, float minY, float maxY, int[] found, int nbFound)
+	{
+		if (nodeHigh <= low || nodeLow >= high || boundsTop[n] > maxY || boundsBottom[n] < minY)
+			return nbFound;
+		if (n >= leafCount) {
+			found[nbFound++] = firstVertex + nodeLow;
+			return nbFound;
+		}
+		int middle = (nodeLow + nodeHigh) >>> 1;
+		nbFound = findSegments(2*n, nodeLow, middle, low, high, minY, maxY, found, nbFound);
+		return findSegments(2*n+1, middle, nodeHigh, low, high, minY, maxY, found, nbFound);
+	}
+
+	/**
+	 * Save the heights of a deformed chunk so that it can be restored after an eviction.
+	 * @return Array of y-coordinates
+	 */
+	float[] saveHeights()
+	{
+		return heights.clone();
+	}
+}
@@ -0,0 +1,143 @@
+package cannons.physics;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Generate the terrain of the next match on a background thread while the
+ * current one is being played. The terrain is created with its seed, and the
+ * chunks under the cannons and the first screen are generated ahead of time,
+ * so that a reset only swaps the new terrain in (the render caches are still
+ * painted by the animation thread, when first drawn).
+ * The seeds are drawn from the random stream in the same order as without
+ * prefetching, so a seeded game gets the same terrains.
+ */
+public class TerrainGenerator
+{
+	/** Dimensions of the terrains. */
+	private final int worldWidth, worldHeight, horizon, noiseHeight;
+	/** Width of the view, generated ahead of time around the first cannon. */
+	private final int viewWidth;
+	/** Random stream of the terrain seeds. */
+	private final SplittableRandom seeds;
+	/** Single background thread generating the terrains. */
+	private final ExecutorService executor;
+	/** Terrain being generated for the next match (null if none), with its seed and segment width. */
+	private Future<Terrain> next;
+	private long nextSeed;
+	private int nextSegmentWidth;
+
+	/**
+	 * @param worldWidth Width of the world
+	 * @param worldHeight Height of the world
+	 * @param horizon Water level
+	 * @param noiseHeight Height of the noise
+	 * @param viewWidth Width of the view
+	 * @param seeds Random stream of the terrain seeds
+	 */
+	public TerrainGenerator(int worldWidth, int worldHeight, int horizon, int noiseHeight,
+			int viewWidth, SplittableRandom seeds)
+	{
+		this.worldWidth = worldWidth;
+		this.worldHeight = worldHeight;
+		this.horizon = horizon;
+		this.noiseHeight = noiseHeight;
+		this.viewWidth = viewWidth;
+		this.seeds = seeds;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "terrain-generator");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Start generating the next terrain, unless it is already being generated.
+	 * If it is being generated with another segment width, it is generated
+	 * again from the same seed.
+	 * @param segmentWidth Width of a terrain segment
+	 */
+	public void prefetch(final int segmentWidth)
+	{
+		if (next != null && nextSegmentWidth == segmentWidth)
+			return;
+		if (next != null) {
+			next.cancel(false);
+		} else {
+			nextSeed = seeds.nextLong();
+		}
+		nextSegmentWidth = segmentWidth;
+		final long seed = nextSeed;
+		next = executor.submit(new Callable<Terrain>() {
+			public Terrain call() {
+				return generate(seed, segmentWidth);
+			}
+		});
+	}
+
+	/**
+	 * Obtain the next terrain, waiting for it if it is not ready yet, and start
+	 * generating the following one.
+	 * @param segmentWidth Width of a terrain segment (the terrain is generated
+	 * again from the same seed, on the background thread, if it was prefetched
+	 * with another width)
+	 * @return New terrain
+	 */
+	public Terrain take(int segmentWidth)
+	{
+		prefetch(segmentWidth);
+		Terrain terrain;
+		try {
+			terrain = next.get();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		next = null;
+		prefetch(segmentWidth);
+		return terrain;
+	}
+
+	/**
+	 * Determine whether the next terrain is ready to be taken without waiting.
+	 * @return True if it has been generated
+	 */
+	public boolean isReady()
+	{
+		return next != null && next.isDone();
+	}
+
+	/**
+	 * Stop the background thread (the terrain being generated is dropped).
+	 */
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Create a terrain and generate the chunks which are needed right after a reset.
+	 * @param seed Seed of the terrain
+	 * @param segmentWidth Width of a terrain segment
+	 * @return New terrain
+	 */
+	private Terrain generate(long seed, int segmentWidth)
+	{
+		Terrain terrain = new Terrain(worldWidth, worldHeight, horizon, noiseHeight, seed, segmentWidth);
+		float first = terrain.getFirstCannonPosition().x;
+		float second = terrain.getSecondCannonPosition().x;
+		// The camera starts on the first cannon, wherever it is on the screen.
+		terrain.prefetch(first - viewWidth, first + viewWidth);
+		terrain.prefetch(second - viewWidth/2, second + viewWidth/2);
+		return terrain;
+	}
+}
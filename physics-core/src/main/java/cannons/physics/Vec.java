@@ -0,0 +1,194 @@
+package cannons.physics;
+
+/**
+ * Vector of the simulation, so that it does not depend on Processing. It has
+ * the fields and the methods of PVector which the simulation uses, with the
+ * same float arithmetic (in the same order), so that the results are the
+ * same to the bit. The z component is kept for that reason, but it is 0 in
+ * the simulation.
+ */
+public final class Vec
+{
+	public float x, y, z;
+
+	public Vec()
+	{
+	}
+
+	public Vec(float x, float y)
+	{
+		this.x = x;
+		this.y = y;
+	}
+
+	public Vec(float x, float y, float z)
+	{
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+
+	public void set(float x, float y, float z)
+	{
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+
+	public void set(Vec v)
+	{
+		x = v.x;
+		y = v.y;
+		z = v.z;
+	}
+
+	/**
+	 * Obtain a copy of the vector.
+	 * @return New vector
+	 */
+	public Vec get()
+	{
+		return new Vec(x, y, z);
+	}
+
+	public float mag()
+	{
+		return (float) Math.sqrt(x*x + y*y + z*z);
+	}
+
+	public void add(Vec v)
+	{
+		x += v.x;
+		y += v.y;
+		z += v.z;
+	}
+
+	public void add(float x, float y, float z)
+	{
+		this.x += x;
+		this.y += y;
+		this.z += z;
+	}
+
+	public static Vec add(Vec a, Vec b)
+	{
+		return new Vec(a.x + b.x, a.y + b.y, a.z + b.z);
+	}
+
+	public void sub(Vec v)
+	{
+		x -= v.x;
+		y -= v.y;
+		z -= v.z;
+	}
+
+	public void sub(float x, float y, float z)
+	{
+		this.x -= x;
+		this.y -= y;
+		this.z -= z;
+	}
+
+	public static Vec sub(Vec a, Vec b)
+	{
+		return new Vec(a.x - b.x, a.y - b.y, a.z - b.z);
+	}
+
+	public void mult(float n)
+	{
+		x *= n;
+		y *= n;
+		z *= n;
+	}
+
+	public static Vec mult(Vec v, float n)
+	{
+		return new Vec(v.x*n, v.y*n, v.z*n);
+	}
+
+	public void div(float n)
+	{
+		x /= n;
+		y /= n;
+		z /= n;
+	}
+
+	public float dist(Vec v)
+	{
+		float dx = x - v.x, dy = y - v.y, dz = z - v.z;
+		return (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+	}
+
+	public static float dist(Vec a, Vec b)
+	{
+		return a.dist(b);
+	}
+
+	public float dot(Vec v)
+	{
+		return x*v.x + y*v.y + z*v.z;
+	}
+
+	public float dot(float x, float y, float z)
+	{
+		return this.x*x + this.y*y + this.z*z;
+	}
+
+	/**
+	 * Normalize the vector (unless its length is 0 or 1).
+	 */
+	public void normalize()
+	{
+		float m = mag();
+		if (m != 0 && m != 1) {
+			div(m);
+		}
+	}
+
+	/**
+	 * Write the normalized vector into another one.
+	 * @param target Vector receiving the result (a new one if null)
+	 * @return Target
+	 */
+	public Vec normalize(Vec target)
+	{
+		if (target == null) {
+			target = new Vec();
+		}
+		float m = mag();
+		if (m > 0) {
+			target.set(x/m, y/m, z/m);
+		} else {
+			target.set(x, y, z);
+		}
+		return target;
+	}
+
+	/**
+	 * Scale the vector down to a maximal length.
+	 * @param max Maximal length
+	 */
+	public void limit(float max)
+	{
+		if (mag() > max) {
+			normalize();
+			mult(max);
+		}
+	}
+
+	/**
+	 * Angle of the vector in 2D, clockwise on the screen.
+	 * @return Angle in radians
+	 */
+	public float heading2D()
+	{
+		float angle = (float) Math.atan2(-y, x);
+		return -1*angle;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "[ " + x + ", " + y + ", " + z + " ]";
+	}
+}
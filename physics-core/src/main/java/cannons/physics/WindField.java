@@ -0,0 +1,187 @@
+package cannons.physics;
+
+/**
+ * Wind force varying over the world, stored in a grid of cells and sampled
+ * with a bilinear interpolation. The global lateral wind (WindForce) is
+ * modulated in each cell by:
+ * - the altitude: the wind is weaker close to the ground,
+ * - the terrain shadow: the wind is weaker downwind of a higher ridge,
+ * - gusts: a noise field drifting with the wind, which also adds some
+ *   vertical motion.
+ * The altitude and shadow factors only depend on the terrain, so they are
+ * computed once for both wind directions and only recomputed when the
+ * terrain is deformed. The gusts are refreshed once per step; the grid is
+ * read-only between two steps (it may then be sampled by several threads).
+ */
+public final class WindField
+{
+	/** Size of the lattice cells of the gust noise, in pixels. */
+	static final float gustScale = 1.0f/160.0f;
+	/** Drift of the gusts along the wind, in noise cells per step. */
+	static final float gustDrift = 0.01f;
+
+	/** Terrain the factors were computed for (null if none yet). */
+	private Terrain terrain;
+	/** Physics parameters the factors were computed with. */
+	private PhysicsConfig config;
+	/** False when the factors must be recomputed. */
+	private boolean valid;
+	/** Side of a cell and number of columns and rows. */
+	private float cellSize;
+	private int cols, rows;
+	/** Altitude and shadow factor of each cell, for a wind blowing to the right and to the left. */
+	private float[] factorRight = new float[0], factorLeft = new float[0];
+	/** Wind force in each cell. */
+	private float[] forceX = new float[0], forceY = new float[0];
+	/** Gust noise and its drift. */
+	private final Noise noise;
+	private float drift;
+
+	/**
+	 * @param seed Seed of the gusts
+	 */
+	public WindField(long seed)
+	{
+		this.noise = new Noise(seed, 3, 0.5f);
+	}
+
+	/**
+	 * Recompute the terrain factors at the next update (e.g. after a crater).
+	 */
+	public void invalidate()
+	{
+		valid = false;
+	}
+
+	/**
+	 * Obtain the drift of the gusts (e.g. to save the state).
+	 * @return Drift
+	 */
+	public float getDrift()
+	{
+		return drift;
+	}
+
+	/**
+	 * Restore the drift of the gusts (the forces are refreshed by the next update).
+	 * @param drift Drift
+	 */
+	public void setDrift(float drift)
+	{
+		this.drift = drift;
+	}
+
+	/**
+	 * Refresh the force of every cell.
+	 * @param terrain Terrain
+	 * @param windX Global lateral wind force
+	 * @param config Physics parameters
+	 */
+	public void update(Terrain terrain, float windX, PhysicsConfig config)
+	{
+		if (!valid || terrain != this.terrain || config != this.config)
+			computeFactors(terrain, config);
+		drift += gustDrift * Math.signum(windX);
+		float[] factor = (windX >= 0) ? factorRight : factorLeft;
+		float gust = config.windGust;
+		float magnitude = Math.abs(windX);
+		for (int r = 0; r < rows; r++) {
+			float ny = (r + 0.5f) * cellSize * gustScale;
+			for (int c = 0; c < cols; c++) {
+				int k = r*cols + c;
+				float nx = (c + 0.5f) * cellSize * gustScale - drift;
+				float g = 2*noise.noise(nx + 256, ny, 0) - 1;
+				float v = 2*noise.noise(nx + 256, ny, 8) - 1;
+				forceX[k] = windX * factor[k] * (1 + gust*g);
+				forceY[k] = magnitude * factor[k] * gust * 0.5f * v;
+			}
+		}
+	}
+
+	/**
+	 * Compute the altitude and shadow factors of the cells from the terrain profile.
+	 * @param terrain Terrain
+	 * @param config Physics parameters
+	 */
+	private void computeFactors(Terrain terrain, PhysicsConfig config)
+	{
+		this.terrain = terrain;
+		this.config = config;
+		cellSize = Math.max(4, config.windCellSize);
+		cols = (int) Math.ceil(terrain.worldWidth / cellSize) + 1;
+		rows = (int) Math.ceil(terrain.worldHeight / cellSize) + 1;
+		if (forceX.length < cols*rows) {
+			factorRight = new float[cols*rows];
+			factorLeft = new float[cols*rows];
+			forceX = new float[cols*rows];
+			forceY = new float[cols*rows];
+		}
+		float[] xs = new float[cols], ground = new float[cols];
+		for (int c = 0; c < cols; c++) {
+			xs[c] = Math.min((c + 0.5f) * cellSize, terrain.worldWidth - 1);
+		}
+		// A coarse level is enough (and spares generating every chunk of the world).
+		terrain.getHeightsUnder(xs, ground, cols, terrain.getLevel(cellSize));
+		// Highest ridge (smallest y) upwind of each column, within the shadow length.
+		int reach = (int) Math.ceil(config.windShadowLength / cellSize);
+		float[] ridgeRight = new float[cols], ridgeLeft = new float[cols];
+		for (int c = 0; c < cols; c++) {
+			ridgeRight[c] = ridgeLeft[c] = Float.POSITIVE_INFINITY;
+			for (int d = 1; d <= reach; d++) {
+				if (c - d >= 0)
+					ridgeRight[c] = Math.min(ridgeRight[c], ground[c - d]);
+				if (c + d < cols)
+					ridgeLeft[c] = Math.min(ridgeLeft[c], ground[c + d]);
+			}
+		}
+		for (int r = 0; r < rows; r++) {
+			float y = (r + 0.5f) * cellSize;
+			for (int c = 0; c < cols; c++) {
+				float altitude = ground[c] - y;
+				float f = (altitude <= 0) ? 0 : 1 - (float) StrictMath.exp(-altitude / config.windAltitudeScale);
+				factorRight[r*cols + c] = f * shadow(y, ridgeRight[c], config);
+				factorLeft[r*cols + c] = f * shadow(y, ridgeLeft[c], config);
+			}
+		}
+		valid = true;
+	}
+
+	/**
+	 * Fraction of the wind left below a ridge (one cell of transition).
+	 * @param y Height of the cell
+	 * @param ridge Height of the upwind ridge
+	 * @param config Physics parameters
+	 * @return Shadow factor, from windShadowFactor to 1
+	 */
+	private float shadow(float y, float ridge, PhysicsConfig config)
+	{
+		float depth = Math.max(0, Math.min(1, (y - ridge) / cellSize));
+		return 1 - depth * (1 - config.windShadowFactor);
+	}
+
+	/**
+	 * Obtain the wind force at a position (bilinear interpolation between the cells).
+	 * @param x Horizontal position (world coordinates)
+	 * @param y Vertical position
+	 * @param out Vec receiving the force
+	 */
+	public void sample(float x, float y, Vec out)
+	{
+		if (cols == 0) {
+			out.set(0, 0, 0);
+			return;
+		}
+		float fx = Math.max(0, Math.min(cols - 1.001f, x / cellSize - 0.5f));
+		float fy = Math.max(0, Math.min(rows - 1.001f, y / cellSize - 0.5f));
+		int c = (int) fx, r = (int) fy;
+		float tx = fx - c, ty = fy - r;
+		int k = r*cols + c;
+		float top = forceX[k] + tx * (forceX[k + 1] - forceX[k]);
+		float bottom = forceX[k + cols] + tx * (forceX[k + cols + 1] - forceX[k + cols]);
+		out.x = top + ty * (bottom - top);
+		top = forceY[k] + tx * (forceY[k + 1] - forceY[k]);
+		bottom = forceY[k + cols] + tx * (forceY[k + cols + 1] - forceY[k + cols]);
+		out.y = top + ty * (bottom - top);
+		out.z = 0;
+	}
+}
@@ -0,0 +1,76 @@
+package cannons.physics;
+
+import java.util.SplittableRandom;
+
+public final class WindForce
+{
+	/** Force of the wind */
+	private Vec force;
+	/** Varying time which will affect the force */
+	private float time;
+	/** Size of the time increment affecting the speed of change.*/
+	private float stepSize;
+
+	WindForce(SplittableRandom random) {
+		time = random.nextFloat()*Constants.TWO_PI;
+		force = new Vec(0,0);
+		stepSize = 0.004f;
+	}
+	
+	/**
+	 * Increment the force in time.
+	 * @param config Physics parameters
+	 */
+	public void step(PhysicsConfig config)
+	{
+		time += stepSize;
+		force.x = config.maxWindForceMagnitude*(float) StrictMath.sin(time);
+	}
+
+	/**
+	 * Obtain the lateral wind force.
+	 * @return Wind force Vec 
+	 */
+	public Vec getForce()
+	{
+		return force.get();
+	}
+	
+	/**
+	 * Obtain the lateral wind force without copying it.
+	 * @return Horizontal component of the wind force
+	 */
+	public float getForceX()
+	{
+		return force.x;
+	}
+
+	/**
+	 * Obtain the time driving the wind variations (e.g. to save the state).
+	 * @return Time
+	 */
+	public float getTime()
+	{
+		return time;
+	}
+
+	/**
+	 * Restore a saved state of the wind.
+	 * @param time Time driving the wind variations
+	 * @param x Horizontal component of the wind force
+	 */
+	public void setState(float time, float x)
+	{
+		this.time = time;
+		force.x = x;
+	}
+
+	/**
+	 * Override the lateral wind force (e.g. with the value received from a server).
+	 * @param x Horizontal component of the wind force
+	 */
+	public void setForceX(float x)
+	{
+		force.x = x;
+	}
+}
@@ -0,0 +1,79 @@
+package cannons.physics;
+
+/**
+ * Complete simulation state of a tick, as columns (one row per body, in the
+ * order of the system, which is the order of their ids): enough to resume
+ * the simulation from it. Filled by System.saveState and applied with
+ * System.loadState. The arrays grow as needed and are reused, so saving the
+ * state after every tick does not allocate.
+ */
+public final class WorldState
+{
+	/** Number of scalar (float) fields of a body. */
+	static final int FLOATS = 11;
+	/** Number of integer fields of a body. */
+	static final int INTS = 5;
+	/** Float fields: indices in the rows of the floats array. */
+	static final int X = 0, Y = 1, PX = 2, PY = 3, AX = 4, AY = 5, ANGLE = 6, PANGLE = 7, RAD = 8, INIT_RAD = 9, MASS = 10;
+	/** Integer fields: indices in the rows of the ints array. */
+	static final int ID = 0, FLAGS = 1, REST_STEPS = 2, FRAGMENT_SLOT = 3, FRAGMENT_AGE = 4;
+	/** Body flags. */
+	static final int HUMAN = 1, COLLIDED = 2, SLEEPING = 4, PROJECTILE = 8;
+
+	/** Tick of the state. */
+	int tick;
+	/** Number of bodies. */
+	int size;
+	/** Float fields of the bodies, FLOATS per body. */
+	float[] floats = new float[0];
+	/** Integer fields of the bodies, INTS per body. */
+	int[] ints = new int[0];
+	/** Shape of each body (null for a circle). */
+	ConvexPolygon[] polygons = new ConvexPolygon[0];
+
+	/** Global state: shock, wind and gravity. */
+	float shockFactor, windTime, windForce, windDrift, gravityAngle;
+	/** Id of the next body added. */
+	int nextBodyId;
+	/** Whether the border and cannon constraints are enabled. */
+	boolean borderConstraint, cannonCollision;
+	/** Number of terrain deformations applied (see Terrain.getEditCount). */
+	int terrainEdits;
+
+	/**
+	 * Make room for a number of bodies.
+	 * @param n Number of bodies
+	 */
+	void ensureCapacity(int n)
+	{
+		if (polygons.length < n) {
+			int capacity = Math.max(n, 2*polygons.length);
+			floats = java.util.Arrays.copyOf(floats, capacity*FLOATS);
+			ints = java.util.Arrays.copyOf(ints, capacity*INTS);
+			polygons = java.util.Arrays.copyOf(polygons, capacity);
+		}
+	}
+
+	/**
+	 * Copy another state.
+	 * @param s State copied
+	 */
+	void set(WorldState s)
+	{
+		ensureCapacity(s.size);
+		tick = s.tick;
+		size = s.size;
+		java.lang.System.arraycopy(s.floats, 0, floats, 0, size*FLOATS);
+		java.lang.System.arraycopy(s.ints, 0, ints, 0, size*INTS);
+		java.lang.System.arraycopy(s.polygons, 0, polygons, 0, size);
+		shockFactor = s.shockFactor;
+		windTime = s.windTime;
+		windForce = s.windForce;
+		windDrift = s.windDrift;
+		gravityAngle = s.gravityAngle;
+		nextBodyId = s.nextBodyId;
+		borderConstraint = s.borderConstraint;
+		cannonCollision = s.cannonCollision;
+		terrainEdits = s.terrainEdits;
+	}
+}
@@ -0,0 +1,304 @@
+package cannons.telemetry;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Profiler of the frames. The work of a frame is timed in nested scopes
+ * (begin/end pairs: the physics steps and their phases, the opponent, the
+ * drawing of the bodies and the terrain...), and the scopes of the last
+ * HISTORY frames are kept (the renderer draws them as a stacked graph of the
+ * top-level scopes against the frame budget). The worst frame over the
+ * budget is captured with its whole tree of scopes, which can be written to
+ * a file.
+ * Recording does not allocate: the scopes of each frame are stored in
+ * preallocated arrays, and the scopes beyond MAX_ENTRIES are dropped.
+ */
+public final class FrameProfiler
+{
+	/** Timing scopes, with their label and their color in the graph. */
+	public enum Scope {
+		PHYSICS("physics", 0xFF3A5FCD), WIND("wind", 0xFF6C8EE8), SOLVER("solver", 0xFF27408B),
+		FRAGMENTS("fragments", 0xFF8A9FFF), DUST("dust", 0xFFA8C4FF),
+		RECORDING("telemetry and rewind", 0xFFE0A020), OPPONENT("opponent", 0xFFD04040),
+		TERRAIN("terrain cache", 0xFF3C9A3C),
+		RENDER("render", 0xFF8C6BB1), AMBIENT("dust and wind", 0xFFB39DDB), BODIES("bodies", 0xFF7E57C2),
+		TERRAIN_DRAW("terrain", 0xFF5E35B1), CANNONS("cannons", 0xFF9575CD), HUD("hud", 0xFFD1C4E9);
+
+		public final String label;
+		public final int color;
+
+		Scope(String label, int color) {
+			this.label = label;
+			this.color = color;
+		}
+	}
+
+	/** Number of frames kept. */
+	public static final int HISTORY = 300;
+	/** Maximal number of scopes recorded in a frame, and maximal nesting. */
+	static final int MAX_ENTRIES = 96, MAX_DEPTH = 16;
+	/** First frames, slower (class loading, JIT compilation), which are not captured as spikes. */
+	static final int WARMUP_FRAMES = 120;
+	private static final Scope[] SCOPES = Scope.values();
+
+	/** Frame budget. */
+	private final long budgetNanos;
+	/**
+	 * Scopes of the frames of the history, in the order they began: those of
+	 * the frame in slot f are at f*MAX_ENTRIES, and there are frameEntries[f].
+	 * Their start is relative to the start of the frame.
+	 */
+	private final int[] entryScope = new int[HISTORY*MAX_ENTRIES], entryDepth = new int[HISTORY*MAX_ENTRIES];
+	private final long[] entryStart = new long[HISTORY*MAX_ENTRIES], entryNanos = new long[HISTORY*MAX_ENTRIES];
+	private final int[] frameEntries = new int[HISTORY];
+	/** Duration of the frames of the history. */
+	private final long[] frameNanos = new long[HISTORY];
+	/** Slot of the current frame, number of frames recorded, start of the current frame. */
+	private int frame, frames;
+	private long frameStart;
+	/** Scopes open in the current frame (index of their entry, -1 if dropped) and their number. */
+	private final int[] stack = new int[MAX_DEPTH];
+	private int depth;
+	/** Scopes dropped because a frame had too many or they were nested too deep. */
+	private int droppedScopes;
+	/** Worst frame over the budget (worstFrame is 0 if none), with its scopes. */
+	private final int[] worstScope = new int[MAX_ENTRIES], worstDepth = new int[MAX_ENTRIES];
+	private final long[] worstStart = new long[MAX_ENTRIES], worstNanos = new long[MAX_ENTRIES];
+	private int worstEntries, worstFrame;
+	private long worstFrameNanos;
+
+	/**
+	 * @param budgetMillis Frame budget, in milliseconds
+	 */
+	public FrameProfiler(float budgetMillis)
+	{
+		this.budgetNanos = (long) (budgetMillis * 1e6f);
+	}
+
+	/**
+	 * Start a frame.
+	 */
+	public void beginFrame()
+	{
+		frameStart = java.lang.System.nanoTime();
+		frameEntries[frame] = 0;
+		depth = 0;
+	}
+
+	/**
+	 * Open a scope in the current frame (it is nested in the open scopes).
+	 * @param scope Scope
+	 */
+	public void begin(Scope scope)
+	{
+		if (depth < MAX_DEPTH) {
+			int n = frameEntries[frame];
+			if (n < MAX_ENTRIES) {
+				int slot = frame*MAX_ENTRIES + n;
+				entryScope[slot] = scope.ordinal();
+				entryDepth[slot] = depth;
+				entryNanos[slot] = 0;
+				entryStart[slot] = java.lang.System.nanoTime() - frameStart;
+				frameEntries[frame] = n+1;
+				stack[depth] = slot;
+			} else {
+				stack[depth] = -1;
+				++droppedScopes;
+			}
+		} else {
+			++droppedScopes;
+		}
+		++depth;
+	}
+
+	/**
+	 * Close the last scope opened.
+	 */
+	public void end()
+	{
+		if (depth == 0)
+			return;
+		--depth;
+		if (depth < MAX_DEPTH && stack[depth] >= 0) {
+			int slot = stack[depth];
+			entryNanos[slot] = java.lang.System.nanoTime() - frameStart - entryStart[slot];
+		}
+	}
+
+	/**
+	 * End the current frame (the scopes left open, e.g. by an exception, are
+	 * closed), and capture it if it is the worst over the budget so far.
+	 */
+	public void endFrame()
+	{
+		while (depth > 0)
+			end();
+		long nanos = java.lang.System.nanoTime() - frameStart;
+		frameNanos[frame] = nanos;
+		++frames;
+		if (frames > WARMUP_FRAMES && nanos > budgetNanos && nanos > worstFrameNanos) {
+			int n = frameEntries[frame], first = frame*MAX_ENTRIES;
+			java.lang.System.arraycopy(entryScope, first, worstScope, 0, n);
+			java.lang.System.arraycopy(entryDepth, first, worstDepth, 0, n);
+			java.lang.System.arraycopy(entryStart, first, worstStart, 0, n);
+			java.lang.System.arraycopy(entryNanos, first, worstNanos, 0, n);
+			worstEntries = n;
+			worstFrameNanos = nanos;
+			worstFrame = frames;
+		}
+		frame = (frame + 1) % HISTORY;
+	}
+
+	/**
+	 * Determine whether a frame over the budget has been captured.
+	 * @return True if there is a worst frame
+	 */
+	public boolean hasWorstFrame()
+	{
+		return worstFrame > 0;
+	}
+
+	/**
+	 * Obtain the duration of the worst frame over the budget.
+	 * @return Duration in milliseconds (0 if none)
+	 */
+	public float getWorstFrameMillis()
+	{
+		return worstFrameNanos / 1e6f;
+	}
+
+	/**
+	 * Forget the worst frame, to capture the next spike.
+	 */
+	public void clearWorstFrame()
+	{
+		worstFrame = 0;
+		worstFrameNanos = 0;
+		worstEntries = 0;
+	}
+
+	/**
+	 * Write the tree of scopes of the worst frame, with the total and self
+	 * time of each scope (the self time excludes the nested scopes).
+	 * @param path Path of the file (overwritten)
+	 * @throws IOException If the file cannot be written
+	 */
+	public void writeWorstFrame(String path) throws IOException
+	{
+		PrintWriter out = new PrintWriter(new FileWriter(path));
+		try {
+			out.printf("Worst frame: %.3f ms (frame %d, budget %.3f ms)%n", worstFrameNanos/1e6, worstFrame, budgetNanos/1e6);
+			out.printf("%-36s %10s %10s %10s%n", "scope", "start ms", "total ms", "self ms");
+			long tracked = 0;
+			for (int e = 0; e < worstEntries; e++) {
+				long self = worstNanos[e];
+				for (int c = e+1; c < worstEntries && worstDepth[c] > worstDepth[e]; c++) {
+					if (worstDepth[c] == worstDepth[e]+1)
+						self -= worstNanos[c];
+				}
+				if (worstDepth[e] == 0)
+					tracked += worstNanos[e];
+				StringBuilder name = new StringBuilder();
+				for (int d = 0; d < worstDepth[e]; d++)
+					name.append("  ");
+				name.append(SCOPES[worstScope[e]].label);
+				out.printf("%-36s %10.3f %10.3f %10.3f%n", name, worstStart[e]/1e6, worstNanos[e]/1e6, self/1e6);
+			}
+			out.printf("%-36s %10s %10.3f %10.3f%n", "(untracked)", "", (worstFrameNanos - tracked)/1e6, (worstFrameNanos - tracked)/1e6);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Obtain the frame budget.
+	 * @return Budget in nanoseconds
+	 */
+	public long getBudgetNanos()
+	{
+		return budgetNanos;
+	}
+
+	/**
+	 * Number of frames in the history.
+	 * @return int quantity (at most HISTORY)
+	 */
+	public int getFrameCount()
+	{
+		return Math.min(frames, HISTORY);
+	}
+
+	/**
+	 * Slot of a frame of the history.
+	 * @param k Rank of the frame (0 for the oldest)
+	 * @return Slot
+	 */
+	private int slot(int k)
+	{
+		return (frame - getFrameCount() + k + HISTORY) % HISTORY;
+	}
+
+	/**
+	 * Obtain the duration of a frame of the history.
+	 * @param k Rank of the frame (0 for the oldest, below getFrameCount)
+	 * @return Duration in nanoseconds
+	 */
+	public long getFrameNanos(int k)
+	{
+		return frameNanos[slot(k)];
+	}
+
+	/**
+	 * Number of scopes recorded in a frame of the history.
+	 * @param k Rank of the frame
+	 * @return int quantity
+	 */
+	public int getScopeCount(int k)
+	{
+		return frameEntries[slot(k)];
+	}
+
+	/**
+	 * Obtain a scope recorded in a frame of the history (in the order they began).
+	 * @param k Rank of the frame
+	 * @param e Rank of the scope in the frame
+	 * @return Scope
+	 */
+	public Scope getScope(int k, int e)
+	{
+		return SCOPES[entryScope[slot(k)*MAX_ENTRIES + e]];
+	}
+
+	/**
+	 * Obtain the nesting of a scope recorded in a frame of the history.
+	 * @param k Rank of the frame
+	 * @param e Rank of the scope in the frame
+	 * @return Depth (0 for a top-level scope)
+	 */
+	public int getScopeDepth(int k, int e)
+	{
+		return entryDepth[slot(k)*MAX_ENTRIES + e];
+	}
+
+	/**
+	 * Obtain the duration of a scope recorded in a frame of the history.
+	 * @param k Rank of the frame
+	 * @param e Rank of the scope in the frame
+	 * @return Duration in nanoseconds
+	 */
+	public long getScopeNanos(int k, int e)
+	{
+		return entryNanos[slot(k)*MAX_ENTRIES + e];
+	}
+
+	/**
+	 * Number of scopes dropped because a frame had too many or they were nested too deep.
+	 * @return int quantity
+	 */
+	public int getDroppedScopes()
+	{
+		return droppedScopes;
+	}
+}
@@ -0,0 +1,327 @@
+package cannons.telemetry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Deflater;
+
+import cannons.physics.Body;
+import cannons.physics.EventBuffer;
+import cannons.physics.System;
+
+/**
+ * Non-blocking export of the simulation state for offline analysis. After
+ * each tick the simulation thread copies the state of the bodies and the
+ * events into two preallocated rings of columns (single producer, single
+ * consumer, no lock and no allocation). A background thread drains them in
+ * blocks, compresses each block and appends it to a file.
+ * When the writer falls behind and a ring has no room for a whole tick, the
+ * tick is dropped and counted instead of blocking the simulation.
+ *
+ * File format: a sequence of blocks, each one made of its kind (BODIES or
+ * EVENTS), its number of rows, its compressed and raw lengths, and the
+ * deflated columns one after the other (see TelemetryDump).
+ * Body columns: tick, id, x, y, vx, vy, radius (int and floats) and flags
+ * (byte: FLAG_HUMAN, FLAG_COLLIDED, FLAG_SLEEPING, FLAG_POLYGON).
+ * Event columns: tick, type, bodyA, bodyB (ints), x, y, value (floats).
+ */
+public class TelemetrySink implements Runnable
+{
+	/** Block kinds. */
+	public static final byte BODIES = 1, EVENTS = 2;
+	/** Body flags. */
+	public static final byte FLAG_HUMAN = 1, FLAG_COLLIDED = 2, FLAG_SLEEPING = 4, FLAG_POLYGON = 8;
+	/** Bytes of a body row and of an event row, over all the columns. */
+	static final int BODY_ROW_BYTES = 7*4 + 1, EVENT_ROW_BYTES = 7*4;
+	/** Maximal number of rows of a block. */
+	static final int BLOCK_ROWS = 8192;
+	/** Pause of the writer while too few rows are pending. */
+	static final long IDLE_NANOS = 2000000;
+	/** Longest delay before the pending rows are written, even if they are few. */
+	static final long BATCH_NANOS = 250000000;
+
+	/** Ring of the body rows (capacity is a power of two). */
+	private final int bodyCapacity;
+	private final int[] bodyTick, bodyId;
+	private final float[] bodyX, bodyY, bodyVX, bodyVY, bodyRadius;
+	private final byte[] bodyFlags;
+	/** Rows written by the simulation, and rows drained by the writer, since the start. */
+	private final AtomicLong bodyWritten = new AtomicLong(), bodyRead = new AtomicLong();
+
+	/** Ring of the event rows (capacity is a power of two). */
+	private final int eventCapacity;
+	private final int[] eventTick, eventType, eventA, eventB;
+	private final float[] eventX, eventY, eventValue;
+	private final AtomicLong eventWritten = new AtomicLong(), eventRead = new AtomicLong();
+
+	/** Ticks recorded and dropped (written by the simulation thread only). */
+	private volatile long recordedTicks, droppedTicks;
+	/** Blocks and compressed bytes appended to the file (written by the writer only). */
+	private volatile long blocks, bytesWritten;
+
+	/** Output file, only used by the writer. */
+	private final DataOutputStream out;
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final ByteBuffer raw = ByteBuffer.allocate(BLOCK_ROWS*BODY_ROW_BYTES);
+	private byte[] compressed = new byte[BLOCK_ROWS*BODY_ROW_BYTES + 64];
+	/** Background writer. */
+	private final Thread thread;
+	private volatile boolean closing;
+
+	/**
+	 * Open the file (truncating it if it exists) and start the writer.
+	 * @param path Path of the file
+	 * @param bodyRows Capacity of the ring of body rows (rounded up to a power of two)
+	 * @param eventRows Capacity of the ring of event rows (rounded up to a power of two)
+	 * @throws IOException If the file cannot be opened
+	 */
+	public TelemetrySink(String path, int bodyRows, int eventRows) throws IOException
+	{
+		this(new FileOutputStream(path), bodyRows, eventRows);
+	}
+
+	/**
+	 * Start a writer appending to a stream.
+	 * @param stream Output stream (closed by close())
+	 * @param bodyRows Capacity of the ring of body rows (rounded up to a power of two)
+	 * @param eventRows Capacity of the ring of event rows (rounded up to a power of two)
+	 */
+	public TelemetrySink(OutputStream stream, int bodyRows, int eventRows)
+	{
+		bodyCapacity = Integer.highestOneBit(Math.max(2, bodyRows) - 1) << 1;
+		bodyTick = new int[bodyCapacity];
+		bodyId = new int[bodyCapacity];
+		bodyX = new float[bodyCapacity];
+		bodyY = new float[bodyCapacity];
+		bodyVX = new float[bodyCapacity];
+		bodyVY = new float[bodyCapacity];
+		bodyRadius = new float[bodyCapacity];
+		bodyFlags = new byte[bodyCapacity];
+		eventCapacity = Integer.highestOneBit(Math.max(2, eventRows) - 1) << 1;
+		eventTick = new int[eventCapacity];
+		eventType = new int[eventCapacity];
+		eventA = new int[eventCapacity];
+		eventB = new int[eventCapacity];
+		eventX = new float[eventCapacity];
+		eventY = new float[eventCapacity];
+		eventValue = new float[eventCapacity];
+		out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		thread = new Thread(this, "telemetry-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Copy the state of the bodies and the undrained events after a tick. The
+	 * events are left to their consumer. Never blocks: if the writer is behind
+	 * and a ring has no room for the whole tick, the tick is dropped.
+	 * Must always be called from the same thread.
+	 * @param tick Tick number
+	 * @param system System which has just been stepped
+	 * @return False if the tick was dropped
+	 */
+	public boolean record(int tick, System system)
+	{
+		int nbBodies = system.getNumberOfBodies();
+		EventBuffer events = system.getEvents();
+		int nbEvents = events.size();
+		long bw = bodyWritten.get(), ew = eventWritten.get();
+		if (bodyCapacity - (bw - bodyRead.get()) < nbBodies || eventCapacity - (ew - eventRead.get()) < nbEvents) {
+			++droppedTicks;
+			return false;
+		}
+		for (int k = 0; k < nbBodies; k++) {
+			Body b = system.getBody(k);
+			int slot = (int) (bw + k) & (bodyCapacity - 1);
+			bodyTick[slot] = tick;
+			bodyId[slot] = b.index;
+			bodyX[slot] = b.pos.x;
+			bodyY[slot] = b.pos.y;
+			bodyVX[slot] = b.pos.x - b.ppos.x;
+			bodyVY[slot] = b.pos.y - b.ppos.y;
+			bodyRadius[slot] = b.rad;
+			bodyFlags[slot] = (byte) ((b.human ? FLAG_HUMAN : 0) | (b.hasCollidedTerrain ? FLAG_COLLIDED : 0)
+					| (b.sleeping ? FLAG_SLEEPING : 0) | (b.polygon != null ? FLAG_POLYGON : 0));
+		}
+		for (int k = 0; k < nbEvents; k++) {
+			events.peek(k);
+			int slot = (int) (ew + k) & (eventCapacity - 1);
+			eventTick[slot] = tick;
+			eventType[slot] = events.getType().ordinal();
+			eventA[slot] = events.getBodyA();
+			eventB[slot] = events.getBodyB();
+			eventX[slot] = events.getX();
+			eventY[slot] = events.getY();
+			eventValue[slot] = events.getValue();
+		}
+		// Publish the rows (the writer reads them after these ordered writes).
+		bodyWritten.lazySet(bw + nbBodies);
+		eventWritten.lazySet(ew + nbEvents);
+		++recordedTicks;
+		return true;
+	}
+
+	/**
+	 * Number of ticks recorded.
+	 * @return long quantity
+	 */
+	public long getRecordedTicks() {
+		return recordedTicks;
+	}
+
+	/**
+	 * Number of ticks dropped because the writer was behind.
+	 * @return long quantity
+	 */
+	public long getDroppedTicks() {
+		return droppedTicks;
+	}
+
+	/**
+	 * Number of compressed bytes appended to the file.
+	 * @return long quantity
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Number of blocks appended to the file.
+	 * @return long quantity
+	 */
+	public long getBlocks() {
+		return blocks;
+	}
+
+	/**
+	 * Write the remaining rows, then close the file.
+	 * @throws InterruptedException If interrupted while waiting for the writer
+	 */
+	public void close() throws InterruptedException
+	{
+		closing = true;
+		LockSupport.unpark(thread);
+		thread.join();
+	}
+
+	public void run()
+	{
+		try {
+			long lastBlock = java.lang.System.nanoTime();
+			while (true) {
+				boolean last = closing;
+				// Batch the rows of many ticks in each block (better compression).
+				if (!last && bodyWritten.get() - bodyRead.get() < BLOCK_ROWS/2
+						&& java.lang.System.nanoTime() - lastBlock < BATCH_NANOS) {
+					LockSupport.parkNanos(IDLE_NANOS);
+					continue;
+				}
+				int drained = drainBodies() + drainEvents();
+				lastBlock = java.lang.System.nanoTime();
+				if (drained == 0) {
+					if (last)
+						break;
+					out.flush();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Append a block of the pending body rows.
+	 * @return Number of rows written
+	 * @throws IOException If the file cannot be written
+	 */
+	private int drainBodies() throws IOException
+	{
+		long read = bodyRead.get();
+		int n = (int) Math.min(BLOCK_ROWS, bodyWritten.get() - read);
+		if (n == 0)
+			return 0;
+		int mask = bodyCapacity - 1;
+		// Column c of the block starts at byte 4*c*n.
+		for (int k = 0; k < n; k++) {
+			int slot = (int) (read + k) & mask, at = 4*k;
+			raw.putInt(at, bodyTick[slot]);
+			raw.putInt(at + 4*n, bodyId[slot]);
+			raw.putFloat(at + 8*n, bodyX[slot]);
+			raw.putFloat(at + 12*n, bodyY[slot]);
+			raw.putFloat(at + 16*n, bodyVX[slot]);
+			raw.putFloat(at + 20*n, bodyVY[slot]);
+			raw.putFloat(at + 24*n, bodyRadius[slot]);
+			raw.put(28*n + k, bodyFlags[slot]);
+		}
+		// The slots can be reused as soon as they are copied.
+		bodyRead.lazySet(read + n);
+		writeBlock(BODIES, n, n*BODY_ROW_BYTES);
+		return n;
+	}
+
+	/**
+	 * Append a block of the pending event rows.
+	 * @return Number of rows written
+	 * @throws IOException If the file cannot be written
+	 */
+	private int drainEvents() throws IOException
+	{
+		long read = eventRead.get();
+		int n = (int) Math.min(BLOCK_ROWS, eventWritten.get() - read);
+		if (n == 0)
+			return 0;
+		int mask = eventCapacity - 1;
+		for (int k = 0; k < n; k++) {
+			int slot = (int) (read + k) & mask, at = 4*k;
+			raw.putInt(at, eventTick[slot]);
+			raw.putInt(at + 4*n, eventType[slot]);
+			raw.putInt(at + 8*n, eventA[slot]);
+			raw.putInt(at + 12*n, eventB[slot]);
+			raw.putFloat(at + 16*n, eventX[slot]);
+			raw.putFloat(at + 20*n, eventY[slot]);
+			raw.putFloat(at + 24*n, eventValue[slot]);
+		}
+		eventRead.lazySet(read + n);
+		writeBlock(EVENTS, n, n*EVENT_ROW_BYTES);
+		return n;
+	}
+
+	/**
+	 * Compress the raw columns and append them as a block.
+	 * @param kind Block kind
+	 * @param rows Number of rows
+	 * @param length Number of bytes of the raw columns
+	 * @throws IOException If the file cannot be written
+	 */
+	private void writeBlock(byte kind, int rows, int length) throws IOException
+	{
+		deflater.reset();
+		deflater.setInput(raw.array(), 0, length);
+		deflater.finish();
+		int size = 0;
+		while (!deflater.finished()) {
+			if (size == compressed.length)
+				compressed = java.util.Arrays.copyOf(compressed, 2*compressed.length);
+			size += deflater.deflate(compressed, size, compressed.length - size);
+		}
+		out.writeByte(kind);
+		out.writeInt(rows);
+		out.writeInt(size);
+		out.writeInt(length);
+		out.write(compressed, 0, size);
+		++blocks;
+		bytesWritten += 13 + size;
+	}
+}
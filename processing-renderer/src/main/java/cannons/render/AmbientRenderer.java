@@ -0,0 +1,81 @@
+package cannons.render;
+
+import cannons.physics.DustField;
+import cannons.physics.System;
+
+import processing.core.PApplet;
+
+/**
+ * Draw the dust particles and the wind indicator in screen coordinates.
+ */
+public final class AmbientRenderer
+{
+	/** The parent PApplet that we will render ourselves onto. */
+	private PApplet p5;
+
+	AmbientRenderer(PApplet p)
+	{
+		this.p5 = p;
+	}
+
+	/**
+	 * Draw the dust trails and the wind arrow of a system.
+	 * @param system System of bodies
+	 */
+	void draw(System system) {
+		p5.noStroke();
+		if (system.getDust() != null)
+			drawDust(system.getDust());
+		drawWind(system.getWindForceX());
+	}
+
+	/**
+	 * Draw the trails of the dust particles.
+	 * @param dust Dust particles
+	 */
+	private void drawDust(DustField dust)
+	{
+		p5.stroke(255);
+		p5.strokeWeight(1.0f);
+		p5.beginShape(PApplet.LINES);
+		for (int i = 0; i < dust.size(); i++) {
+			for (int k = 0; k < DustField.TRAIL-1; k++) {
+				p5.vertex(dust.getTrailX(i, k), dust.getTrailY(i, k));
+				p5.vertex(dust.getTrailX(i, k+1), dust.getTrailY(i, k+1));
+			}
+		}
+		p5.endShape();
+		p5.noStroke();
+	}
+
+	/** Draw an arrow.
+	 * @param x1 Start x-coord
+	 * @param y1 Start y-coord
+	 * @param x2 End x-coord
+	 * @param y2 End y-coord
+	 */
+	private void arrow(float x1, float y1, float x2, float y2) {
+		p5.line(x1, y1, x2, y2);
+		p5.pushMatrix();
+		p5.translate(x2, y2);
+		float a = PApplet.atan2(x1-x2, y2-y1);
+		p5.rotate(a);
+		p5.line(0, 0, -6, -6);
+		p5.line(0, 0, 6, -6);
+		p5.popMatrix();
+	}
+
+	/** Draw the wind force as an arrow.
+	 * @param forceX Lateral wind force
+	 */
+	private void drawWind(float forceX) {
+		p5.strokeWeight(3.0f);
+		p5.stroke(0, 150, 0);
+		float x1 = p5.width - 75.0f;
+		float y1 = 10.0f;
+		float x2 = x1 + 300.0f*forceX;
+		float y2 = y1;
+		arrow(x1, y1, x2, y2);
+		p5.noStroke();
+	}
+}
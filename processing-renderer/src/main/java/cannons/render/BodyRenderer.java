@@ -0,0 +1,151 @@
+package cannons.render;
+
+import cannons.net.NetClient;
+import cannons.physics.Body;
+import cannons.physics.BodyStore;
+import cannons.physics.Constants;
+import cannons.physics.Fragments;
+import cannons.physics.System;
+
+import processing.core.PApplet;
+
+/**
+ * Draw the bodies of a system (with the sandbox particles and the sparks of
+ * the fragments), or the bodies of a networked match as received by the
+ * client, in world coordinates.
+ */
+public final class BodyRenderer
+{
+	/** The parent PApplet that we will render ourselves onto. */
+	private PApplet p5;
+	/** Vertices of the unit polygons already computed, by number of sides. */
+	private final float[][] unitCircles = new float[64][];
+
+	BodyRenderer(PApplet p)
+	{
+		this.p5 = p;
+	}
+
+	/**
+	 * Draw the visible bodies. The positions are only interpolated for the
+	 * visible bodies.
+	 * @param system System of bodies
+	 * @param camera Camera defining the visible part of the world
+	 * @param alpha Interpolation between the last two states (1 for the last one)
+	 * @param segments Number of sides of the polygons drawn for the bodies, or 0 for ellipses
+	 */
+	void draw(System system, Camera camera, float alpha, int segments)
+	{
+		p5.noStroke();
+		float shockFactor = system.getShockFactor();
+		for (int i = 0; i < system.getNumberOfBodies(); i++) {
+			Body b = system.getBody(i);
+			if (camera.isVisible(b.pos.x - b.rad, b.pos.x + b.rad))
+				draw(b, shockFactor, alpha, segments);
+		}
+		BodyStore particles = system.getParticles();
+		if (particles != null) {
+			p5.stroke(Constants.opponentColor);
+			for (int i = 0; i < particles.size(); i++) {
+				float x = particles.getX(i);
+				if (camera.isVisible(x, x))
+					p5.point(x, particles.getY(i));
+			}
+			p5.noStroke();
+		}
+		drawSparks(system.getFragments(), camera);
+	}
+
+	/**
+	 * Draw a body between its last two positions.
+	 * @param b Body
+	 * @param shockFactor Shock factor (the color goes toward white)
+	 * @param alpha Interpolation between the last position (0) and the current one (1)
+	 * @param segments Number of sides of the polygon drawn, or 0 for an ellipse
+	 */
+	private void draw(Body b, float shockFactor, float alpha, int segments)
+	{
+		float x = b.ppos.x + alpha * (b.pos.x - b.ppos.x);
+		float y = b.ppos.y + alpha * (b.pos.y - b.ppos.y);
+		float rad = b.rad;
+		p5.fill(p5.lerpColor(b.getColor(), b.getShockColor(), shockFactor));
+		if (b.polygon != null) {
+			float a = b.pangle + alpha * (b.angle - b.pangle);
+			float c = PApplet.cos(a), s = PApplet.sin(a);
+			p5.beginShape();
+			for (int k = 0; k < b.polygon.size; k++) {
+				float lx = b.polygon.localX[k], ly = b.polygon.localY[k];
+				p5.vertex(x + rad * (c*lx - s*ly), y + rad * (s*lx + c*ly));
+			}
+			p5.endShape(PApplet.CLOSE);
+			return;
+		}
+		if (segments <= 0) {
+			p5.ellipse(x, y, 2 * rad, 2 * rad);
+			return;
+		}
+		float[] circle = unitCircle(segments);
+		p5.beginShape();
+		for (int k = 0; k < segments; k++) {
+			p5.vertex(x + rad * circle[2*k], y + rad * circle[2*k + 1]);
+		}
+		p5.endShape(PApplet.CLOSE);
+	}
+
+	/**
+	 * Obtain the vertices of a regular polygon inscribed in the unit circle.
+	 * @param segments Number of sides (less than 64)
+	 * @return Coordinates (x, y) of the vertices
+	 */
+	private float[] unitCircle(int segments)
+	{
+		float[] circle = unitCircles[segments];
+		if (circle == null) {
+			circle = new float[2*segments];
+			for (int k = 0; k < segments; k++) {
+				circle[2*k] = PApplet.cos(PApplet.TWO_PI * k / segments);
+				circle[2*k + 1] = PApplet.sin(PApplet.TWO_PI * k / segments);
+			}
+			unitCircles[segments] = circle;
+		}
+		return circle;
+	}
+
+	/**
+	 * Draw the visible sparks, fading out.
+	 * @param fragments Pool of the fragments and their sparks
+	 * @param camera Camera defining the visible part of the world
+	 */
+	private void drawSparks(Fragments fragments, Camera camera)
+	{
+		p5.strokeWeight(2);
+		for (int k = 0; k < Fragments.SPARKS; k++) {
+			int life = fragments.getSparkLife(k);
+			if (life <= 0 || !camera.isVisible(fragments.getSparkX(k), fragments.getSparkX(k)))
+				continue;
+			p5.stroke((fragments.isSparkHuman(k)) ? Constants.humanColor : Constants.opponentColor,
+					255 * life / Fragments.SPARK_LIFE);
+			p5.point(fragments.getSparkX(k), fragments.getSparkY(k));
+		}
+		p5.strokeWeight(1);
+		p5.noStroke();
+	}
+
+	/**
+	 * Draw the bodies of a networked match, interpolated by the client.
+	 * @param client Client of the match
+	 * @param camera Camera defining the visible part of the world
+	 */
+	void draw(NetClient client, Camera camera)
+	{
+		int count = client.interpolate();
+		p5.noStroke();
+		for (int i = 0; i < count; i++) {
+			float x = client.getViewX(i), rad = client.getViewRadius(i);
+			if (camera.isVisible(x - rad, x + rad)) {
+				p5.fill((client.isViewHuman(i)) ? Constants.humanColor : Constants.opponentColor);
+				p5.ellipse(x, client.getViewY(i), 2*rad, 2*rad);
+			}
+		}
+	}
+}
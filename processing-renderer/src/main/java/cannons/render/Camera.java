@@ -0,0 +1,95 @@
+package cannons.render;
+
+import cannons.physics.Body;
+
+import processing.core.PApplet;
+
+public class Camera
+{
+	/** The parent PApplet that we will render ourselves onto. */
+	private PApplet p5;
+	/** Left edge of the view in world coordinates. */
+	float x;
+	/** Position the camera is moving toward. */
+	private float targetX;
+	/** Width of the world the camera scrolls over. */
+	private int worldWidth;
+	/** Body followed by the camera (null if none). */
+	private Body target;
+	/** Fraction of the remaining distance covered at each frame. */
+	private final float smoothing = 0.1f;
+
+	Camera(PApplet p, int worldWidth)
+	{
+		this.p5 = p;
+		this.worldWidth = worldWidth;
+	}
+
+	/**
+	 * Reset the camera over a new world.
+	 * @param worldWidth Width of the world
+	 * @param center Horizontal position to be centered in the view
+	 */
+	public void reset(int worldWidth, float center)
+	{
+		this.worldWidth = worldWidth;
+		this.target = null;
+		lookAt(center);
+		x = targetX;
+	}
+
+	/**
+	 * Center the view on a horizontal position.
+	 * @param center Horizontal position in world coordinates
+	 */
+	public void lookAt(float center)
+	{
+		targetX = PApplet.constrain(center - p5.width/2, 0, PApplet.max(0, worldWidth - p5.width));
+	}
+
+	/**
+	 * Follow a body (typically a cannon-ball) until it hits the terrain.
+	 * @param b Followed body
+	 */
+	public void follow(Body b)
+	{
+		target = b;
+	}
+
+	/**
+	 * Scroll the view manually. This stops following the current body.
+	 * @param dx Horizontal displacement
+	 */
+	public void scroll(float dx)
+	{
+		target = null;
+		lookAt(targetX + p5.width/2 + dx);
+	}
+
+	/**
+	 * Move the camera toward its target by one frame.
+	 * @param horizon Water level, below which the followed body is lost
+	 */
+	public void update(int horizon)
+	{
+		if (target != null) {
+			if (target.hasCollidedTerrain || target.pos.y > horizon) {
+				target = null;
+			} else {
+				lookAt(target.pos.x);
+			}
+		}
+		x += smoothing*(targetX - x);
+	}
+
+	/**
+	 * Determine whether a horizontal range is visible.
+	 * @param minX Left x-coord
+	 * @param maxX Right x-coord
+	 * @return True if the range overlaps the view
+	 */
+	public boolean isVisible(float minX, float maxX)
+	{
+		return maxX >= x && minX <= x + p5.width;
+	}
+}
@@ -0,0 +1,86 @@
+package cannons.render;
+
+import cannons.physics.Cannon;
+import cannons.physics.Constants;
+import cannons.physics.Vec;
+
+import processing.core.PApplet;
+
+/**
+ * Draw the cannons in world coordinates, and the force and upcoming
+ * cannon-ball of each one in screen coordinates.
+ */
+public final class CannonRenderer
+{
+	/** The parent PApplet that we will render ourselves onto. */
+	private PApplet p5;
+
+	CannonRenderer(PApplet p)
+	{
+		this.p5 = p;
+	}
+
+	/**
+	 * Draw the upcoming cannon-ball and cannon force (in screen coordinates).
+	 * @param cannon Cannon
+	 */
+	void drawInfo(Cannon cannon) {
+		boolean human = cannon.isHuman();
+		p5.fill((human) ? Constants.humanColor: Constants.opponentColor);
+		//Force bar
+		int length = (int) (cannon.getForce()*cannon.getConfig().cannonMaxForce);
+		p5.pushMatrix();
+		if (human) {
+			p5.translate(15, p5.height-20);
+		} else {
+			p5.translate(p5.width-100, p5.height-20);
+		}
+		p5.quad(0, 0, 0, -10, length, -10, length, 0);
+		p5.popMatrix();
+
+		//Mass preview
+		float radius = cannon.getConfig().massToRadiusRatio*cannon.getNextMass();
+		p5.pushMatrix();
+		if (human) {
+			p5.translate(20, p5.height-50);
+		} else {
+			p5.translate(p5.width-20, p5.height-50);
+		}
+		p5.ellipse(0, 0, 2*radius, 2*radius);
+		p5.popMatrix();
+	}
+
+	/**
+	 * Draw the cannon as a simple quad.
+	 * @param cannon Cannon
+	 */
+	void draw(Cannon cannon) {
+		boolean human = cannon.isHuman();
+		float length = cannon.length, angle = cannon.getAngle();
+		Vec position = cannon.getPosition();
+		p5.fill((human) ? Constants.humanColor: Constants.opponentColor);
+		p5.pushMatrix();
+		p5.translate(position.x, position.y);
+		p5.rotate((human) ? -angle: angle);
+		p5.quad(0, 0, 0, -10, (human)?length:-length, -10, (human)?length:-length, -2);
+		p5.popMatrix();
+	}
+
+	/**
+	 * Draw the broken cannon as a simple quad, outlined by a larger yellow one.
+	 * @param cannon Cannon
+	 */
+	void drawBroken(Cannon cannon) {
+		boolean human = cannon.isHuman();
+		float length = cannon.length, angle = cannon.getAngle();
+		Vec position = cannon.getPosition();
+		p5.pushMatrix();
+		p5.translate(position.x, position.y);
+		p5.rotate((human) ? -angle: angle);
+		p5.fill(p5.color(255, 255, 60));
+		p5.quad(0, 5, 0, -15, (human)?length+5:-length-5, -15, (human)?length+5:-length-5, 5);
+		p5.fill((human) ? Constants.humanColor: Constants.opponentColor);
+		p5.quad(0, 0, 0, -10, (human)?length:-length, -10, (human)?length:-length, -2);
+		p5.popMatrix();
+	}
+}
@@ -1,3 +1,4 @@
+package cannons.render;
 
 @SuppressWarnings("serial")
 public class GameException extends Exception {
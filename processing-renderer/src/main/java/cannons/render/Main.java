@@ -0,0 +1,619 @@
+package cannons.render;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+import cannons.net.NetClient;
+import cannons.net.NetProtocol;
+import cannons.physics.Cannon;
+import cannons.physics.ConfigWatcher;
+import cannons.physics.Constants;
+import cannons.physics.Demos;
+import cannons.physics.EventBuffer;
+import cannons.physics.PhysicsConfig;
+import cannons.physics.RandomOpponent;
+import cannons.physics.RewindBuffer;
+import cannons.physics.System;
+import cannons.physics.Terrain;
+import cannons.physics.TerrainGenerator;
+import cannons.physics.Vec;
+import cannons.telemetry.FrameProfiler;
+import cannons.telemetry.TelemetrySink;
+
+import processing.core.*;
+
+@SuppressWarnings("serial")
+public class Main extends PApplet
+{
+	enum GameState {PLAY, WAIT};
+	GameState gameState;
+	System system;
+	Terrain terrain;
+	Camera camera;
+	Cannon cannon1, cannon2;
+	float angle;
+	int bgColor;
+	RandomOpponent opponent;
+	PFont font;
+	String gameException;
+	boolean fillDemo;
+	boolean recording;
+	ConfigWatcher configWatcher;
+	/** Random streams of the terrain seeds, cannons, opponent, demos and colors. */
+	SplittableRandom terrainRandom, cannonRandom, opponentRandom, demoRandom, colorRandom;
+	/** Determinism mode (enabled with "--seed n"): the checksum of each tick is printed. */
+	boolean deterministic;
+	/** Number of simulation ticks since the start. */
+	int tick;
+	/** Client of a networked match (null when playing locally against the computer). */
+	NetClient client;
+	/** Terrain of the networked match the camera was last reset for. */
+	Terrain clientTerrain;
+	/** Force being charged for the next networked shot. */
+	float clientForce;
+	/** Fixed rate of the physics and adaptive quality of the rendering. */
+	QualityGovernor governor;
+	/** Debug pass drawing the terrain normals (toggled with n). */
+	boolean drawNormals;
+	/** Background generation of the terrain of the next match. */
+	TerrainGenerator terrainGenerator;
+	/** Export of the state of each tick (enabled with "--telemetry file"), or null. */
+	TelemetrySink telemetry;
+	/** History of the last ticks (20 seconds), to scrub through them and replay the end of a match. */
+	RewindBuffer rewind;
+	/** Whether the simulation is paused to scrub through the history (toggled with b), and the tick shown. */
+	boolean rewinding;
+	int rewindTick;
+	/** Frame of the instant replay being played (-1 if none), its first and last ticks. */
+	int replayFrame = -1, replayStart, replayEnd;
+	/** Number of ticks of the instant replay, played at half speed. */
+	static final int replayTicks = 120;
+	/** Timing of the work of the frames, and whether its overlay is shown (toggled with p). */
+	FrameProfiler profiler;
+	boolean drawProfiler;
+	/** Rendering of the simulation (which does not depend on Processing). */
+	BodyRenderer bodyRenderer;
+	TerrainRenderer terrainRenderer;
+	CannonRenderer cannonRenderer;
+	AmbientRenderer ambientRenderer;
+	ProfilerOverlay profilerOverlay;
+
+	public void setup()
+	{
+		size(1104, 600);
+//		size(640, 480);
+		frameRate(60);
+		fill(255);
+		noStroke();
+		rectMode(CENTER);
+		smooth();
+		font = createFont("Arial Bold",48);
+		camera = new Camera(this, width);
+		bodyRenderer = new BodyRenderer(this);
+		terrainRenderer = new TerrainRenderer(this);
+		cannonRenderer = new CannonRenderer(this);
+		ambientRenderer = new AmbientRenderer(this);
+		profilerOverlay = new ProfilerOverlay(this);
+		// Each subsystem has its own stream, so that drawing more numbers
+		// in one of them does not shift the others.
+		String seed = argument("--seed");
+		deterministic = seed != null;
+		SplittableRandom root = (deterministic) ? new SplittableRandom(Long.parseLong(seed)) : new SplittableRandom();
+		colorRandom = root.split();
+		terrainRandom = root.split();
+		cannonRandom = root.split();
+		opponentRandom = root.split();
+		demoRandom = root.split();
+		String server = argument("--connect");
+		if (server != null) {
+			int separator = server.lastIndexOf(':');
+			client = new NetClient();
+			try {
+				if (separator < 0)
+					client.connect(server, NetProtocol.DEFAULT_PORT);
+				else
+					client.connect(server.substring(0, separator), Integer.parseInt(server.substring(separator+1)));
+			} catch (IOException e) {
+				e.printStackTrace();
+				exit();
+			}
+			bgColor = Constants.somecolor(colorRandom);
+			gameState = GameState.PLAY;
+			return;
+		}
+		configWatcher = new ConfigWatcher(sketchPath("physics.properties"));
+		system = new System(root.split(), width, height);
+		system.setDeterministic(deterministic);
+		system.setConfig(configWatcher.start());
+		rewind = new RewindBuffer(20*60, 16 << 20);
+		terrainGenerator = new TerrainGenerator(Constants.worldScreens * width, height,
+				(int) (0.85f * height), (int) (0.20f * height), width, terrainRandom);
+		reset();
+		String telemetryPath = argument("--telemetry");
+		if (telemetryPath != null) {
+			try {
+				telemetry = new TelemetrySink(telemetryPath, 1 << 16, 1 << 12);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		governor = new QualityGovernor(60);
+		profiler = new FrameProfiler(1000.0f/60);
+		system.setProfiler(profiler);
+		opponent = new RandomOpponent(cannon2, system, opponentRandom);
+		opponent.enable();
+		background(bgColor);
+		gameState = GameState.PLAY;
+	}
+	
+	/**
+	 * Obtain the value of a command line option, such as
+	 * "--connect host[:port]" or "--seed n".
+	 * @param name Option name
+	 * @return Value, or null if the option is absent
+	 */
+	String argument(String name) {
+		if (args != null) {
+			for (int i = 0; i+1 < args.length; i++) {
+				if (args[i].equals(name))
+					return args[i+1];
+			}
+		}
+		return null;
+	}
+	
+	/** Flush the telemetry before the sketch closes. */
+	public void stop() {
+		if (telemetry != null) {
+			try {
+				telemetry.close();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			telemetry = null;
+		}
+		super.stop();
+	}
+
+	/** Reset the state of the terrain and system */
+	public void reset() {
+		bgColor = Constants.somecolor(colorRandom);
+		if(system != null)
+			system.reset();
+		// Generated in the background during the previous match.
+		terrain = terrainGenerator.take(system.getConfig().terrainSegmentWidth);
+		cannon1 = new Cannon(terrain.getFirstCannonPosition(), true, system.getConfig(), cannonRandom);
+		camera.reset(terrain.worldWidth, cannon1.getPosition().x);
+		cannon2 = new Cannon(terrain.getSecondCannonPosition(), false, system.getConfig(), cannonRandom);
+		if(system != null)
+			system.setCannonCollisions(cannon1.getCollisionCircleCenter(),
+					0.75f*cannon1.length/2, //smaller for more difficulty
+					cannon2.getCollisionCircleCenter(),
+					0.75f*cannon2.length/2); //smaller for more difficulty
+		if(opponent != null)
+			opponent.reset(cannon2);
+		fillDemo = false;
+		terrain.enableJournal(256);
+		rewind.clear();
+		rewinding = false;
+		replayFrame = -1;
+		gameException = null;
+	}
+	
+	/** MAIN GAME LOOP */
+	public void draw()
+	{
+		if(gameException != null && replayFrame < 0) {
+			noLoop();
+			background(0, 50);
+			textFont(font,30);
+			fill(255);
+			textAlign(CENTER);
+			text(gameException,width/2,height/2);
+			textFont(font,12);
+			text("Click to continue.",width/2,height/2+20);
+			textAlign(LEFT);
+			try {
+				Thread.sleep(500);
+			} catch (InterruptedException e1) {
+				e1.printStackTrace();
+			}
+			gameException = null;
+			return;
+		}
+		if (client != null) {
+			drawNetworked();
+			return;
+		}
+		profiler.beginFrame();
+		boolean win = gameException != null && gameException.contains("WON");
+		PhysicsConfig config = configWatcher.poll();
+		if (config != null) {
+			system.setConfig(config);
+			cannon1.setConfig(config);
+			cannon2.setConfig(config);
+			// The next terrain is generated again in the background if its segment width changed.
+			terrainGenerator.prefetch(config.terrainSegmentWidth);
+		}
+		int steps = governor.beginFrame(java.lang.System.nanoTime());
+		if (rewinding || replayFrame >= 0)
+			steps = 0;
+		system.setDustFraction(governor.getDustFraction());
+		try
+		{
+			for (int i = 0; i < steps; i++) {
+				long start = java.lang.System.nanoTime();
+				profiler.begin(FrameProfiler.Scope.PHYSICS);
+				system.setViewOrigin(camera.x, width);
+				system.step(terrain);
+				profiler.end();
+				governor.recordStep(java.lang.System.nanoTime() - start);
+				++tick;
+				if (deterministic)
+					println(tick+" "+Long.toHexString(system.getChecksum()));
+				profiler.begin(FrameProfiler.Scope.RECORDING);
+				if (telemetry != null)
+					telemetry.record(tick, system);
+				rewind.record(tick, system, terrain);
+				profiler.end();
+				handleEvents();
+				profiler.begin(FrameProfiler.Scope.OPPONENT);
+				opponent.step();
+				profiler.end();
+			}
+		}
+		catch (GameException e)
+		{
+			gameException = e.getMessage();
+			if (gameException.contains("WON")) {
+				win = true;
+			}
+			gameState = GameState.WAIT;
+			startReplay(win);
+		}
+		if (replayFrame >= 0) {
+			profiler.begin(FrameProfiler.Scope.RECORDING);
+			stepReplay();
+			profiler.end();
+		}
+		controlCannon();
+		profiler.begin(FrameProfiler.Scope.TERRAIN);
+		camera.update(terrain.horizon);
+		terrain.trim();
+		profiler.end();
+		if (!governor.shouldDraw()) {
+			governor.endFrame(0);
+			profiler.endFrame();
+			return; // The previous image stays on screen.
+		}
+		long drawStart = java.lang.System.nanoTime();
+		profiler.begin(FrameProfiler.Scope.RENDER);
+		profiler.begin(FrameProfiler.Scope.AMBIENT);
+		background(bgColor);
+		ambientRenderer.draw(system);
+		profiler.end();
+		pushMatrix();
+		translate(-camera.x, 0);
+		profiler.begin(FrameProfiler.Scope.BODIES);
+		bodyRenderer.draw(system, camera, governor.getAlpha(), governor.getCircleSegments());
+		profiler.end();
+		profiler.begin(FrameProfiler.Scope.TERRAIN_DRAW);
+		if(!fillDemo)
+			terrainRenderer.drawWater(terrain, camera);
+		terrainRenderer.draw(terrain, camera);
+		if (drawNormals && governor.allowsDebug())
+			terrainRenderer.drawNormals(terrain, camera);
+		profiler.end();
+		profiler.begin(FrameProfiler.Scope.CANNONS);
+		if(gameException != null && replayFrame < 0) {
+			if(win) {
+				cannonRenderer.draw(cannon1);
+				cannonRenderer.drawBroken(cannon2);
+			} else {
+				cannonRenderer.drawBroken(cannon1);
+				cannonRenderer.draw(cannon2);
+			}
+		} else {
+			cannonRenderer.draw(cannon1);
+			cannonRenderer.draw(cannon2);
+		}
+		popMatrix();
+		cannonRenderer.drawInfo(cannon1);
+		cannonRenderer.drawInfo(cannon2);
+		profiler.end();
+		profiler.begin(FrameProfiler.Scope.HUD);
+		textFont(font,10);
+		fill(0);
+		text("fps: "+frameRate+"  solver iterations: "+system.getSolverIterations()
+				+"  substepped: "+system.getSubsteppedBodies()
+				+"  neighbour rebuilds: "+system.getNeighbourRebuilds()
+				+"  fragments: "+system.getFragments().getLiveFragments()
+				+"  sparks: "+system.getFragments().getSparks(),20,20);
+		text("quality level: "+governor.getLevel()+"  step: "+nf(governor.getStepMillis(),1,2)+" ms"
+				+"  draw: "+nf(governor.getDrawMillis(),1,2)+" ms  skipped frames: "+governor.getSkippedFrames()
+				+"  dropped steps: "+governor.getDroppedSteps(),20,185);
+		text("Press r to reset landscape",20,35);
+		text("Press and hold spacebar to shoot",20,50);
+		text("Use arrows to change cannon angle",20,65);
+		text("Demo: Press k to commit suicide",20,80);
+		text("Demo: Press m to test momemtum",20,95);
+		text("Stability test: Press f to fill with balls",20,110);
+		text("Debug: Press n to show the terrain normals",20,125);
+		text("Demo: Press c to drop crates and rocks",20,140);
+		text("Debug: Press b to rewind and scrub",20,155);
+		text("Debug: Press p for the frame profiler",20,170);
+		if (replayFrame >= 0) {
+			textFont(font,30);
+			text("INSTANT REPLAY",width/2-120,height/4);
+			textFont(font,10);
+		}
+		if (rewinding)
+			text("rewind: tick "+rewindTick+" of "+rewind.getFirstTick()+" to "+rewind.getLastTick()
+					+" ("+rewind.getBytes()/1024+" kB)  Press , and . to scrub, b to resume from here",20,200);
+		if (telemetry != null)
+			text("telemetry: "+telemetry.getRecordedTicks()+" ticks, "+telemetry.getBytesWritten()/1024+" kB written"
+					+"  dropped ticks: "+telemetry.getDroppedTicks(),20,215);
+		if (drawProfiler)
+			profilerOverlay.draw(profiler, 20, height - ProfilerOverlay.GRAPH_HEIGHT - 20);
+		profiler.end();
+		profiler.end();
+		governor.endFrame(java.lang.System.nanoTime() - drawStart);
+		profiler.endFrame();
+//		if(recording) {
+//			saveFrame("a2-####.png"); 
+//		}
+	}
+	
+	/**
+	 * Game loop of a networked match: the world is simulated by the server,
+	 * and only rendered here from the received snapshots.
+	 */
+	void drawNetworked() {
+		try {
+			client.poll();
+		} catch (IOException e) {
+			e.printStackTrace();
+			exit();
+			return;
+		}
+		int winner = client.pollWinner();
+		if (winner >= 0) {
+			gameException = (winner == client.getSlot()) ? "YOU WON!" : "YOU LOST!";
+			bgColor = Constants.somecolor(colorRandom);
+		}
+		Terrain terrain = client.getTerrain();
+		if (terrain == null)
+			return;
+		if (terrain != clientTerrain) {
+			clientTerrain = terrain;
+			Vec own = (client.getSlot() == 0) ? terrain.getFirstCannonPosition() : terrain.getSecondCannonPosition();
+			camera.reset(terrain.worldWidth, own.x);
+			clientForce = 0;
+		}
+		if (keyPressed) {
+			Cannon cannon = client.getCannon(client.getSlot());
+			try {
+				if (key == ' ')
+					clientForce = min(1.0f, clientForce + 0.02f);
+				if (keyCode == UP)
+					client.aim(cannon.getAngle() + 0.02f);
+				if (keyCode == DOWN)
+					client.aim(cannon.getAngle() - 0.02f);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (keyCode == LEFT)
+				camera.scroll(-10);
+			if (keyCode == RIGHT)
+				camera.scroll(10);
+		}
+		client.getCannon(client.getSlot()).setForce(clientForce);
+		camera.update(terrain.horizon);
+		background(bgColor);
+		pushMatrix();
+		translate(-camera.x, 0);
+		bodyRenderer.draw(client, camera);
+		terrainRenderer.drawWater(terrain, camera);
+		terrainRenderer.draw(terrain, camera);
+		cannonRenderer.draw(client.getCannon(0));
+		cannonRenderer.draw(client.getCannon(1));
+		popMatrix();
+		terrain.trim();
+		textFont(font,10);
+		fill(0);
+		text("fps: "+frameRate,20,20);
+		text("Networked match, player "+(client.getSlot()+1),20,35);
+		text("Press and hold spacebar to shoot",20,50);
+		text("Use arrows to change cannon angle",20,65);
+	}
+	
+	/**
+	 * Start the instant replay of the last ticks before the end of a match.
+	 * @param win Whether the human won (the opponent cannon is looked at)
+	 */
+	void startReplay(boolean win) {
+		if (rewind.isEmpty())
+			return;
+		replayEnd = rewind.getLastTick();
+		replayStart = Math.max(rewind.getFirstTick(), replayEnd - replayTicks);
+		replayFrame = 0;
+		camera.lookAt((win ? cannon2 : cannon1).getPosition().x);
+	}
+
+	/**
+	 * Show the next tick of the instant replay, at half speed. Once it is
+	 * over, the final state is shown again and the end of the match follows.
+	 */
+	void stepReplay() {
+		int t = Math.min(replayStart + replayFrame/2, replayEnd);
+		system.loadState(rewind.seek(t), terrain);
+		if (t == replayEnd)
+			replayFrame = -1;
+		else
+			++replayFrame;
+	}
+
+	/**
+	 * Pause the simulation to scrub through its history, or resume it from
+	 * the tick shown (the ticks after it are forgotten).
+	 */
+	void toggleRewind() {
+		if (!rewinding) {
+			if (rewind.isEmpty())
+				return;
+			rewinding = true;
+			rewindTick = rewind.getLastTick();
+		} else {
+			rewind.truncateAfter(rewindTick);
+			tick = rewindTick;
+			rewinding = false;
+		}
+	}
+
+	/**
+	 * Show another tick of the history.
+	 * @param ticks Number of ticks forward (negative to go backward)
+	 */
+	void scrub(int ticks) {
+		rewindTick = constrain(rewindTick + ticks, rewind.getFirstTick(), rewind.getLastTick());
+		system.loadState(rewind.seek(rewindTick), terrain);
+	}
+
+	/**
+	 * Write the tree of scopes of the worst frame over the budget next to the
+	 * sketch, and capture the next one.
+	 */
+	void saveWorstFrame() {
+		if (!profiler.hasWorstFrame())
+			return;
+		String path = sketchPath("worst-frame.txt");
+		try {
+			profiler.writeWorstFrame(path);
+			println("Worst frame ("+nf(profiler.getWorstFrameMillis(),1,2)+" ms) written to "+path);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		profiler.clearWorstFrame();
+	}
+
+	/**
+	 * Drain the events of the last simulation step.
+	 * @throws GameException If a cannon was hit (either "YOU WON!" or "YOU LOST!")
+	 */
+	void handleEvents() throws GameException {
+		EventBuffer events = system.getEvents();
+		String result = null;
+		while (events.next()) {
+			if (events.getType() == EventBuffer.EventType.CANNON_HIT && result == null) {
+				result = (events.getBodyB() == 0) ? "YOU LOST!" : "YOU WON!";
+			}
+		}
+		if (result != null) {
+			throw new GameException(result);
+		}
+	}
+	
+	void controlCannon() {
+		//TODO: We cannot charge the cannon and change the angle at the same time :(
+		if (gameState == GameState.PLAY) {
+			if(keyPressed) {
+				if(key == ' ')
+					cannon1.increaseForce(0.02f);
+				if (keyCode == UP) {
+					cannon1.increaseAngle(0.02f);
+					system.setCannonCollisionPosition(cannon1.getCollisionCircleCenter(), true);
+				}
+				if (keyCode == DOWN){
+					cannon1.decreaseAngle(0.02f);
+					system.setCannonCollisionPosition(cannon1.getCollisionCircleCenter(), true);
+				}
+				if (keyCode == LEFT)
+					camera.scroll(-10);
+				if (keyCode == RIGHT)
+					camera.scroll(10);
+			}
+		}	
+	}
+	
+	void demoFillSystem() {
+		Demos.fill(system, demoRandom, camera.x, width, height, 200);
+		fillDemo = true;
+	}
+	
+	void demoCrates() {
+		Demos.crates(system, demoRandom, camera.x, width, height);
+	}
+
+	void demoMomentum() {
+		Demos.momentum(system, demoRandom, camera.x, width, height);
+	}
+
+	public void mousePressed()
+	{
+//		system.shock();
+		if (gameState == GameState.WAIT) {
+			gameState = GameState.PLAY;
+			reset();
+			loop();
+		} else if (client != null) {
+			loop();
+		}
+	}
+
+	public void keyPressed()
+	{
+		if (gameState == GameState.PLAY && client == null) {
+			if (key == 'r' || key == 'R') {
+				reset();
+			} else if ( key == 's' || key == 'S') {
+				recording = !recording;
+			} else if (key == 'k' || key == 'K') {
+				Demos.suicide(system, cannon1);
+			} else if (key == 'f' || key == 'F') {
+				demoFillSystem();
+			} else if (key == 'm' || key == 'M') {
+				demoMomentum();
+			} else if (key == 'c' || key == 'C') {
+				demoCrates();
+			} else if (key == 'n' || key == 'N') {
+				drawNormals = !drawNormals;
+			} else if (key == 'b' || key == 'B') {
+				toggleRewind();
+			} else if (key == 'p' || key == 'P') {
+				drawProfiler = !drawProfiler;
+			} else if (key == 'o' || key == 'O') {
+				saveWorstFrame();
+			} else if (rewinding && (key == ',' || key == '.')) {
+				scrub((key == ',') ? -5 : 5);
+			}
+		}
+	}
+	
+	public void keyReleased() {
+		if (client != null) {
+			if (key == ' ') {
+				try {
+					client.shoot(clientForce);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				clientForce = 0;
+			}
+		} else if (gameState == GameState.PLAY && !rewinding) {
+			if (key == ' ') {
+				if(cannon1.shoot(system)) {
+					camera.follow(cannon1.getLastShot());
+				} else {
+					textFont(font,30);
+					fill(0);
+					text("BLOCKED!",cannon1.getPosition().x - camera.x, cannon1.getPosition().y);
+				}
+			}
+		}
+	}
+
+	public static void main(String args[])
+	{
+		PApplet.main(concat(new String[] { "cannons.render.Main" }, args));
+	}
+}
\ No newline at end of file
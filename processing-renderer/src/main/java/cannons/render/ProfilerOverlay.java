@@ -0,0 +1,103 @@
+package cannons.render;
+
+import cannons.telemetry.FrameProfiler;
+import cannons.telemetry.FrameProfiler.Scope;
+
+import processing.core.PApplet;
+
+/**
+ * Overlay of the frame profiler: a stacked graph of the top-level scopes of
+ * the last frames against the frame budget, with a legend.
+ */
+public final class ProfilerOverlay
+{
+	/** Height of the graph, which shows up to twice the budget. */
+	static final int GRAPH_HEIGHT = 100;
+	/** Color of the time of a frame outside of its top-level scopes. */
+	static final int UNTRACKED_COLOR = 0xFFBDBDBD;
+	private static final Scope[] SCOPES = Scope.values();
+
+	/** The parent PApplet that we will render ourselves onto. */
+	private PApplet p5;
+	/** Time of each top-level scope over the history (computed when drawing). */
+	private final long[] scopeTotals = new long[SCOPES.length];
+
+	ProfilerOverlay(PApplet p)
+	{
+		this.p5 = p;
+	}
+
+	/**
+	 * Draw the stacked graph of the last frames (the oldest on the left), the
+	 * budget line, and the legend with the average time of the top-level scopes.
+	 * @param profiler Frame profiler
+	 * @param x Left edge of the graph (screen coordinates)
+	 * @param y Top edge of the graph
+	 */
+	void draw(FrameProfiler profiler, float x, float y)
+	{
+		int count = profiler.getFrameCount();
+		if (count == 0)
+			return;
+		int history = FrameProfiler.HISTORY;
+		long budgetNanos = profiler.getBudgetNanos();
+		p5.pushStyle();
+		p5.rectMode(PApplet.CORNER);
+		p5.noStroke();
+		p5.fill(255, 200);
+		p5.rect(x, y, history, GRAPH_HEIGHT);
+		float scale = GRAPH_HEIGHT / (2.0f*budgetNanos);
+		java.util.Arrays.fill(scopeTotals, 0);
+		long total = 0, longest = 0, untracked = 0;
+		for (int k = 0; k < count; k++) {
+			float bottom = y + GRAPH_HEIGHT;
+			long tracked = 0;
+			for (int e = 0; e < profiler.getScopeCount(k); e++) {
+				if (profiler.getScopeDepth(k, e) != 0)
+					continue;
+				long nanos = profiler.getScopeNanos(k, e);
+				Scope scope = profiler.getScope(k, e);
+				float h = Math.min(nanos*scale, bottom - y);
+				p5.fill(scope.color);
+				p5.rect(x + history - count + k, bottom - h, 1, h);
+				bottom -= h;
+				tracked += nanos;
+				scopeTotals[scope.ordinal()] += nanos;
+			}
+			long frameNanos = profiler.getFrameNanos(k);
+			float h = Math.min(Math.max(0, frameNanos - tracked)*scale, bottom - y);
+			p5.fill(UNTRACKED_COLOR);
+			p5.rect(x + history - count + k, bottom - h, 1, h);
+			total += frameNanos;
+			untracked += Math.max(0, frameNanos - tracked);
+			longest = Math.max(longest, frameNanos);
+		}
+		p5.stroke(255, 0, 0);
+		p5.line(x, y + GRAPH_HEIGHT/2, x + history, y + GRAPH_HEIGHT/2);
+		p5.noStroke();
+		float line = y + 10;
+		p5.fill(0);
+		p5.text("frame: "+PApplet.nf(total/1e6f/count,1,2)+" ms avg, "+PApplet.nf(longest/1e6f,1,2)+" ms max"
+				+" (budget "+PApplet.nf(budgetNanos/1e6f,1,2)+" ms, red line)", x + history + 10, line);
+		for (Scope scope : SCOPES) {
+			if (scopeTotals[scope.ordinal()] == 0)
+				continue;
+			line += 15;
+			p5.fill(scope.color);
+			p5.rect(x + history + 10, line - 8, 8, 8);
+			p5.fill(0);
+			p5.text(scope.label+": "+PApplet.nf(scopeTotals[scope.ordinal()]/1e6f/count,1,2)+" ms", x + history + 22, line);
+		}
+		line += 15;
+		p5.fill(UNTRACKED_COLOR);
+		p5.rect(x + history + 10, line - 8, 8, 8);
+		p5.fill(0);
+		p5.text("untracked: "+PApplet.nf(untracked/1e6f/count,1,2)+" ms", x + history + 22, line);
+		line += 15;
+		int dropped = profiler.getDroppedScopes();
+		p5.text((profiler.hasWorstFrame() ? "worst frame: "+PApplet.nf(profiler.getWorstFrameMillis(),1,2)+" ms  Press o to save it"
+				: "no frame over the budget")
+				+ ((dropped > 0) ? "  dropped scopes: "+dropped : ""), x + history + 10, line);
+		p5.popStyle();
+	}
+}
@@ -0,0 +1,183 @@
+package cannons.render;
+
+/**
+ * Adaptive quality of the rendering. The physics runs at a fixed rate: each
+ * frame runs the steps due since the last one (with an upper bound, the
+ * steps beyond it are dropped). The time spent stepping and drawing is
+ * averaged over the frames and compared to the frame budget. When it stays
+ * over the budget, the quality level goes up, shedding rendering cost; when
+ * it stays well under, the level goes back down.
+ * - Level 0: full quality (with the debug passes, if enabled).
+ * - Level 1: no debug passes, half the dust.
+ * - Level 2: a quarter of the dust, bodies drawn as 12-sided polygons.
+ * - Level 3: no dust, bodies drawn as 8-sided polygons, one frame out of two
+ *   is not drawn (the previous image stays on screen).
+ */
+public class QualityGovernor
+{
+	/** Highest quality level. */
+	static final int MAX_LEVEL = 3;
+	/** Maximal number of physics steps in one frame. */
+	static final int MAX_STEPS = 4;
+	/** Consecutive frames over the budget before raising the level. */
+	static final int RAISE_FRAMES = 30;
+	/** Consecutive frames well under the budget before lowering the level. */
+	static final int LOWER_FRAMES = 120;
+	/** Fraction of the budget under which a frame is well under it. */
+	static final float LOWER_LOAD = 0.5f;
+	/** Weight of the last frame in the averages. */
+	static final float SMOOTHING = 0.1f;
+	/** Frame gap considered a pause (e.g. game over screen), which does not owe any step. */
+	static final long PAUSE_NANOS = 250000000L;
+
+	/** Duration of a physics step. */
+	private final long stepNanos;
+	/** Time of the last frame (0 before the first one). */
+	private long lastFrame;
+	/** Time owed to the physics. */
+	private long accumulator;
+	/** Current quality level. */
+	private int level;
+	/** Consecutive frames over and well under the budget. */
+	private int overFrames, underFrames;
+	/** Averaged times of a step and of the drawing, in milliseconds. */
+	private float stepMillis, drawMillis;
+	/** Steps run during the current frame. */
+	private int frameSteps;
+	/** Frames since the start, frames not drawn, and steps dropped. */
+	private int frames, skippedFrames, droppedSteps;
+
+	/**
+	 * @param stepRate Physics steps per second
+	 */
+	QualityGovernor(float stepRate)
+	{
+		this.stepNanos = (long) (1e9 / stepRate);
+	}
+
+	/**
+	 * Start a frame.
+	 * @param now Current time (System.nanoTime())
+	 * @return Number of physics steps to run
+	 */
+	public int beginFrame(long now)
+	{
+		++frames;
+		long elapsed = (lastFrame == 0) ? stepNanos : now - lastFrame;
+		lastFrame = now;
+		if (elapsed > PAUSE_NANOS) {
+			accumulator = 0;
+			elapsed = stepNanos;
+		}
+		accumulator += elapsed;
+		int steps = (int) (accumulator / stepNanos);
+		accumulator -= steps * stepNanos;
+		if (steps > MAX_STEPS) {
+			droppedSteps += steps - MAX_STEPS;
+			steps = MAX_STEPS;
+		}
+		frameSteps = steps;
+		return steps;
+	}
+
+	/**
+	 * Record the duration of a physics step.
+	 * @param nanos Duration
+	 */
+	public void recordStep(long nanos)
+	{
+		stepMillis += SMOOTHING * (nanos / 1e6f - stepMillis);
+	}
+
+	/**
+	 * Determine whether the current frame is drawn.
+	 * @return False if the frame is skipped
+	 */
+	public boolean shouldDraw()
+	{
+		boolean draw = level < MAX_LEVEL || frames % 2 == 0;
+		if (!draw)
+			++skippedFrames;
+		return draw;
+	}
+
+	/**
+	 * End a frame and adapt the quality level.
+	 * @param drawNanos Time spent drawing the frame (0 if skipped)
+	 */
+	public void endFrame(long drawNanos)
+	{
+		if (drawNanos > 0)
+			drawMillis += SMOOTHING * (drawNanos / 1e6f - drawMillis);
+		float budget = stepNanos / 1e6f;
+		float load = Math.max(1, frameSteps) * stepMillis + drawMillis;
+		if (load > budget) {
+			underFrames = 0;
+			if (++overFrames >= RAISE_FRAMES && level < MAX_LEVEL) {
+				++level;
+				overFrames = 0;
+			}
+		} else if (load < LOWER_LOAD * budget) {
+			overFrames = 0;
+			if (++underFrames >= LOWER_FRAMES && level > 0) {
+				--level;
+				underFrames = 0;
+			}
+		} else {
+			overFrames = underFrames = 0;
+		}
+	}
+
+	/**
+	 * Fraction of the physics step elapsed since the last step, used to
+	 * interpolate the drawn positions between the last two states.
+	 * @return Fraction, from 0 to 1
+	 */
+	public float getAlpha() {
+		return (float) accumulator / stepNanos;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Fraction of the configured dust particles to keep.
+	 * @return Fraction, from 0 to 1
+	 */
+	public float getDustFraction() {
+		return (level == 0) ? 1 : (level == 1) ? 0.5f : (level == 2) ? 0.25f : 0;
+	}
+
+	/**
+	 * Number of sides of the polygons drawn for the bodies.
+	 * @return Number of sides, or 0 for true ellipses
+	 */
+	public int getCircleSegments() {
+		return (level < 2) ? 0 : (level == 2) ? 12 : 8;
+	}
+
+	/**
+	 * Determine whether the debug passes (e.g. terrain normals) may be drawn.
+	 * @return True at full quality
+	 */
+	public boolean allowsDebug() {
+		return level == 0;
+	}
+
+	public float getStepMillis() {
+		return stepMillis;
+	}
+
+	public float getDrawMillis() {
+		return drawMillis;
+	}
+
+	public int getSkippedFrames() {
+		return skippedFrames;
+	}
+
+	public int getDroppedSteps() {
+		return droppedSteps;
+	}
+}
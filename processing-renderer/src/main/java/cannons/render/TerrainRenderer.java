@@ -0,0 +1,155 @@
+package cannons.render;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import cannons.physics.Terrain;
+import cannons.physics.TerrainChunk;
+import cannons.physics.Vec;
+
+import processing.core.PApplet;
+import processing.core.PGraphics;
+import processing.core.PImage;
+
+/**
+ * Draw the terrain, the water and the terrain normals in world coordinates.
+ * Each visible chunk is painted once into an offscreen render cache, and only
+ * the spans marked dirty by the craters are painted again.
+ */
+public final class TerrainRenderer
+{
+	/** The parent PApplet that we will render ourselves onto. */
+	private PApplet p5;
+	/** Terrain whose chunks are cached (the caches are dropped when it changes). */
+	private Terrain terrain;
+	/** Offscreen render caches of the chunks, only kept while visible. */
+	private HashMap<TerrainChunk, PGraphics> layers = new HashMap<TerrainChunk, PGraphics>();
+
+	TerrainRenderer(PApplet p)
+	{
+		this.p5 = p;
+	}
+
+	/**
+	 * Draw the water line as a simple blue quad.
+	 * @param terrain Terrain
+	 * @param camera Camera defining the visible part of the world
+	 */
+	void drawWater(Terrain terrain, Camera camera)
+	{
+		float left = camera.x;
+		float right = camera.x + p5.width;
+		p5.fill(33, 44, 180);
+		p5.quad(left, p5.height, left, terrain.horizon, right, terrain.horizon, right, p5.height);
+	}
+
+	/**
+	 * Draw the terrain normals as green line segments.
+	 * @param terrain Terrain
+	 * @param camera Camera defining the visible part of the world
+	 */
+	void drawNormals(Terrain terrain, Camera camera)
+	{
+		p5.strokeWeight(1.0f);
+		p5.stroke(0,255,0);
+		float length = 15.0f;
+		int[] span = terrain.getBoundingIndices(camera.x, camera.x + p5.width);
+		Vec n = new Vec();
+		for(int i=span[0]; i<=span[1]; ++i) {
+			float x = terrain.getX(i);
+			float y = terrain.getHeight(i);
+			terrain.getNormal(i, n);
+			p5.line(x, y, x+length*n.x, y+length*n.y);
+		}
+		p5.noStroke();
+	}
+
+	/**
+	 * Paint the terrain segments of a chunk into its render cache.
+	 * @param layer Render cache of the chunk
+	 * @param chunk Terrain chunk
+	 * @param low First local vertex index (left vertex of the segment)
+	 * @param high Last local vertex index (left vertex of the segment)
+	 */
+	private void paint(PGraphics layer, TerrainChunk chunk, int low, int high)
+	{
+		int segmentWidth = terrain.terrainSegmentWidth;
+		low = PApplet.max(low, 0);
+		high = PApplet.min(high, chunk.size-1);
+		float offset = chunk.firstVertex*segmentWidth;
+		int h = p5.height;
+		layer.noStroke();
+		layer.fill(177, 162, 150);
+		for(int k=low; k<=high; ++k) {
+			int i = chunk.firstVertex + k;
+			if (i+1 >= terrain.nbSegments)
+				break;
+			float x0 = i*segmentWidth - offset;
+			float x1 = x0 + segmentWidth;
+			float y0 = chunk.heights[k];
+			float y1 = y0 + chunk.slopes[k]*segmentWidth;
+			layer.quad(x0, y0, x1, y1, x1, h, x0, h);
+		}
+	}
+
+	/**
+	 * Repaint the dirty span of a chunk render cache. The pixel columns
+	 * of the span are cleared before the segments are painted again.
+	 * @param layer Render cache of the chunk
+	 * @param chunk Terrain chunk
+	 */
+	private void repaintDirty(PGraphics layer, TerrainChunk chunk)
+	{
+		int x0 = chunk.dirtyLow*terrain.terrainSegmentWidth;
+		int x1 = PApplet.min(layer.width, (chunk.dirtyHigh+1)*terrain.terrainSegmentWidth);
+		layer.beginDraw();
+		if (x1 > x0) {
+			PImage eraser = p5.createImage(x1 - x0, p5.height, PApplet.ARGB);
+			layer.set(x0, 0, eraser);
+		}
+		// Include the neighbouring segments, which share the cleared columns' edges.
+		paint(layer, chunk, chunk.dirtyLow - 1, chunk.dirtyHigh + 1);
+		layer.endDraw();
+		chunk.dirtyLow = chunk.dirtyHigh = -1;
+	}
+
+	/**
+	 * Draw the visible chunks from their render caches. The render caches of
+	 * the chunks out of view are released.
+	 * @param terrain Terrain
+	 * @param camera Camera defining the visible part of the world
+	 */
+	void draw(Terrain terrain, Camera camera) {
+		if (terrain != this.terrain) {
+			this.terrain = terrain;
+			layers.clear();
+		}
+		int segmentWidth = terrain.terrainSegmentWidth, chunkSize = terrain.chunkSize;
+		int firstChunk = PApplet.max(0, (int) (camera.x/segmentWidth)/chunkSize);
+		int lastChunk = PApplet.min((terrain.nbSegments-1)/chunkSize,
+				(int) ((camera.x + p5.width)/segmentWidth)/chunkSize);
+		Iterator<TerrainChunk> it = layers.keySet().iterator();
+		while (it.hasNext()) {
+			TerrainChunk chunk = it.next();
+			if (chunk.index < firstChunk || chunk.index > lastChunk) {
+				it.remove();
+			}
+		}
+		for(int c=firstChunk; c<=lastChunk; ++c) {
+			TerrainChunk chunk = terrain.getChunk(c);
+			PGraphics layer = layers.get(chunk);
+			if (layer == null) {
+				layer = p5.createGraphics(chunk.size*segmentWidth+1, p5.height, PApplet.JAVA2D);
+				layer.beginDraw();
+				layer.smooth();
+				paint(layer, chunk, 0, chunk.size-1);
+				layer.endDraw();
+				chunk.dirtyLow = chunk.dirtyHigh = -1;
+				layers.put(chunk, layer);
+			} else if (chunk.dirtyLow >= 0) {
+				repaintDirty(layer, chunk);
+			}
+			p5.image(layer, chunk.firstVertex*segmentWidth, 0);
+		}
+	}
+}